@@ -1,6 +1,7 @@
 package com.owncloud.android;
 
 import android.content.ContentResolver;
+import android.os.Build;
 
 import com.evernote.android.job.JobRequest;
 import com.nextcloud.client.account.UserAccountManager;
@@ -11,6 +12,7 @@ import com.owncloud.android.datamodel.UploadsStorageManager;
 import com.owncloud.android.db.OCUpload;
 import com.owncloud.android.files.services.FileUploader;
 import com.owncloud.android.lib.common.operations.RemoteOperationResult;
+import com.owncloud.android.lib.common.utils.Log_OC;
 import com.owncloud.android.operations.RemoveFileOperation;
 import com.owncloud.android.operations.UploadFileOperation;
 import com.owncloud.android.utils.FileStorageUtils;
@@ -19,9 +21,15 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.io.File;
+import java.util.HashSet;
+import java.util.Set;
+
 import androidx.test.ext.junit.runners.AndroidJUnit4;
 
+import static junit.framework.TestCase.assertEquals;
 import static junit.framework.TestCase.assertTrue;
+import static junit.framework.TestCase.fail;
 
 /**
  * Tests related to file uploads
@@ -29,6 +37,8 @@ import static junit.framework.TestCase.assertTrue;
 
 @RunWith(AndroidJUnit4.class)
 public class UploadIT extends AbstractIT {
+    private static final String TAG = UploadIT.class.getSimpleName();
+    private static final long SERVICE_TIMEOUT_MILLIS = 60000;
 
     private UploadsStorageManager storageManager;
 
@@ -132,7 +142,28 @@ public class UploadIT extends AbstractIT {
 
         newUpload.setRemoteFolderToBeCreated();
 
-        return newUpload.execute(client, getStorageManager());
+        RemoteOperationResult result = newUpload.execute(client, getStorageManager());
+        assertBytesCopied(newUpload, ocUpload, result);
+        return result;
+    }
+
+    /**
+     * The files to upload are on the volume of the save path: from API 21 on they are linked into place without
+     * copying any byte, before they are copied once when staged and renamed into place.
+     */
+    private void assertBytesCopied(UploadFileOperation upload, OCUpload ocUpload, RemoteOperationResult result) {
+        long size = new File(ocUpload.getLocalPath()).length();
+        Log_OC.d(TAG, "upload of " + size + " bytes copied " + upload.getBytesCopied() + " bytes");
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            assertEquals(0, upload.getBytesCopied());
+            if (result.isSuccess()) {
+                File kept = new File(upload.getStoragePath());
+                assertTrue(kept.getAbsolutePath(), FileStorageUtils.isHardLinked(kept));
+            }
+        } else {
+            assertTrue("copied " + upload.getBytesCopied() + " bytes of " + size, upload.getBytesCopied() <= size);
+        }
     }
 
     @Test
@@ -160,8 +191,62 @@ public class UploadIT extends AbstractIT {
 
         RemoteOperationResult result = newUpload.execute(client, getStorageManager());
         assertTrue(result.toString(), result.isSuccess());
+        assertBytesCopied(newUpload, ocUpload, result);
 
         // cleanup
         new RemoveFileOperation("/testUpload/", false, account, false, targetContext).execute(client, getStorageManager());
     }
+
+    /**
+     * Uploads several files through the service, which runs them on its worker pool.
+     */
+    @Test
+    public void testUploadsThroughFileUploader() throws InterruptedException {
+        String savePath = FileStorageUtils.getSavePath(account.name);
+        String[] localPaths = {savePath + "/empty.txt", savePath + "/nonEmpty.txt", savePath + "/chunkedFile.txt"};
+        String[] remotePaths = {"/testUpload/pool/empty.txt", "/testUpload/pool/nonEmpty.txt",
+            "/testUpload/pool/chunkedFile.txt"};
+
+        new FileUploader.UploadRequester().uploadNewFile(targetContext,
+                                                         account,
+                                                         localPaths,
+                                                         remotePaths,
+                                                         null,
+                                                         FileUploader.LOCAL_BEHAVIOUR_COPY,
+                                                         true,
+                                                         UploadFileOperation.CREATED_BY_USER,
+                                                         false,
+                                                         false);
+
+        Set<String> pending = new HashSet<>();
+        for (String remotePath : remotePaths) {
+            pending.add(remotePath);
+        }
+
+        long deadline = System.currentTimeMillis() + SERVICE_TIMEOUT_MILLIS;
+        while (!pending.isEmpty()) {
+            for (OCUpload upload : storageManager.getAllStoredUploads()) {
+                if (!account.name.equals(upload.getAccountName()) || !pending.contains(upload.getRemotePath())) {
+                    continue;
+                }
+                if (upload.getUploadStatus() == UploadsStorageManager.UploadStatus.UPLOAD_FAILED) {
+                    fail(upload.toString());
+                }
+                if (upload.getUploadStatus() == UploadsStorageManager.UploadStatus.UPLOAD_SUCCEEDED) {
+                    pending.remove(upload.getRemotePath());
+                }
+            }
+
+            if (System.currentTimeMillis() > deadline) {
+                fail("not uploaded: " + pending);
+            }
+            Thread.sleep(500);
+        }
+
+        // cleanup
+        new RemoveFileOperation("/testUpload/", false, account, false, targetContext).execute(client, getStorageManager());
+        for (String remotePath : remotePaths) {
+            storageManager.removeUpload(account.name, remotePath);
+        }
+    }
 }
@@ -0,0 +1,121 @@
+/*
+ * Nextcloud Android client application
+ *
+ * Copyright (C) 2020 Nextcloud GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.owncloud.android.datamodel;
+
+import android.accounts.Account;
+import android.content.ContentResolver;
+import android.database.Cursor;
+
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta;
+import com.owncloud.android.utils.MimeType;
+
+import org.junit.After;
+import org.junit.Before;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Common base for tests of {@link FileDataStorageManager} against a local, account-less database content, which is
+ * deleted before and after every test
+ */
+public abstract class AbstractStorageManagerTest {
+
+    protected final Account account;
+    protected ContentResolver contentResolver;
+    protected FileDataStorageManager storageManager;
+
+    protected AbstractStorageManagerTest(Account account) {
+        this.account = account;
+    }
+
+    @Before
+    public void setUpStorageManager() {
+        contentResolver = InstrumentationRegistry.getInstrumentation().getTargetContext().getContentResolver();
+        storageManager = new FileDataStorageManager(account, contentResolver);
+        deleteAccountFiles();
+    }
+
+    @After
+    public void tearDownStorageManager() {
+        deleteAccountFiles();
+    }
+
+    protected OCFile createFolder(String path) {
+        return createFolder(storageManager.getFileByPath(OCFile.ROOT_PATH), path);
+    }
+
+    protected OCFile createFolder(OCFile parent, String path) {
+        OCFile folder = new OCFile(path);
+        folder.setMimeType(MimeType.DIRECTORY);
+        folder.setParentId(parent.getFileId());
+        storageManager.saveFile(folder);
+
+        return folder;
+    }
+
+    /**
+     * @return a text file in the given folder, not saved yet
+     */
+    protected OCFile createChild(OCFile folder, String name) {
+        OCFile child = new OCFile(folder.getRemotePath() + name);
+        child.setMimeType("text/plain");
+        child.setParentId(folder.getFileId());
+
+        return child;
+    }
+
+    /**
+     * @return text files named file0.txt, file1.txt... in the given folder, not saved yet
+     */
+    protected List<OCFile> createChildren(OCFile folder, int count) {
+        List<OCFile> children = new ArrayList<>(count);
+
+        for (int i = 0; i < count; i++) {
+            OCFile child = createChild(folder, "file" + i + ".txt");
+            child.setFileLength(i);
+            children.add(child);
+        }
+
+        return children;
+    }
+
+    protected int countAccountFiles() {
+        Cursor cursor = contentResolver.query(ProviderTableMeta.CONTENT_URI,
+                                              new String[]{ProviderTableMeta._ID},
+                                              ProviderTableMeta.FILE_ACCOUNT_OWNER + "=?",
+                                              new String[]{account.name},
+                                              null);
+        assertNotNull(cursor);
+        int count = cursor.getCount();
+        cursor.close();
+
+        return count;
+    }
+
+    protected void deleteAccountFiles() {
+        contentResolver.delete(ProviderTableMeta.CONTENT_URI,
+                               ProviderTableMeta.FILE_ACCOUNT_OWNER + "=?",
+                               new String[]{account.name});
+    }
+}
@@ -0,0 +1,364 @@
+/*
+ * Nextcloud Android client application
+ *
+ * Copyright (C) 2020 Nextcloud GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.owncloud.android.datamodel;
+
+import android.accounts.Account;
+import android.util.Log;
+
+import com.owncloud.android.utils.FileStorageUtils;
+import com.owncloud.android.utils.MimeTypeUtil;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.LargeTest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests and benchmarks for {@link FileDataStorageManager} against a local, account-less database content
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class FileDataStorageManagerTest extends AbstractStorageManagerTest {
+
+    private static final String TAG = FileDataStorageManagerTest.class.getSimpleName();
+    private static final int[] FOLDER_SIZES = {100, 1000, 10000};
+    private static final int PHOTO_FOLDER_SIZE = 20000;
+    private static final int READER_THREADS = 4;
+    private static final int READS_PER_THREAD = 200;
+
+    public FileDataStorageManagerTest() {
+        super(new Account("benchmark@server", "benchmark"));
+    }
+
+    @Test
+    public void testSaveFolderBulkInsertsAndUpdates() {
+        OCFile folder = createFolder("/bulk/");
+        List<OCFile> children = createChildren(folder, 50);
+
+        storageManager.saveFolder(folder, children, Collections.emptyList());
+        assertEquals(50, storageManager.getFolderContent(folder, false).size());
+        Map<String, Long> ids = new HashMap<>();
+        for (OCFile child : children) {
+            ids.put(child.getRemotePath(), storageManager.getFileByPath(child.getRemotePath()).getFileId());
+        }
+
+        // second save resolves existing rows instead of inserting duplicates
+        List<OCFile> refreshed = createChildren(folder, 50);
+        storageManager.saveFolder(folder, refreshed, Collections.emptyList());
+        assertEquals(50, storageManager.getFolderContent(folder, false).size());
+
+        for (OCFile child : refreshed) {
+            assertEquals(ids.get(child.getRemotePath()),
+                         Long.valueOf(storageManager.getFileByPath(child.getRemotePath()).getFileId()));
+        }
+    }
+
+    @Test
+    public void testIdLookupByPath() {
+        createFolder("/lookup/");
+
+        OCFile stored = storageManager.getFileByPath("/lookup/");
+        assertEquals(stored.getFileId(), storageManager.getIdByPath("/lookup/"));
+        assertTrue(storageManager.fileExists("/lookup/"));
+
+        assertEquals(-1, storageManager.getIdByPath("/missing/"));
+        assertFalse(storageManager.fileExists("/missing/"));
+    }
+
+    @Test
+    public void testRemoveFolderDeletesWholeSubtree() {
+        OCFile tree = createFolder("/tree/");
+        int subtreeSize = createTree(tree, 5, 10);
+        OCFile sibling = createFolder("/tree0/");
+        createTree(sibling, 2, 10);
+
+        int before = countAccountFiles();
+        assertTrue(storageManager.removeFolder(tree, true, false));
+
+        assertEquals(before - subtreeSize - 1, countAccountFiles());
+        assertNull(storageManager.getFileByPath("/tree/"));
+        assertFalse(storageManager.fileExists("/tree/level1/file0.txt"));
+        assertTrue(storageManager.fileExists("/tree0/level1/file0.txt"));
+    }
+
+    @Test
+    public void testAncestorIds() {
+        OCFile root = storageManager.getFileByPath(OCFile.ROOT_PATH);
+        OCFile first = createFolder("/first/");
+        OCFile second = createFolder(first, "/first/second/");
+        OCFile file = createChildren(second, 1).get(0);
+        storageManager.saveFile(file);
+
+        assertEquals(Arrays.asList(second.getFileId(), first.getFileId(), root.getFileId()),
+                     storageManager.getAncestorIds(file));
+        assertEquals(Collections.singletonList(root.getFileId()), storageManager.getAncestorIds(first));
+    }
+
+    @Test
+    public void benchmarkRemoveDeepFolder() {
+        OCFile tree = createFolder("/deep/");
+        int subtreeSize = createTree(tree, 50, 1000);
+        int before = countAccountFiles();
+
+        long start = System.currentTimeMillis();
+        storageManager.removeFolder(tree, true, false);
+        long duration = System.currentTimeMillis() - start;
+
+        assertEquals(before - subtreeSize - 1, countAccountFiles());
+        Log.i(TAG, "removeFolder with " + subtreeSize + " descendants: " + duration + " ms");
+    }
+
+    /**
+     * Reads a folder from several threads while another one keeps saving a large folder, and reports the reader
+     * latency percentiles.
+     */
+    @Test
+    public void benchmarkReadersDuringWrites() throws Exception {
+        OCFile readFolder = createFolder("/read/");
+        storageManager.saveFolder(readFolder, createChildren(readFolder, 100), Collections.emptyList());
+        OCFile writeFolder = createFolder("/write/");
+
+        AtomicBoolean writing = new AtomicBoolean(true);
+        Thread writer = new Thread(() -> {
+            FileDataStorageManager writerStorageManager = new FileDataStorageManager(account, contentResolver);
+            while (writing.get()) {
+                writerStorageManager.saveFolder(writeFolder, createChildren(writeFolder, 1000),
+                                                Collections.emptyList());
+            }
+        });
+        writer.start();
+
+        ExecutorService readers = Executors.newFixedThreadPool(READER_THREADS);
+        List<Future<long[]>> results = new ArrayList<>();
+        for (int i = 0; i < READER_THREADS; i++) {
+            results.add(readers.submit(() -> {
+                FileDataStorageManager readerStorageManager = new FileDataStorageManager(account, contentResolver);
+                long[] latencies = new long[READS_PER_THREAD];
+                for (int read = 0; read < READS_PER_THREAD; read++) {
+                    long start = System.nanoTime();
+                    assertEquals(100, readerStorageManager.getFolderContent(readFolder, false).size());
+                    latencies[read] = System.nanoTime() - start;
+                }
+                return latencies;
+            }));
+        }
+
+        long[] all = new long[READER_THREADS * READS_PER_THREAD];
+        for (int i = 0; i < READER_THREADS; i++) {
+            System.arraycopy(results.get(i).get(), 0, all, i * READS_PER_THREAD, READS_PER_THREAD);
+        }
+        readers.shutdown();
+        writing.set(false);
+        writer.join();
+
+        Arrays.sort(all);
+        Log.i(TAG, "reader latency during writes: p50 " + percentileMillis(all, 50) +
+            " ms, p90 " + percentileMillis(all, 90) +
+            " ms, p99 " + percentileMillis(all, 99) +
+            " ms, max " + percentileMillis(all, 100) + " ms");
+    }
+
+    private static double percentileMillis(long[] sortedNanos, int percentile) {
+        int index = Math.min(sortedNanos.length - 1, (int) Math.ceil(percentile / 100.0 * sortedNanos.length) - 1);
+        return sortedNanos[Math.max(0, index)] / 1_000_000.0;
+    }
+
+    @Test
+    public void testFilteredFolderContent() {
+        OCFile folder = createFolder("/filtered/");
+        storageManager.saveFolder(folder, createPhotos(folder, 30), Collections.emptyList());
+        createFolder(folder, "/filtered/sub/");
+
+        // 10 images, 10 videos, 10 hidden images, 1 folder
+        assertEquals(31, storageManager.getFolderContent(folder, false, true, "").size());
+        assertEquals(21, storageManager.getFolderContent(folder, false, false, "").size());
+        assertEquals(11, storageManager.getFolderContent(folder, false, false, "image/").size());
+        assertEquals(20, storageManager.getFolderImages(folder, false).size());
+        assertEquals(0, storageManager.getFolderImages(folder, true).size());
+    }
+
+    @Test
+    public void testOnDeviceFolderContent() {
+        OCFile folder = createFolder("/ondevice/");
+        List<OCFile> children = createChildren(folder, 3);
+        storageManager.saveFolder(folder, children, Collections.emptyList());
+        OCFile subfolder = createFolder(folder, "/ondevice/sub/");
+        createFolder(folder, "/ondevice/remote/");
+
+        // a local subfolder and a downloaded file not bound to its row yet, neither has a storage path in the database
+        File localSubfolder = new File(FileStorageUtils.getDefaultSavePathFor(account.name, subfolder));
+        File localFile = new File(FileStorageUtils.getDefaultSavePathFor(account.name, children.get(0)));
+        try {
+            assertTrue(localSubfolder.mkdirs());
+            assertTrue(localFile.createNewFile());
+
+            List<OCFile> onDevice = storageManager.getFolderContent(folder, true, true, "");
+            List<String> paths = new ArrayList<>();
+            for (OCFile file : onDevice) {
+                paths.add(file.getRemotePath());
+            }
+            Collections.sort(paths);
+
+            assertEquals(Arrays.asList("/ondevice/file0.txt", "/ondevice/sub/"), paths);
+        } finally {
+            FileStorageUtils.deleteRecursive(new File(FileStorageUtils.getSavePath(account.name)));
+        }
+    }
+
+    @Test
+    public void testClearUpdateThumbnailFlagsKeepsFlagSetAgain() {
+        OCFile folder = createFolder("/thumbnails/");
+        List<OCFile> children = createChildren(folder, 2);
+        for (OCFile child : children) {
+            child.setUpdateThumbnailNeeded(true);
+        }
+        storageManager.saveFolder(folder, children, Collections.emptyList());
+        OCFile unchanged = storageManager.getFileByPath(children.get(0).getRemotePath());
+        OCFile changed = storageManager.getFileByPath(children.get(1).getRemotePath());
+
+        List<FileDataStorageManager.RegeneratedThumbnail> thumbnails = Arrays.asList(
+            new FileDataStorageManager.RegeneratedThumbnail(unchanged),
+            new FileDataStorageManager.RegeneratedThumbnail(changed));
+
+        // downloaded again before the flags are cleared
+        OCFile downloaded = storageManager.getFileByPath(changed.getRemotePath());
+        downloaded.setLastSyncDateForData(downloaded.getLastSyncDateForData() + 1);
+        storageManager.saveFile(downloaded);
+
+        assertEquals(1, storageManager.clearUpdateThumbnailFlags(thumbnails));
+        assertFalse(storageManager.getFileByPath(unchanged.getRemotePath()).isUpdateThumbnailNeeded());
+        assertTrue(storageManager.getFileByPath(changed.getRemotePath()).isUpdateThumbnailNeeded());
+    }
+
+    @Test
+    public void benchmarkFolderImages() {
+        OCFile folder = createFolder("/photos/");
+        storageManager.saveFolder(folder, createPhotos(folder, PHOTO_FOLDER_SIZE), Collections.emptyList());
+
+        long start = System.currentTimeMillis();
+        List<OCFile> images = new ArrayList<>();
+        for (OCFile file : storageManager.getFolderContent(folder, false)) {
+            if (MimeTypeUtil.isImage(file)) {
+                images.add(file);
+            }
+        }
+        long inMemory = System.currentTimeMillis() - start;
+
+        start = System.currentTimeMillis();
+        List<OCFile> filtered = storageManager.getFolderImages(folder, false);
+        long inDatabase = System.currentTimeMillis() - start;
+
+        assertEquals(images.size(), filtered.size());
+        Log.i(TAG, "images of " + PHOTO_FOLDER_SIZE + " files: filtered in memory " + inMemory +
+            " ms, in database " + inDatabase + " ms");
+    }
+
+    @Test
+    public void benchmarkSaveFolder() {
+        for (int size : FOLDER_SIZES) {
+            long legacy = timeSaveFolder("/legacy" + size + "/", size, false);
+            long bulk = timeSaveFolder("/bulk" + size + "/", size, true);
+
+            Log.i(TAG, "saveFolder with " + size + " children: legacy " + legacy + " ms, bulk " + bulk + " ms");
+        }
+    }
+
+    /**
+     * Saves a synthetic folder twice, once inserting and once updating all children, and returns the duration of
+     * the update pass, which is the one affected by resolving existing ids.
+     */
+    private long timeSaveFolder(String path, int size, boolean bulkResolve) {
+        OCFile folder = createFolder(path);
+        storageManager.saveFolder(folder, createChildren(folder, size), Collections.emptyList(), bulkResolve);
+
+        List<OCFile> children = createChildren(folder, size);
+        long start = System.currentTimeMillis();
+        storageManager.saveFolder(folder, children, Collections.emptyList(), bulkResolve);
+        long duration = System.currentTimeMillis() - start;
+
+        assertEquals(size, storageManager.getFolderContent(folder, false).size());
+
+        return duration;
+    }
+
+    /**
+     * Creates a chain of nested folders below the given one, each holding some files.
+     *
+     * @return number of created rows
+     */
+    private int createTree(OCFile folder, int depth, int filesPerLevel) {
+        int created = 0;
+        OCFile current = folder;
+
+        for (int level = 1; level <= depth; level++) {
+            storageManager.saveFolder(current, createChildren(current, filesPerLevel), Collections.emptyList());
+            current = createFolder(current, current.getRemotePath() + "level" + level + "/");
+            created += filesPerLevel + 1;
+        }
+
+        return created;
+    }
+
+    /**
+     * Creates files cycling through visible images, videos and hidden images.
+     */
+    private List<OCFile> createPhotos(OCFile folder, int count) {
+        List<OCFile> photos = new ArrayList<>(count);
+
+        for (int i = 0; i < count; i++) {
+            OCFile photo;
+            switch (i % 3) {
+                case 0:
+                    photo = new OCFile(folder.getRemotePath() + "IMG_" + i + ".jpg");
+                    photo.setMimeType("image/jpeg");
+                    break;
+                case 1:
+                    photo = new OCFile(folder.getRemotePath() + "VID_" + i + ".mp4");
+                    photo.setMimeType("video/mp4");
+                    break;
+                default:
+                    photo = new OCFile(folder.getRemotePath() + ".IMG_" + i + ".jpg");
+                    photo.setMimeType("image/jpeg");
+                    break;
+            }
+            photo.setParentId(folder.getFileId());
+            photos.add(photo);
+        }
+
+        return photos;
+    }
+}
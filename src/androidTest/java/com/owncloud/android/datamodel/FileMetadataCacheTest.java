@@ -0,0 +1,95 @@
+/*
+ * Nextcloud Android client application
+ *
+ * Copyright (C) 2020 Nextcloud GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.owncloud.android.datamodel;
+
+import android.accounts.Account;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Collections;
+import java.util.List;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+
+@RunWith(AndroidJUnit4.class)
+public class FileMetadataCacheTest extends AbstractStorageManagerTest {
+
+    private FileMetadataCache cache;
+
+    public FileMetadataCacheTest() {
+        super(new Account("cache@server", "cache"));
+    }
+
+    @Before
+    public void enableCache() {
+        FileMetadataCache.setEnabled(true);
+        cache = FileMetadataCache.forAccount(account.name);
+        assertNotNull(cache);
+    }
+
+    @After
+    public void disableCache() {
+        FileMetadataCache.setEnabled(false);
+    }
+
+    @Test
+    public void testFolderContentIsServedFromCache() {
+        OCFile folder = createFolder("/cached/");
+        storageManager.saveFile(createChild(folder, "a.txt"));
+
+        long misses = cache.getMissCount();
+        long hits = cache.getHitCount();
+
+        List<OCFile> first = storageManager.getFolderContent(folder, false);
+        List<OCFile> second = storageManager.getFolderContent(folder, false);
+
+        assertEquals(1, first.size());
+        assertEquals(first.get(0).getFileId(), second.get(0).getFileId());
+        assertNotSame(first.get(0), second.get(0));
+        assertEquals(misses + 1, cache.getMissCount());
+        assertEquals(hits + 1, cache.getHitCount());
+    }
+
+    @Test
+    public void testChangesInvalidateCache() {
+        OCFile folder = createFolder("/cached/");
+        storageManager.saveFile(createChild(folder, "a.txt"));
+        assertEquals(1, storageManager.getFolderContent(folder, false).size());
+
+        storageManager.saveFolder(folder, Collections.singletonList(createChild(folder, "b.txt")),
+                                  Collections.emptyList());
+        assertEquals(2, storageManager.getFolderContent(folder, false).size());
+
+        OCFile file = storageManager.getFileByPath("/cached/b.txt");
+        file.setFileLength(42);
+        storageManager.saveFile(file);
+        assertEquals(42, storageManager.getFileByPath("/cached/b.txt").getFileLength());
+        assertEquals(42, storageManager.getFileById(file.getFileId()).getFileLength());
+
+        storageManager.removeFile(file, true, false);
+        assertEquals(1, storageManager.getFolderContent(folder, false).size());
+    }
+}
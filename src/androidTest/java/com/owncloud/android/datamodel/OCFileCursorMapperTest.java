@@ -0,0 +1,217 @@
+/*
+ * Nextcloud Android client application
+ *
+ * Copyright (C) 2020 Nextcloud GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.owncloud.android.datamodel;
+
+import android.database.MatrixCursor;
+import android.util.Log;
+
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta;
+import com.owncloud.android.lib.common.network.WebdavEntry;
+import com.owncloud.android.utils.FileStorageUtils;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests and micro benchmark for {@link OCFileCursorMapper}
+ */
+@RunWith(AndroidJUnit4.class)
+public class OCFileCursorMapperTest {
+
+    private static final String TAG = OCFileCursorMapperTest.class.getSimpleName();
+    private static final String ACCOUNT_NAME = "mapper@server";
+    private static final int ROWS = 10000;
+    private static final int ITERATIONS = 5;
+
+    private static final String SHAREES = "[{\"userId\":\"user1\",\"displayName\":\"User 1\",\"shareType\":\"USER\"}]";
+
+    @Test
+    public void testMapAllColumns() {
+        MatrixCursor cursor = createCursor(1);
+        cursor.moveToFirst();
+
+        OCFile file = new OCFileCursorMapper(cursor, ACCOUNT_NAME).map();
+
+        assertEquals(0, file.getFileId());
+        assertEquals("/folder/file0.jpg", file.getRemotePath());
+        assertEquals("image/jpeg", file.getMimeType());
+        assertEquals(1, file.getSharees().size());
+        assertTrue(file.isFavorite());
+        assertFalse(file.isEncrypted());
+    }
+
+    @Test
+    public void testMapPartialProjection() {
+        MatrixCursor cursor = new MatrixCursor(new String[]{
+            ProviderTableMeta._ID, ProviderTableMeta.FILE_PATH, ProviderTableMeta.FILE_CONTENT_TYPE
+        });
+        cursor.addRow(new Object[]{1L, "/file.txt", "text/plain"});
+        cursor.moveToFirst();
+
+        OCFile file = new OCFileCursorMapper(cursor, ACCOUNT_NAME).map();
+
+        assertEquals(1, file.getFileId());
+        assertEquals("text/plain", file.getMimeType());
+        assertNull(file.getEtag());
+        assertTrue(file.getSharees().isEmpty());
+    }
+
+    @Test
+    public void testMapKeepsDefaultsOfMissingColumns() {
+        MatrixCursor cursor = new MatrixCursor(new String[]{ProviderTableMeta.FILE_PATH});
+        cursor.addRow(new Object[]{"/file.txt"});
+        cursor.moveToFirst();
+
+        OCFile file = new OCFileCursorMapper(cursor, ACCOUNT_NAME).map();
+
+        assertEquals(-1, file.getFileId());
+        assertEquals(WebdavEntry.MountType.INTERNAL, file.getMountType());
+        assertEquals("", file.getRichWorkspace());
+    }
+
+    /**
+     * Downloaded files without storage path are found by a single probe for one row and by listing their local folder
+     * for several rows
+     */
+    @Test
+    public void testBindExistingLocalFile() throws IOException {
+        File localFile = new File(FileStorageUtils.getSavePath(ACCOUNT_NAME) + "/local/file0.txt");
+        try {
+            assertTrue(localFile.getParentFile().mkdirs());
+            assertTrue(localFile.createNewFile());
+
+            MatrixCursor single = createUnboundCursor(1);
+            single.moveToFirst();
+            assertEquals(localFile.getAbsolutePath(),
+                         new OCFileCursorMapper(single, ACCOUNT_NAME).map().getStoragePath());
+
+            MatrixCursor several = createUnboundCursor(2);
+            OCFileCursorMapper mapper = new OCFileCursorMapper(several, ACCOUNT_NAME);
+            several.moveToFirst();
+            assertEquals(localFile.getAbsolutePath(), mapper.map().getStoragePath());
+            several.moveToNext();
+            assertNull(mapper.map().getStoragePath());
+        } finally {
+            FileStorageUtils.deleteRecursive(new File(FileStorageUtils.getSavePath(ACCOUNT_NAME)));
+        }
+    }
+
+    private MatrixCursor createUnboundCursor(int rows) {
+        MatrixCursor cursor = new MatrixCursor(new String[]{
+            ProviderTableMeta._ID, ProviderTableMeta.FILE_PATH, ProviderTableMeta.FILE_CONTENT_TYPE,
+            ProviderTableMeta.FILE_STORAGE_PATH
+        });
+        for (int i = 0; i < rows; i++) {
+            cursor.addRow(new Object[]{(long) i, "/local/file" + i + ".txt", "text/plain", null});
+        }
+        return cursor;
+    }
+
+    @Test
+    public void benchmarkMapping() {
+        MatrixCursor cursor = createCursor(ROWS);
+
+        long perRow = Long.MAX_VALUE;
+        long shared = Long.MAX_VALUE;
+        for (int i = 0; i < ITERATIONS; i++) {
+            // one mapper per row resolves all column indices for each row, as before
+            long start = System.nanoTime();
+            List<OCFile> files = new ArrayList<>(ROWS);
+            cursor.moveToPosition(-1);
+            while (cursor.moveToNext()) {
+                files.add(new OCFileCursorMapper(cursor, ACCOUNT_NAME).map());
+            }
+            perRow = Math.min(perRow, System.nanoTime() - start);
+            assertEquals(ROWS, files.size());
+
+            start = System.nanoTime();
+            files = new ArrayList<>(ROWS);
+            OCFileCursorMapper mapper = new OCFileCursorMapper(cursor, ACCOUNT_NAME);
+            cursor.moveToPosition(-1);
+            while (cursor.moveToNext()) {
+                files.add(mapper.map());
+            }
+            shared = Math.min(shared, System.nanoTime() - start);
+            assertEquals(ROWS, files.size());
+        }
+
+        Log.i(TAG, String.format("Mapping %d rows: per row mapper %d ns/row, shared mapper %d ns/row",
+                                 ROWS, perRow / ROWS, shared / ROWS));
+    }
+
+    private MatrixCursor createCursor(int rows) {
+        String[] columns = ProviderTableMeta.FILE_ALL_COLUMNS;
+        MatrixCursor cursor = new MatrixCursor(columns, rows);
+
+        for (int i = 0; i < rows; i++) {
+            MatrixCursor.RowBuilder row = cursor.newRow();
+            for (String column : columns) {
+                row.add(valueFor(column, i));
+            }
+        }
+
+        return cursor;
+    }
+
+    private Object valueFor(String column, int row) {
+        switch (column) {
+            case ProviderTableMeta._ID:
+                return (long) row;
+            case ProviderTableMeta.FILE_PARENT:
+                return 1L;
+            case ProviderTableMeta.FILE_NAME:
+                return "file" + row + ".jpg";
+            case ProviderTableMeta.FILE_PATH:
+                return "/folder/file" + row + ".jpg";
+            case ProviderTableMeta.FILE_CONTENT_TYPE:
+                return "image/jpeg";
+            case ProviderTableMeta.FILE_ACCOUNT_OWNER:
+                return ACCOUNT_NAME;
+            case ProviderTableMeta.FILE_STORAGE_PATH:
+                return "/sdcard/nextcloud/file" + row + ".jpg";
+            case ProviderTableMeta.FILE_ETAG:
+            case ProviderTableMeta.FILE_ETAG_ON_SERVER:
+                return "etag" + row;
+            case ProviderTableMeta.FILE_FAVORITE:
+                return 1;
+            case ProviderTableMeta.FILE_SHAREES:
+                return SHAREES;
+            case ProviderTableMeta.FILE_PUBLIC_LINK:
+            case ProviderTableMeta.FILE_PERMISSIONS:
+            case ProviderTableMeta.FILE_REMOTE_ID:
+            case ProviderTableMeta.FILE_ETAG_IN_CONFLICT:
+            case ProviderTableMeta.FILE_RICH_WORKSPACE:
+                return null;
+            default:
+                return 0L;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Nextcloud Android client application
+ *
+ * Copyright (C) 2020 Nextcloud GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.owncloud.android.datamodel;
+
+import android.content.ComponentCallbacks2;
+import android.graphics.Bitmap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+@RunWith(AndroidJUnit4.class)
+public class ThumbnailMemoryCacheTest {
+
+    private static final String THUMBNAIL_KEY = ThumbnailsCacheManager.PREFIX_THUMBNAIL + "memoryTest";
+    private static final String RESIZED_KEY = ThumbnailsCacheManager.PREFIX_RESIZED_IMAGE + "memoryTest";
+
+    @Before
+    public void setUp() {
+        ThumbnailsCacheManager.clearMemoryCache();
+    }
+
+    @After
+    public void tearDown() {
+        ThumbnailsCacheManager.clearMemoryCache();
+    }
+
+    @Test
+    public void testThumbnailIsServedFromMemory() {
+        Bitmap bitmap = Bitmap.createBitmap(64, 64, Bitmap.Config.ARGB_8888);
+        ThumbnailsCacheManager.addBitmapToCache(THUMBNAIL_KEY, bitmap);
+
+        int hits = ThumbnailsCacheManager.getMemoryCacheHitCount();
+        assertSame(bitmap, ThumbnailsCacheManager.getBitmapFromMemoryCache(THUMBNAIL_KEY));
+        assertEquals(hits + 1, ThumbnailsCacheManager.getMemoryCacheHitCount());
+    }
+
+    @Test
+    public void testResizedImagesStayOnDisk() {
+        ThumbnailsCacheManager.addBitmapToCache(RESIZED_KEY, Bitmap.createBitmap(64, 64, Bitmap.Config.ARGB_8888));
+
+        int misses = ThumbnailsCacheManager.getMemoryCacheMissCount();
+        assertNull(ThumbnailsCacheManager.getBitmapFromMemoryCache(RESIZED_KEY));
+        assertEquals(misses + 1, ThumbnailsCacheManager.getMemoryCacheMissCount());
+    }
+
+    @Test
+    public void testRecycledBitmapIsDropped() {
+        Bitmap bitmap = Bitmap.createBitmap(64, 64, Bitmap.Config.ARGB_8888);
+        ThumbnailsCacheManager.addBitmapToCache(THUMBNAIL_KEY, bitmap);
+        bitmap.recycle();
+
+        assertNull(ThumbnailsCacheManager.getBitmapFromMemoryCache(THUMBNAIL_KEY));
+    }
+
+    @Test
+    public void testTrimMemoryEvicts() {
+        ThumbnailsCacheManager.addBitmapToCache(THUMBNAIL_KEY, Bitmap.createBitmap(64, 64, Bitmap.Config.ARGB_8888));
+        ThumbnailsCacheManager.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+
+        assertNull(ThumbnailsCacheManager.getBitmapFromMemoryCache(THUMBNAIL_KEY));
+    }
+
+    @Test
+    public void testVideoOverlayIsDrawnOnce() {
+        ThumbnailsCacheManager.addBitmapToCache(THUMBNAIL_KEY, Bitmap.createBitmap(64, 64, Bitmap.Config.ARGB_8888));
+
+        Bitmap overlay = ThumbnailsCacheManager.getVideoThumbnailFromMemoryCache(THUMBNAIL_KEY);
+        assertNotNull(overlay);
+        assertSame(overlay, ThumbnailsCacheManager.getVideoThumbnailFromMemoryCache(THUMBNAIL_KEY));
+
+        // a regenerated thumbnail needs a new overlay
+        ThumbnailsCacheManager.addBitmapToCache(THUMBNAIL_KEY, Bitmap.createBitmap(64, 64, Bitmap.Config.ARGB_8888));
+        assertNotSame(overlay, ThumbnailsCacheManager.getVideoThumbnailFromMemoryCache(THUMBNAIL_KEY));
+    }
+}
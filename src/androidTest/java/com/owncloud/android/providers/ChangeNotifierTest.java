@@ -0,0 +1,130 @@
+/*
+ * Nextcloud Android client application
+ *
+ * Copyright (C) 2020 Nextcloud GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.owncloud.android.providers;
+
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(AndroidJUnit4.class)
+public class ChangeNotifierTest {
+
+    private static final Uri ROOT = Uri.parse("content://test");
+    private static final Uri FILE_1 = Uri.parse("content://test/file/1");
+    private static final Uri FILE_2 = Uri.parse("content://test/file/2");
+    private static final Uri DIR_1 = Uri.parse("content://test/dir/1");
+    private static final long WINDOW_MILLIS = 50;
+
+    private final List<Uri> delivered = new CopyOnWriteArrayList<>();
+    private HandlerThread handlerThread;
+    private ChangeNotifier notifier;
+
+    @Before
+    public void setUp() {
+        handlerThread = new HandlerThread("ChangeNotifierTest");
+        handlerThread.start();
+        notifier = new ChangeNotifier(delivered::add, new Handler(handlerThread.getLooper()), WINDOW_MILLIS);
+    }
+
+    @After
+    public void tearDown() {
+        handlerThread.quit();
+    }
+
+    @Test
+    public void testBatchDeliversEachUriOnceAtTheEnd() {
+        notifier.beginBatch();
+        for (int i = 0; i < 100; i++) {
+            notifier.notifyChange(FILE_1);
+            notifier.notifyChange(DIR_1);
+        }
+        assertEquals(Collections.emptyList(), delivered);
+
+        notifier.endBatch();
+        assertEquals(Arrays.asList(FILE_1, DIR_1), delivered);
+        assertEquals(198, notifier.getSuppressedCount());
+    }
+
+    @Test
+    public void testNestedBatchesDeliverAtOutermostEnd() {
+        notifier.beginBatch();
+        notifier.beginBatch();
+        notifier.notifyChange(FILE_1);
+        notifier.endBatch();
+        assertEquals(Collections.emptyList(), delivered);
+
+        notifier.endBatch();
+        assertEquals(Collections.singletonList(FILE_1), delivered);
+    }
+
+    @Test
+    public void testAncestorCoversDescendants() {
+        notifier.beginBatch();
+        notifier.notifyChange(FILE_1);
+        notifier.notifyChange(FILE_2);
+        notifier.notifyChange(ROOT);
+        notifier.endBatch();
+
+        assertEquals(Collections.singletonList(ROOT), delivered);
+        assertEquals(2, notifier.getSuppressedCount());
+    }
+
+    @Test
+    public void testBatchDoesNotHoldNotificationsOfOtherThreads() throws InterruptedException {
+        notifier.beginBatch();
+        notifier.notifyChange(FILE_1);
+
+        Thread other = new Thread(() -> notifier.notifyChange(FILE_2));
+        other.start();
+        other.join();
+
+        Thread.sleep(WINDOW_MILLIS * 4);
+        assertEquals(Collections.singletonList(FILE_2), delivered);
+
+        notifier.endBatch();
+        assertEquals(Arrays.asList(FILE_2, FILE_1), delivered);
+        assertEquals(0, notifier.getSuppressedCount());
+    }
+
+    @Test
+    public void testBurstIsDeliveredAfterWindow() throws InterruptedException {
+        for (int i = 0; i < 10; i++) {
+            notifier.notifyChange(FILE_1);
+        }
+        assertEquals(Collections.emptyList(), delivered);
+
+        Thread.sleep(WINDOW_MILLIS * 4);
+        assertEquals(Collections.singletonList(FILE_1), delivered);
+        assertEquals(9, notifier.getSuppressedCount());
+    }
+}
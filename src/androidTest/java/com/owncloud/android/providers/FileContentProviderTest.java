@@ -0,0 +1,125 @@
+/*
+ * Nextcloud Android client application
+ *
+ * Copyright (C) 2020 Nextcloud GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.owncloud.android.providers;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.owncloud.android.db.ProviderMeta;
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Locale;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests related to the database behind {@link FileContentProvider}
+ */
+@RunWith(AndroidJUnit4.class)
+public class FileContentProviderTest {
+
+    private SQLiteDatabase db;
+
+    @Before
+    public void setUp() {
+        Context targetContext = InstrumentationRegistry.getInstrumentation().getTargetContext();
+
+        // first access creates or upgrades the database
+        Cursor cursor = targetContext.getContentResolver().query(ProviderTableMeta.CONTENT_URI, null, null, null,
+                                                                 null);
+        if (cursor != null) {
+            cursor.close();
+        }
+
+        db = SQLiteDatabase.openDatabase(targetContext.getDatabasePath(ProviderMeta.DB_NAME).getAbsolutePath(),
+                                         null,
+                                         SQLiteDatabase.OPEN_READONLY);
+    }
+
+    @After
+    public void tearDown() {
+        db.close();
+    }
+
+    @Test
+    public void testFolderContentUsesParentIndex() {
+        assertQueryUsesIndex(ProviderTableMeta.FILE_PARENT_INDEX,
+                             "SELECT * FROM " + ProviderTableMeta.FILE_TABLE_NAME +
+                                 " WHERE " + ProviderTableMeta.FILE_PARENT + "=?",
+                             "1");
+    }
+
+    @Test
+    public void testFileByPathUsesPathAccountIndex() {
+        assertQueryUsesIndex(ProviderTableMeta.FILE_PATH_ACCOUNT_INDEX,
+                             "SELECT * FROM " + ProviderTableMeta.FILE_TABLE_NAME +
+                                 " WHERE " + ProviderTableMeta.FILE_PATH + "=? AND " +
+                                 ProviderTableMeta.FILE_ACCOUNT_OWNER + "=?",
+                             "/test/", "user@server");
+    }
+
+    @Test
+    public void testUploadsByStatusUsesStatusAccountIndex() {
+        assertQueryUsesIndex(ProviderTableMeta.UPLOADS_STATUS_ACCOUNT_INDEX,
+                             "SELECT * FROM " + ProviderTableMeta.UPLOADS_TABLE_NAME +
+                                 " WHERE " + ProviderTableMeta.UPLOADS_STATUS + "==? AND " +
+                                 ProviderTableMeta.UPLOADS_ACCOUNT_NAME + "==?",
+                             "1", "user@server");
+    }
+
+    @Test
+    public void testFilesystemDataSetUsesPathSyncedFolderIndex() {
+        assertQueryUsesIndex(ProviderTableMeta.FILESYSTEM_PATH_SYNCED_FOLDER_INDEX,
+                             "SELECT * FROM " + ProviderTableMeta.FILESYSTEM_TABLE_NAME +
+                                 " WHERE " + ProviderTableMeta.FILESYSTEM_FILE_LOCAL_PATH + " = ? and " +
+                                 ProviderTableMeta.FILESYSTEM_SYNCED_FOLDER_ID + " = ?",
+                             "/sdcard/DCIM/test.jpg", "1");
+    }
+
+    @Test
+    public void testWriteAheadLoggingEnabled() {
+        try (Cursor cursor = db.rawQuery("PRAGMA journal_mode", null)) {
+            assertTrue(cursor.moveToFirst());
+            assertEquals("wal", cursor.getString(0).toLowerCase(Locale.ROOT));
+        }
+    }
+
+    private void assertQueryUsesIndex(String index, String query, String... args) {
+        StringBuilder plan = new StringBuilder();
+
+        try (Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + query, args)) {
+            int detailIndex = cursor.getColumnIndex("detail");
+            while (cursor.moveToNext()) {
+                plan.append(cursor.getString(detailIndex)).append('\n');
+            }
+        }
+
+        assertTrue("Expected index " + index + " in query plan:\n" + plan, plan.toString().contains(index));
+    }
+}
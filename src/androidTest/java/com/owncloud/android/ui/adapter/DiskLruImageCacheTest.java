@@ -0,0 +1,159 @@
+/*
+ * Nextcloud Android client application
+ *
+ * Copyright (C) 2020 Nextcloud GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.owncloud.android.ui.adapter;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import com.owncloud.android.utils.FileStorageUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class DiskLruImageCacheTest {
+
+    private static final String TAG = DiskLruImageCacheTest.class.getSimpleName();
+    private static final int CACHE_SIZE = 1024 * 1024 * 50;
+    private static final int KEYS = 64;
+    private static final int OPS_PER_THREAD = 400;
+    private static final int WRITE_PERCENTAGE = 20;
+
+    private File cacheDir;
+    private Bitmap bitmap;
+
+    @Before
+    public void setUp() {
+        cacheDir = new File(InstrumentationRegistry.getInstrumentation().getTargetContext().getCacheDir(),
+                            "diskLruImageCacheTest");
+        FileStorageUtils.deleteRecursive(cacheDir);
+        bitmap = Bitmap.createBitmap(128, 128, Bitmap.Config.ARGB_8888);
+        bitmap.eraseColor(0xff336699);
+    }
+
+    @After
+    public void tearDown() {
+        FileStorageUtils.deleteRecursive(cacheDir);
+    }
+
+    private DiskLruImageCache openCache(String name) throws Exception {
+        return new DiskLruImageCache(new File(cacheDir, name), CACHE_SIZE, Bitmap.CompressFormat.JPEG, 70);
+    }
+
+    @Test
+    public void testConcurrentPutsOfSameKey() throws Exception {
+        DiskLruImageCache cache = openCache("sameKey");
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            futures.add(executor.submit(() -> {
+                for (int j = 0; j < 20; j++) {
+                    cache.put("t1", bitmap);
+                    assertNotNull(cache.getBitmap("t1"));
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        // reopening replays the journal
+        assertTrue(openCache("sameKey").containsKey("t1"));
+    }
+
+    @Test
+    public void testKeysWithSameHashCodeDoNotCollide() throws Exception {
+        DiskLruImageCache cache = openCache("collision");
+        assertEquals("tAa".hashCode(), "tBB".hashCode());
+
+        cache.put("tAa", Bitmap.createBitmap(16, 16, Bitmap.Config.ARGB_8888));
+        cache.put("tBB", Bitmap.createBitmap(32, 32, Bitmap.Config.ARGB_8888));
+
+        assertEquals(16, cache.getBitmap("tAa").getWidth());
+        assertEquals(32, cache.getBitmap("tBB").getWidth());
+    }
+
+    @Test
+    public void testRawBytesAreStoredAsIs() throws Exception {
+        DiskLruImageCache cache = openCache("raw");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        bitmap.compress(Bitmap.CompressFormat.PNG, 100, out);
+
+        cache.put("t1", out.toByteArray());
+
+        Bitmap result = cache.getBitmap("t1");
+        assertEquals(bitmap.getWidth(), result.getWidth());
+        assertEquals(bitmap.getPixel(0, 0), result.getPixel(0, 0));
+    }
+
+    @Test
+    public void benchmarkConcurrentAccess() throws Exception {
+        for (int threads : new int[]{1, 4, 8}) {
+            DiskLruImageCache cache = openCache("stress" + threads);
+            for (int key = 0; key < KEYS; key++) {
+                cache.put("t" + key, bitmap);
+            }
+
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            List<Future<?>> futures = new ArrayList<>();
+            long start = System.nanoTime();
+            for (int thread = 0; thread < threads; thread++) {
+                final long seed = thread;
+                futures.add(executor.submit(() -> {
+                    Random random = new Random(seed);
+                    for (int op = 0; op < OPS_PER_THREAD; op++) {
+                        String key = "t" + random.nextInt(KEYS);
+                        if (random.nextInt(100) < WRITE_PERCENTAGE) {
+                            cache.put(key, bitmap);
+                        } else {
+                            assertNotNull(cache.getBitmap(key));
+                        }
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            long elapsedMillis = Math.max(1, (System.nanoTime() - start) / 1_000_000);
+            executor.shutdown();
+
+            Log.i(TAG, threads + " threads: " + (threads * OPS_PER_THREAD * 1000L / elapsedMillis) + " ops/s (" +
+                threads * OPS_PER_THREAD + " ops in " + elapsedMillis + " ms)");
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Nextcloud Android client application
+ *
+ * Copyright (C) 2020 Nextcloud GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.owncloud.android.util;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.media.ThumbnailUtils;
+import android.os.Debug;
+import android.util.Log;
+
+import com.owncloud.android.utils.BitmapUtils;
+import com.owncloud.android.utils.FileStorageUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import androidx.exifinterface.media.ExifInterface;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class BitmapUtilsIT {
+
+    private static final String TAG = BitmapUtilsIT.class.getSimpleName();
+    private static final int IMAGES = 5;
+    private static final int IMAGE_WIDTH = 4000; // 12 MP
+    private static final int IMAGE_HEIGHT = 3000;
+    private static final int THUMBNAIL_SIZE = 256;
+
+    private File folder;
+
+    @Before
+    public void setUp() {
+        folder = new File(InstrumentationRegistry.getInstrumentation().getTargetContext().getCacheDir(),
+                          "bitmapUtilsIT");
+        FileStorageUtils.deleteRecursive(folder);
+        folder.mkdirs();
+    }
+
+    @After
+    public void tearDown() {
+        FileStorageUtils.deleteRecursive(folder);
+    }
+
+    private File writeImage(String name, int width, int height, int orientation) throws IOException {
+        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        Paint paint = new Paint();
+        paint.setColor(Color.RED);
+        canvas.drawRect(0, 0, width / 2f, height, paint);
+        paint.setColor(Color.BLUE);
+        canvas.drawRect(width / 2f, 0, width, height, paint);
+
+        File file = new File(folder, name);
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            bitmap.compress(Bitmap.CompressFormat.JPEG, 90, out);
+        }
+        bitmap.recycle();
+
+        ExifInterface exif = new ExifInterface(file.getAbsolutePath());
+        exif.setAttribute(ExifInterface.TAG_ORIENTATION, String.valueOf(orientation));
+        exif.saveAttributes();
+        return file;
+    }
+
+    @Test
+    public void testThumbnailIsCroppedAndRotated() throws IOException {
+        // red left half, blue right half; rotated by 90° clockwise red is on top
+        File file = writeImage("rotated.jpg", 400, 200, ExifInterface.ORIENTATION_ROTATE_90);
+
+        Bitmap thumbnail = BitmapUtils.decodeThumbnailFromFile(file.getAbsolutePath(), 100, Color.TRANSPARENT);
+
+        assertNotNull(thumbnail);
+        assertEquals(100, thumbnail.getWidth());
+        assertEquals(100, thumbnail.getHeight());
+        assertEquals(Bitmap.Config.RGB_565, thumbnail.getConfig());
+        int top = thumbnail.getPixel(50, 10);
+        int bottom = thumbnail.getPixel(50, 90);
+        assertTrue(Color.red(top) > 200 && Color.blue(top) < 50);
+        assertTrue(Color.blue(bottom) > 200 && Color.red(bottom) < 50);
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void benchmarkThumbnailDecoding() throws IOException {
+        String[] paths = new String[IMAGES];
+        for (int i = 0; i < IMAGES; i++) {
+            paths[i] = writeImage(i + ".jpg", IMAGE_WIDTH, IMAGE_HEIGHT, ExifInterface.ORIENTATION_ROTATE_90)
+                .getAbsolutePath();
+        }
+
+        Debug.startAllocCounting();
+        try {
+            Debug.resetThreadAllocCount();
+            Debug.resetThreadAllocSize();
+            long start = System.nanoTime();
+            for (String path : paths) {
+                Bitmap sampled = BitmapUtils.decodeSampledBitmapFromFile(path, THUMBNAIL_SIZE, THUMBNAIL_SIZE);
+                Bitmap cropped = ThumbnailUtils.extractThumbnail(sampled, THUMBNAIL_SIZE, THUMBNAIL_SIZE);
+                assertNotNull(BitmapUtils.rotateImage(cropped, path));
+            }
+            log("decode, crop, rotate", start);
+
+            Debug.resetThreadAllocCount();
+            Debug.resetThreadAllocSize();
+            start = System.nanoTime();
+            for (String path : paths) {
+                assertNotNull(BitmapUtils.decodeThumbnailFromFile(path, THUMBNAIL_SIZE, Color.TRANSPARENT));
+            }
+            log("single pass", start);
+        } finally {
+            Debug.stopAllocCounting();
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    private void log(String variant, long startNanos) {
+        long millis = (System.nanoTime() - startNanos) / 1_000_000;
+        Log.i(TAG, variant + ": " + millis / IMAGES + " ms, " +
+            Debug.getThreadAllocCount() / IMAGES + " allocations, " +
+            Debug.getThreadAllocSize() / IMAGES + " bytes per thumbnail");
+    }
+}
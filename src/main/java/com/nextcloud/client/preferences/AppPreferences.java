@@ -341,6 +341,15 @@ public interface AppPreferences {
 
     void setMigratedUserId(boolean value);
 
+    /**
+     * Gets whether the thumbnail cache of old versions was removed from the external cache dir, default false
+     *
+     * @return true: removed, the removal does not need to be scheduled again
+     */
+    boolean isLegacyThumbnailCacheRemoved();
+
+    void setLegacyThumbnailCacheRemoved(boolean value);
+
     void setPhotoSearchTimestamp(long timestamp);
 
     long getPhotoSearchTimestamp();
@@ -35,6 +35,9 @@ import com.owncloud.android.ui.activity.PassCodeActivity;
 import com.owncloud.android.ui.activity.SettingsActivity;
 import com.owncloud.android.utils.FileSortOrder;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CopyOnWriteArraySet;
 
@@ -85,6 +88,7 @@ public final class AppPreferencesImpl implements AppPreferences {
     private static final String PREF__LOCK = SettingsActivity.PREFERENCE_LOCK;
     private static final String PREF__SELECTED_ACCOUNT_NAME = "select_oc_account";
     private static final String PREF__MIGRATED_USER_ID = "migrated_user_id";
+    private static final String PREF__LEGACY_THUMBNAIL_CACHE_REMOVED = "legacy_thumbnail_cache_removed";
     private static final String PREF__PHOTO_SEARCH_TIMESTAMP = "photo_search_timestamp";
     private static final String PREF__POWER_CHECK_DISABLED = "power_check_disabled";
 
@@ -555,6 +559,16 @@ public final class AppPreferencesImpl implements AppPreferences {
         preferences.edit().putBoolean(PREF__MIGRATED_USER_ID, value).apply();
     }
 
+    @Override
+    public boolean isLegacyThumbnailCacheRemoved() {
+        return preferences.getBoolean(PREF__LEGACY_THUMBNAIL_CACHE_REMOVED, false);
+    }
+
+    @Override
+    public void setLegacyThumbnailCacheRemoved(boolean value) {
+        preferences.edit().putBoolean(PREF__LEGACY_THUMBNAIL_CACHE_REMOVED, value).apply();
+    }
+
     @Override
     public void setPhotoSearchTimestamp(long timestamp) {
         preferences.edit().putLong(PREF__PHOTO_SEARCH_TIMESTAMP, timestamp).apply();
@@ -587,13 +601,24 @@ public final class AppPreferencesImpl implements AppPreferences {
         ArbitraryDataProvider dataProvider = new ArbitraryDataProvider(context.getContentResolver());
         FileDataStorageManager storageManager = new FileDataStorageManager(user.toPlatformAccount(), context.getContentResolver());
 
-        String value = dataProvider.getValue(user.getAccountName(), getKeyFromFolder(preferenceName, folder));
-        OCFile prefFolder = folder;
-        while (prefFolder != null && value.isEmpty()) {
-            prefFolder = storageManager.getFileById(prefFolder.getParentId());
-            value = dataProvider.getValue(user.getAccountName(), getKeyFromFolder(preferenceName, prefFolder));
+        // the folder, its ancestors up to the root folder and finally the default for all folders
+        List<String> keys = new ArrayList<>();
+        if (folder != null) {
+            keys.add(getKeyFromFolder(preferenceName, folder));
+            for (Long ancestorId : storageManager.getAncestorIds(folder)) {
+                keys.add(getKeyFromFolderId(preferenceName, ancestorId));
+            }
         }
-        return value.isEmpty() ? defaultValue : value;
+        keys.add(getKeyFromFolder(preferenceName, null));
+
+        Map<String, String> values = dataProvider.getValues(user.getAccountName(), keys);
+        for (String key : keys) {
+            String value = values.get(key);
+            if (value != null && !value.isEmpty()) {
+                return value;
+            }
+        }
+        return defaultValue;
     }
 
     /**
@@ -614,10 +639,12 @@ public final class AppPreferencesImpl implements AppPreferences {
     }
 
     private static String getKeyFromFolder(String preferenceName, OCFile folder) {
-        final String folderIdString = String.valueOf(folder != null ? folder.getFileId() :
+        return getKeyFromFolderId(preferenceName, folder != null ? folder.getFileId() :
             FileDataStorageManager.ROOT_PARENT_ID);
+    }
 
-        return preferenceName + "_" + folderIdString;
+    private static String getKeyFromFolderId(String preferenceName, long folderId) {
+        return preferenceName + "_" + folderId;
     }
 
     @Override
@@ -71,6 +71,7 @@ import com.owncloud.android.datastorage.DataStorageProvider;
 import com.owncloud.android.datastorage.StoragePoint;
 import com.owncloud.android.jobs.MediaFoldersDetectionJob;
 import com.owncloud.android.jobs.NCJobCreator;
+import com.owncloud.android.jobs.ThumbnailCacheMigrationJob;
 import com.owncloud.android.lib.common.OwnCloudClientManagerFactory;
 import com.owncloud.android.lib.common.utils.Log_OC;
 import com.owncloud.android.lib.resources.status.OwnCloudVersion;
@@ -288,9 +289,6 @@ public class MainApp extends MultiDexApplication implements HasAndroidInjector {
 
         OwnCloudClientManagerFactory.setUserAgent(getUserAgent());
 
-        // initialise thumbnails cache on background thread
-        new ThumbnailsCacheManager.InitDiskCacheTask().execute();
-
 
         if (BuildConfig.DEBUG || getApplicationContext().getResources().getBoolean(R.bool.logger_enabled)) {
             // use app writable dir, no permissions needed
@@ -328,6 +326,15 @@ public class MainApp extends MultiDexApplication implements HasAndroidInjector {
             .build()
             .schedule();
 
+        // thumbnail disk cache is opened on first use, old cache dir is cleaned up once in the background
+        if (!preferences.isLegacyThumbnailCacheRemoved()) {
+            new JobRequest.Builder(ThumbnailCacheMigrationJob.TAG)
+                .startNow()
+                .setUpdateCurrent(true)
+                .build()
+                .schedule();
+        }
+
         registerGlobalPassCodeProtection();
     }
 
@@ -374,6 +381,12 @@ public class MainApp extends MultiDexApplication implements HasAndroidInjector {
         });
     }
 
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        ThumbnailsCacheManager.onTrimMemory(level);
+    }
+
     private void initSecurityKeyManager() {
         SecurityKeyManager securityKeyManager = SecurityKeyManager.getInstance();
         SecurityKeyManagerConfig config = new SecurityKeyManagerConfig.Builder()
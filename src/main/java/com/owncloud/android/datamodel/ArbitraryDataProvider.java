@@ -29,7 +29,9 @@ import android.net.Uri;
 import com.owncloud.android.db.ProviderMeta;
 import com.owncloud.android.lib.common.utils.Log_OC;
 
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import androidx.annotation.NonNull;
 
@@ -202,6 +204,54 @@ public class ArbitraryDataProvider {
         return "";
     }
 
+    /**
+     * Returns the stored values of several keys with a single query
+     *
+     * @return map from key to value, without entries for keys that are not stored
+     */
+    @NonNull
+    public Map<String, String> getValues(String accountName, List<String> keys) {
+        Map<String, String> values = new HashMap<>();
+        if (keys.isEmpty()) {
+            return values;
+        }
+
+        StringBuilder where = new StringBuilder(ProviderMeta.ProviderTableMeta.ARBITRARY_DATA_CLOUD_ID + " = ? and " +
+                                                    ProviderMeta.ProviderTableMeta.ARBITRARY_DATA_KEY + " IN (");
+        String[] whereArgs = new String[keys.size() + 1];
+        whereArgs[0] = accountName;
+        for (int i = 0; i < keys.size(); i++) {
+            where.append(i == 0 ? "?" : ",?");
+            whereArgs[i + 1] = keys.get(i);
+        }
+        where.append(')');
+
+        Cursor cursor = contentResolver.query(
+                ProviderMeta.ProviderTableMeta.CONTENT_URI_ARBITRARY_DATA,
+                new String[]{
+                    ProviderMeta.ProviderTableMeta.ARBITRARY_DATA_KEY,
+                    ProviderMeta.ProviderTableMeta.ARBITRARY_DATA_VALUE
+                },
+                where.toString(),
+                whereArgs,
+                null
+        );
+
+        if (cursor != null) {
+            while (cursor.moveToNext()) {
+                String value = cursor.getString(1);
+                if (value != null) {
+                    values.put(cursor.getString(0), value);
+                }
+            }
+            cursor.close();
+        } else {
+            Log_OC.e(TAG, "DB error restoring arbitrary values.");
+        }
+
+        return values;
+    }
+
     private ArbitraryDataSet getArbitraryDataSet(String accountName, String key) {
         Cursor cursor = contentResolver.query(
                 ProviderMeta.ProviderTableMeta.CONTENT_URI_ARBITRARY_DATA,
@@ -0,0 +1,268 @@
+/*
+ * Nextcloud Android client application
+ *
+ * Copyright (C) 2020 Nextcloud GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.owncloud.android.datamodel;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.media.ThumbnailUtils;
+import android.net.Uri;
+import android.text.TextUtils;
+
+import com.owncloud.android.MainApp;
+import com.owncloud.android.R;
+import com.owncloud.android.lib.common.OwnCloudClient;
+import com.owncloud.android.lib.common.utils.Log_OC;
+
+import org.apache.commons.httpclient.Header;
+import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.httpclient.methods.GetMethod;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.collection.LruCache;
+
+/**
+ * Avatars of users, shared by all lists showing them. Avatars are kept per server, user id and size in memory and in
+ * the thumbnail disk cache. Once their max-age has passed, they are revalidated with a conditional request using
+ * their ETag. Simultaneous requests for the same avatar wait for a single download.
+ */
+public final class AvatarCache {
+
+    private static final String TAG = AvatarCache.class.getSimpleName();
+    private static final String AVATAR_ETAG = "avatarETag_";
+    private static final String AVATAR_EXPIRES = "avatarExpires_";
+    private static final String ETAG = "ETag";
+    private static final String CACHE_CONTROL = "Cache-Control";
+    private static final Pattern MAX_AGE = Pattern.compile("max-age=(\\d+)");
+    private static final long DEFAULT_MAX_AGE_MILLIS = TimeUnit.HOURS.toMillis(1);
+    private static final int MEMORY_CACHE_SIZE = 4 * 1024 * 1024; // 4MB
+
+    private static final LruCache<String, Entry> memoryCache = new LruCache<String, Entry>(MEMORY_CACHE_SIZE) {
+        @Override
+        protected int sizeOf(@NonNull String key, @NonNull Entry entry) {
+            return entry.bitmap.getRowBytes() * entry.bitmap.getHeight();
+        }
+    };
+    private static final ConcurrentHashMap<String, FutureTask<Bitmap>> runningRequests = new ConcurrentHashMap<>();
+
+    private AvatarCache() {
+        // utility class -> private constructor
+    }
+
+    private static final class Entry {
+        private final Bitmap bitmap;
+        private final String eTag;
+        private final long expires;
+
+        private Entry(Bitmap bitmap, String eTag, long expires) {
+            this.bitmap = bitmap;
+            this.eTag = eTag;
+            this.expires = expires;
+        }
+
+        private boolean isFresh() {
+            return System.currentTimeMillis() < expires;
+        }
+    }
+
+    /**
+     * Converts size of avatars from dp to pixel
+     *
+     * @return int
+     */
+    public static int getAvatarDimension() {
+        return Math.round(MainApp.getAppContext().getResources().getDimension(R.dimen.file_avatar_size));
+    }
+
+    /**
+     * Looks up an avatar in memory only, so it is safe to call on the main thread.
+     *
+     * @return avatar, which might be due for revalidation, or null
+     */
+    @Nullable
+    public static Bitmap getAvatarFromMemoryCache(String userId, String serverName, int px) {
+        Entry entry = memoryCache.get(getKey(userId, serverName, px));
+        return entry == null ? null : entry.bitmap;
+    }
+
+    /**
+     * @return true if the avatar is in memory and its max-age has not passed yet, so it needs no request
+     */
+    public static boolean isFresh(String userId, String serverName, int px) {
+        Entry entry = memoryCache.get(getKey(userId, serverName, px));
+        return entry != null && entry.isFresh();
+    }
+
+    /**
+     * Returns an avatar, downloading or revalidating it if needed. Blocks, so must not be called on the main thread.
+     *
+     * @param client client of an account on the server, null to use cached avatars only
+     * @return avatar, or null if there is none
+     */
+    @Nullable
+    public static Bitmap getAvatar(@Nullable OwnCloudClient client, String userId, String serverName, int px) {
+        String key = getKey(userId, serverName, px);
+        Entry cached = getEntry(key, userId + "@" + serverName, px);
+
+        if (cached != null && cached.isFresh() || client == null) {
+            return cached == null ? null : cached.bitmap;
+        }
+
+        FutureTask<Bitmap> request = new FutureTask<>(() -> download(client, key, userId, serverName, px, cached));
+        FutureTask<Bitmap> running = runningRequests.putIfAbsent(key, request);
+        if (running == null) {
+            running = request;
+            try {
+                request.run();
+            } finally {
+                runningRequests.remove(key, request);
+            }
+        }
+
+        try {
+            return running.get();
+        } catch (ExecutionException e) {
+            Log_OC.e(TAG, "Download of avatar for " + userId + " failed", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return cached == null ? null : cached.bitmap;
+    }
+
+    @VisibleForTesting
+    public static void clearMemoryCache() {
+        memoryCache.evictAll();
+    }
+
+    private static String getKey(String userId, String serverName, int px) {
+        return "a_" + userId + "_" + serverName + "_" + px;
+    }
+
+    private static Entry getEntry(String key, String accountName, int px) {
+        Entry entry = memoryCache.get(key);
+        if (entry != null) {
+            return entry;
+        }
+
+        Bitmap bitmap = ThumbnailsCacheManager.getBitmapFromDiskCache(key);
+        if (bitmap == null) {
+            return null;
+        }
+
+        ArbitraryDataProvider arbitraryDataProvider = getArbitraryDataProvider();
+        entry = new Entry(bitmap,
+                          arbitraryDataProvider.getValue(accountName, AVATAR_ETAG + px),
+                          arbitraryDataProvider.getLongValue(accountName, AVATAR_EXPIRES + px));
+        memoryCache.put(key, entry);
+        return entry;
+    }
+
+    private static Bitmap download(OwnCloudClient client, String key, String userId, String serverName, int px,
+                                   @Nullable Entry cached) throws IOException {
+        String accountName = userId + "@" + serverName;
+        GetMethod get = null;
+        try {
+            String uri = client.getBaseUri() + "/index.php/avatar/" + Uri.encode(userId) + "/" + px;
+            Log_OC.d(TAG, "URI: " + uri);
+            get = new GetMethod(uri);
+
+            // only use eTag if corresponding avatar is still there, it might have been removed from disk cache
+            if (cached != null && !TextUtils.isEmpty(cached.eTag)) {
+                get.setRequestHeader("If-None-Match", cached.eTag);
+            }
+
+            int status = client.executeMethod(get);
+            long expires = System.currentTimeMillis() + getMaxAge(get.getResponseHeader(CACHE_CONTROL));
+
+            switch (status) {
+                case HttpStatus.SC_OK:
+                case HttpStatus.SC_CREATED:
+                    Bitmap bitmap = BitmapFactory.decodeStream(get.getResponseBodyAsStream());
+                    if (bitmap == null) {
+                        return cached == null ? null : cached.bitmap;
+                    }
+                    Bitmap avatar = ThumbnailsCacheManager.handlePNG(ThumbnailUtils.extractThumbnail(bitmap, px, px),
+                                                                     px, px);
+
+                    Header eTagHeader = get.getResponseHeader(ETAG);
+                    String eTag = eTagHeader == null ? "" : eTagHeader.getValue().replace("\"", "");
+
+                    ThumbnailsCacheManager.addBitmapToCache(key, avatar);
+                    store(key, accountName, px, new Entry(avatar, eTag, expires));
+                    return avatar;
+
+                case HttpStatus.SC_NOT_MODIFIED:
+                    client.exhaustResponse(get.getResponseBodyAsStream());
+                    if (cached == null) {
+                        return null;
+                    }
+                    store(key, accountName, px, new Entry(cached.bitmap, cached.eTag, expires));
+                    return cached.bitmap;
+
+                default:
+                    client.exhaustResponse(get.getResponseBodyAsStream());
+                    return cached == null ? null : cached.bitmap;
+            }
+        } finally {
+            if (get != null) {
+                get.releaseConnection();
+            }
+        }
+    }
+
+    private static void store(String key, String accountName, int px, Entry entry) {
+        memoryCache.put(key, entry);
+
+        ArbitraryDataProvider arbitraryDataProvider = getArbitraryDataProvider();
+        arbitraryDataProvider.storeOrUpdateKeyValue(accountName, AVATAR_ETAG + px, entry.eTag);
+        arbitraryDataProvider.storeOrUpdateKeyValue(accountName, AVATAR_EXPIRES + px, entry.expires);
+    }
+
+    private static ArbitraryDataProvider getArbitraryDataProvider() {
+        return new ArbitraryDataProvider(MainApp.getAppContext().getContentResolver());
+    }
+
+    /**
+     * @return max-age of a Cache-Control header in milliseconds, or the default max-age if there is none
+     */
+    @VisibleForTesting
+    static long getMaxAge(@Nullable Header cacheControl) {
+        if (cacheControl != null && cacheControl.getValue() != null) {
+            Matcher matcher = MAX_AGE.matcher(cacheControl.getValue());
+            if (matcher.find()) {
+                try {
+                    return TimeUnit.SECONDS.toMillis(Long.parseLong(matcher.group(1)));
+                } catch (NumberFormatException e) {
+                    Log_OC.d(TAG, "Invalid max-age: " + cacheControl.getValue());
+                }
+            }
+        }
+        return DEFAULT_MAX_AGE_MILLIS;
+    }
+}
@@ -35,34 +35,33 @@ import android.os.RemoteException;
 import android.provider.MediaStore;
 import android.text.TextUtils;
 
-import com.google.gson.Gson;
-import com.google.gson.JsonSyntaxException;
 import com.owncloud.android.MainApp;
 import com.owncloud.android.db.ProviderMeta.ProviderTableMeta;
-import com.owncloud.android.lib.common.network.WebdavEntry;
 import com.owncloud.android.lib.common.operations.RemoteOperationResult;
 import com.owncloud.android.lib.common.utils.Log_OC;
 import com.owncloud.android.lib.resources.files.ReadFileRemoteOperation;
 import com.owncloud.android.lib.resources.files.model.RemoteFile;
 import com.owncloud.android.lib.resources.shares.OCShare;
 import com.owncloud.android.lib.resources.shares.ShareType;
-import com.owncloud.android.lib.resources.shares.ShareeUser;
 import com.owncloud.android.lib.resources.status.CapabilityBooleanType;
 import com.owncloud.android.lib.resources.status.OCCapability;
 import com.owncloud.android.operations.RemoteOperationFailedException;
 import com.owncloud.android.utils.FileStorageUtils;
 import com.owncloud.android.utils.MimeType;
 import com.owncloud.android.utils.MimeTypeUtil;
+import com.owncloud.android.utils.StringUtils;
 
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
 
 import androidx.annotation.NonNull;
@@ -76,6 +75,7 @@ public class FileDataStorageManager {
     private static final String TAG = FileDataStorageManager.class.getSimpleName();
 
     private static final String AND = "=? AND ";
+    private static final String AND_SELECTION = " AND ";
     private static final String FAILED_TO_INSERT_MSG = "Fail to insert insert file to database ";
     private static final String SENDING_TO_FILECONTENTPROVIDER_MSG = "Sending %d operations to FileContentProvider";
     private static final String EXCEPTION_MSG = "Exception in batch of operations ";
@@ -83,6 +83,11 @@ public class FileDataStorageManager {
     public static final int ROOT_PARENT_ID = 0;
     public static final String NULL_STRING = "null";
 
+    /**
+     * SQLite limits the number of bound arguments in a single statement (999 on older versions)
+     */
+    private static final int MAX_QUERY_ARGUMENTS = 500;
+
     private ContentResolver contentResolver;
     private ContentProviderClient contentProviderClient;
     @Setter private Account account;
@@ -100,7 +105,7 @@ public class FileDataStorageManager {
     }
 
     public OCFile getFileByPath(String path) {
-        Cursor c = getFileCursorForValue(ProviderTableMeta.FILE_PATH, path);
+        Cursor c = getCachedFileCursorForValue(ProviderTableMeta.FILE_PATH, path);
         OCFile file = null;
         if (c.moveToFirst()) {
             file = createFileInstance(c);
@@ -114,7 +119,7 @@ public class FileDataStorageManager {
 
     public @Nullable
     OCFile getFileById(long id) {
-        Cursor c = getFileCursorForValue(ProviderTableMeta._ID, String.valueOf(id));
+        Cursor c = getCachedFileCursorForValue(ProviderTableMeta._ID, String.valueOf(id));
         OCFile file = null;
         if (c.moveToFirst()) {
             file = createFileInstance(c);
@@ -152,6 +157,99 @@ public class FileDataStorageManager {
         return fileExists(ProviderTableMeta.FILE_PATH, path);
     }
 
+    /**
+     * Retrieves the id of a stored file without loading the rest of its row.
+     *
+     * @param path Remote path of the file.
+     * @return Id of the file in the current account, or -1 if it is not stored.
+     */
+    public long getIdByPath(String path) {
+        long id = -1;
+        Cursor c = getFileIdCursorForValue(ProviderTableMeta.FILE_PATH, path);
+        if (c != null) {
+            if (c.moveToFirst()) {
+                id = c.getLong(0);
+            }
+            c.close();
+        }
+        return id;
+    }
+
+    /**
+     * Retrieves the ids of all the stored folders containing a file with a single query. Ancestors are found by
+     * their remote paths, which are the prefixes of the path of the file.
+     *
+     * @param file File to get the ancestors of.
+     * @return Ids of the ancestors, the parent first and the root folder last.
+     */
+    public List<Long> getAncestorIds(OCFile file) {
+        List<String> ancestorPaths = getAncestorPaths(file.getRemotePath());
+        List<Long> ids = new ArrayList<>(ancestorPaths.size());
+        if (ancestorPaths.isEmpty()) {
+            return ids;
+        }
+
+        StringBuilder where = new StringBuilder(ProviderTableMeta.FILE_ACCOUNT_OWNER + "=? AND "
+                                                    + ProviderTableMeta.FILE_PATH + " IN (");
+        String[] whereArgs = new String[ancestorPaths.size() + 1];
+        whereArgs[0] = account.name;
+        for (int i = 0; i < ancestorPaths.size(); i++) {
+            where.append(i == 0 ? "?" : ",?");
+            whereArgs[i + 1] = ancestorPaths.get(i);
+        }
+        where.append(')');
+        String[] projection = new String[]{ProviderTableMeta._ID, ProviderTableMeta.FILE_PATH};
+
+        Cursor c = null;
+        if (getContentResolver() != null) {
+            c = getContentResolver().query(ProviderTableMeta.CONTENT_URI, projection, where.toString(), whereArgs,
+                                           null);
+        } else {
+            try {
+                c = getContentProviderClient().query(ProviderTableMeta.CONTENT_URI, projection, where.toString(),
+                                                     whereArgs, null);
+            } catch (RemoteException e) {
+                Log_OC.e(TAG, "Could not get ancestors: " + e.getMessage(), e);
+            }
+        }
+
+        Map<String, Long> idsByPath = new HashMap<>();
+        if (c != null) {
+            while (c.moveToNext()) {
+                idsByPath.put(c.getString(1), c.getLong(0));
+            }
+            c.close();
+        }
+
+        for (String path : ancestorPaths) {
+            Long id = idsByPath.get(path);
+            if (id != null) {
+                ids.add(id);
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * @param remotePath Remote path of a file or folder.
+     * @return Remote paths of all the folders containing it, the parent first and the root path last.
+     */
+    static List<String> getAncestorPaths(String remotePath) {
+        List<String> paths = new ArrayList<>();
+
+        String path = remotePath;
+        if (path.endsWith(OCFile.PATH_SEPARATOR)) {
+            path = path.substring(0, path.length() - 1);
+        }
+        int separator = path.lastIndexOf(OCFile.PATH_SEPARATOR);
+        while (separator >= 0) {
+            paths.add(path.substring(0, separator + 1));
+            path = path.substring(0, separator);
+            separator = path.lastIndexOf(OCFile.PATH_SEPARATOR);
+        }
+
+        return paths;
+    }
 
     public List<OCFile> getFolderContent(OCFile f, boolean onlyOnDevice) {
         if (f != null && f.isFolder() && f.getFileId() != -1) {
@@ -162,14 +260,45 @@ public class FileDataStorageManager {
     }
 
 
+    /**
+     * Lists the content of a folder filtered in the database, so that rows left out are never loaded.
+     *
+     * @param onlyOnDevice    Only files and folders available locally. Checked on the mapped rows, as folders and
+     *                        files downloaded before being bound to their row have no storage path in the database.
+     * @param showHiddenFiles Whether to include files and folders with names starting with a dot.
+     * @param limitToMimeType Only folders and files with a mime type starting with it; empty for all.
+     */
+    public List<OCFile> getFolderContent(OCFile f, boolean onlyOnDevice, boolean showHiddenFiles,
+                                         @NonNull String limitToMimeType) {
+        if (f == null || !f.isFolder() || f.getFileId() == -1) {
+            return new ArrayList<>();
+        }
+
+        List<String> selection = new ArrayList<>();
+        List<String> selectionArgs = new ArrayList<>();
+        if (!showHiddenFiles) {
+            selection.add(ProviderTableMeta.FILE_NAME + " NOT GLOB '.*'");
+        }
+        if (!limitToMimeType.isEmpty()) {
+            selection.add("(" + ProviderTableMeta.FILE_CONTENT_TYPE + " = ? OR " +
+                              ProviderTableMeta.FILE_CONTENT_TYPE + " GLOB ?)");
+            selectionArgs.add(MimeType.DIRECTORY);
+            selectionArgs.add(StringUtils.globPrefixPattern(limitToMimeType));
+        }
+
+        return getFolderContent(f.getFileId(), onlyOnDevice, null, TextUtils.join(AND_SELECTION, selection),
+                                selectionArgs.toArray(new String[0]));
+    }
+
     public List<OCFile> getFolderImages(OCFile folder, boolean onlyOnDevice) {
         List<OCFile> ret = new ArrayList<>();
 
-        if (folder != null) {
-            // TODO better implementation, filtering in the access to database instead of here
-            List<OCFile> tmp = getFolderContent(folder, onlyOnDevice);
+        if (folder != null && folder.isFolder() && folder.getFileId() != -1) {
+            // candidates are filtered in the database; the check in Java leaves out the exceptions, e.g. DjVu
+            String selection = "lower(" + ProviderTableMeta.FILE_CONTENT_TYPE + ") GLOB 'image/*'";
+            List<OCFile> candidates = getFolderContent(folder.getFileId(), onlyOnDevice, null, selection, null);
 
-            for (OCFile file : tmp) {
+            for (OCFile file : candidates) {
                 if (MimeTypeUtil.isImage(file)) {
                     ret.add(file);
                 }
@@ -214,17 +343,17 @@ public class FileDataStorageManager {
         cv.put(ProviderTableMeta.FILE_OWNER_ID, file.getOwnerId());
         cv.put(ProviderTableMeta.FILE_OWNER_DISPLAY_NAME, file.getOwnerDisplayName());
         cv.put(ProviderTableMeta.FILE_NOTE, file.getNote());
-        cv.put(ProviderTableMeta.FILE_SHAREES, new Gson().toJson(file.getSharees()));
+        cv.put(ProviderTableMeta.FILE_SHAREES, OCFileCursorMapper.GSON.toJson(file.getSharees()));
         cv.put(ProviderTableMeta.FILE_RICH_WORKSPACE, file.getRichWorkspace());
 
-        boolean sameRemotePath = fileExists(file.getRemotePath());
+        long idByRemotePath = getIdByPath(file.getRemotePath());
+        boolean sameRemotePath = idByRemotePath != -1;
         if (sameRemotePath ||
                 fileExists(file.getFileId())) {  // for renamed files; no more delete and create
 
 
             if (sameRemotePath) {
-                OCFile oldFile = getFileByPath(file.getRemotePath());
-                file.setFileId(oldFile.getFileId());
+                file.setFileId(idByRemotePath);
             }
 
             overridden = true;
@@ -332,26 +461,57 @@ public class FileDataStorageManager {
      * @param filesToRemove
      */
     public void saveFolder(OCFile folder, Collection<OCFile> updatedFiles, Collection<OCFile> filesToRemove) {
+        saveFolder(folder, updatedFiles, filesToRemove, true);
+    }
+
+    /**
+     * Inserts or updates the list of files contained in a given folder.
+     *
+     * @param bulkResolve if true, ids of the already stored children are resolved with a single query on the
+     *                    folder; otherwise every child is checked with separate queries (kept for benchmarks)
+     */
+    void saveFolder(OCFile folder,
+                    Collection<OCFile> updatedFiles,
+                    Collection<OCFile> filesToRemove,
+                    boolean bulkResolve) {
         Log_OC.d(TAG, "Saving folder " + folder.getRemotePath() + " with " + updatedFiles.size()
                 + " children and " + filesToRemove.size() + " files to remove");
 
         ArrayList<ContentProviderOperation> operations = new ArrayList<>(updatedFiles.size());
 
+        Map<String, Long> storedChildren = null;
+        Set<Long> storedChildrenIds = null;
+        if (bulkResolve) {
+            storedChildren = getFolderChildrenIds(folder);
+            storedChildrenIds = new HashSet<>(storedChildren.values());
+        }
+
         // prepare operations to insert or update files to save in the given folder
         for (OCFile file : updatedFiles) {
             ContentValues cv = createContentValueForFile(file, folder);
 
-            if (fileExists(file.getFileId()) || fileExists(file.getRemotePath())) {
-                long fileId;
+            long fileId = -1;
+            if (bulkResolve) {
+                if (file.getFileId() != -1 &&
+                    (storedChildrenIds.contains(file.getFileId()) || fileExists(file.getFileId()))) {
+                    fileId = file.getFileId();
+                } else if (storedChildren.containsKey(file.getRemotePath())) {
+                    fileId = storedChildren.get(file.getRemotePath());
+                }
+                // else new file; FileContentProvider still avoids duplicated (path, account) entries on insert
+            } else if (fileExists(file.getFileId()) || fileExists(file.getRemotePath())) {
                 if (file.getFileId() != -1) {
                     fileId = file.getFileId();
                 } else {
                     fileId = getFileByPath(file.getRemotePath()).getFileId();
                 }
+            }
+
+            if (fileId != -1) {
                 // updating an existing file
                 operations.add(ContentProviderOperation.newUpdate(ProviderTableMeta.CONTENT_URI)
                         .withValues(cv)
-                                   .withSelection(ProviderTableMeta._ID + "=?", new String[]{String.valueOf(fileId)})
+                        .withSelection(ProviderTableMeta._ID + "=?", new String[]{String.valueOf(fileId)})
                         .build());
             } else {
                 // adding a new file
@@ -436,6 +596,47 @@ public class FileDataStorageManager {
         }
     }
 
+    /**
+     * Retrieves the ids of all stored children of a folder in a single query.
+     *
+     * @param folder Folder to look into.
+     * @return Map from remote path to file id of the stored children.
+     */
+    private Map<String, Long> getFolderChildrenIds(OCFile folder) {
+        Map<String, Long> ids = new HashMap<>();
+
+        if (folder.getFileId() == -1) {
+            return ids;
+        }
+
+        String[] projection = new String[]{ProviderTableMeta._ID, ProviderTableMeta.FILE_PATH};
+        String where = ProviderTableMeta.FILE_PARENT + AND + ProviderTableMeta.FILE_ACCOUNT_OWNER + "=?";
+        String[] whereArgs = new String[]{String.valueOf(folder.getFileId()), account.name};
+        Cursor c = null;
+
+        if (getContentResolver() != null) {
+            c = getContentResolver().query(ProviderTableMeta.CONTENT_URI, projection, where, whereArgs, null);
+        } else {
+            try {
+                c = getContentProviderClient().query(ProviderTableMeta.CONTENT_URI, projection, where, whereArgs,
+                                                     null);
+            } catch (RemoteException e) {
+                Log_OC.e(TAG, "Could not get children of " + folder.getRemotePath() + ": " + e.getMessage(), e);
+            }
+        }
+
+        if (c != null) {
+            int idIndex = c.getColumnIndex(ProviderTableMeta._ID);
+            int pathIndex = c.getColumnIndex(ProviderTableMeta.FILE_PATH);
+            while (c.moveToNext()) {
+                ids.put(c.getString(pathIndex), c.getLong(idIndex));
+            }
+            c.close();
+        }
+
+        return ids;
+    }
+
     private ContentValues createContentValueForFile(OCFile folder) {
         ContentValues cv = new ContentValues();
         cv.put(ProviderTableMeta.FILE_MODIFIED, folder.getModificationTimestamp());
@@ -465,7 +666,7 @@ public class FileDataStorageManager {
         cv.put(ProviderTableMeta.FILE_OWNER_ID, folder.getOwnerId());
         cv.put(ProviderTableMeta.FILE_OWNER_DISPLAY_NAME, folder.getOwnerDisplayName());
         cv.put(ProviderTableMeta.FILE_NOTE, folder.getNote());
-        cv.put(ProviderTableMeta.FILE_SHAREES, new Gson().toJson(folder.getSharees()));
+        cv.put(ProviderTableMeta.FILE_SHAREES, OCFileCursorMapper.GSON.toJson(folder.getSharees()));
         cv.put(ProviderTableMeta.FILE_RICH_WORKSPACE, folder.getRichWorkspace());
 
         return cv;
@@ -506,7 +707,7 @@ public class FileDataStorageManager {
         cv.put(ProviderTableMeta.FILE_OWNER_ID, file.getOwnerId());
         cv.put(ProviderTableMeta.FILE_OWNER_DISPLAY_NAME, file.getOwnerDisplayName());
         cv.put(ProviderTableMeta.FILE_NOTE, file.getNote());
-        cv.put(ProviderTableMeta.FILE_SHAREES, new Gson().toJson(file.getSharees()));
+        cv.put(ProviderTableMeta.FILE_SHAREES, OCFileCursorMapper.GSON.toJson(file.getSharees()));
         cv.put(ProviderTableMeta.FILE_RICH_WORKSPACE, file.getRichWorkspace());
 
         return cv;
@@ -664,8 +865,8 @@ public class FileDataStorageManager {
                     c = getContentProviderClient().query(
                             ProviderTableMeta.CONTENT_URI,
                             null,
-                            ProviderTableMeta.FILE_ACCOUNT_OWNER + AND + ProviderTableMeta.FILE_PATH + " LIKE ? ",
-                            new String[]{account.name, file.getRemotePath() + "%"},
+                            ProviderTableMeta.FILE_ACCOUNT_OWNER + AND + ProviderTableMeta.FILE_PATH + " GLOB ? ",
+                            new String[]{account.name, StringUtils.globPrefixPattern(file.getRemotePath())},
                             ProviderTableMeta.FILE_PATH + " ASC "
                     );
                 } catch (RemoteException e) {
@@ -676,8 +877,8 @@ public class FileDataStorageManager {
                 c = getContentResolver().query(
                         ProviderTableMeta.CONTENT_URI,
                         null,
-                        ProviderTableMeta.FILE_ACCOUNT_OWNER + AND + ProviderTableMeta.FILE_PATH + " LIKE ? ",
-                        new String[]{account.name, file.getRemotePath() + "%"},
+                        ProviderTableMeta.FILE_ACCOUNT_OWNER + AND + ProviderTableMeta.FILE_PATH + " GLOB ? ",
+                        new String[]{account.name, StringUtils.globPrefixPattern(file.getRemotePath())},
                         ProviderTableMeta.FILE_PATH + " ASC "
                 );
             }
@@ -691,9 +892,10 @@ public class FileDataStorageManager {
                 int lengthOfOldPath = file.getRemotePath().length();
                 int lengthOfOldStoragePath = defaultSavePath.length() + lengthOfOldPath;
                 String[] fileId = new String[1];
+                OCFileCursorMapper mapper = new OCFileCursorMapper(c, account.name);
                 do {
                     ContentValues cv = new ContentValues(); // keep construction in the loop
-                    OCFile child = createFileInstance(c);
+                    OCFile child = mapper.map();
                     cv.put(
                             ProviderTableMeta.FILE_PATH,
                             targetPath + child.getRemotePath().substring(lengthOfOldPath)
@@ -841,52 +1043,97 @@ public class FileDataStorageManager {
     }
 
     private List<OCFile> getFolderContent(long parentId, boolean onlyOnDevice) {
+        return getFolderContent(parentId, onlyOnDevice, null);
+    }
+
+    private List<OCFile> getFolderContent(long parentId, boolean onlyOnDevice, @Nullable String[] projection) {
+        return getFolderContent(parentId, onlyOnDevice, projection, null, null);
+    }
+
+    /**
+     * @param projection    Columns to load for every child, null for all of them; children loaded with a reduced
+     *                      projection must not be saved back.
+     * @param selection     Additional filter for the children, null for none.
+     * @param selectionArgs Arguments of the additional filter.
+     */
+    private List<OCFile> getFolderContent(long parentId, boolean onlyOnDevice, @Nullable String[] projection,
+                                          @Nullable String selection, @Nullable String[] selectionArgs) {
 
         List<OCFile> ret = new ArrayList<>();
 
+        Cursor c;
+        FileMetadataCache cache = projection == null && TextUtils.isEmpty(selection) ?
+            FileMetadataCache.forAccount(account.name) : null;
+        if (cache == null) {
+            c = getFolderCursor(parentId, projection, selection, selectionArgs);
+        } else {
+            String cacheKey = ProviderTableMeta.FILE_PARENT + "=" + parentId;
+            c = cache.get(cacheKey);
+            if (c == null) {
+                long generation = FileMetadataCache.getGeneration();
+                c = cache.put(cacheKey, getFolderCursor(parentId, null, null, null), generation);
+            }
+        }
+
+        if (c != null) {
+            if (c.moveToFirst()) {
+                OCFileCursorMapper mapper = new OCFileCursorMapper(c, account.name);
+                do {
+                    OCFile child = mapper.map();
+                    if (!onlyOnDevice || child.existsOnDevice()) {
+                        ret.add(child);
+                    }
+                } while (c.moveToNext());
+            }
+
+            c.close();
+        }
+
+        return ret;
+    }
+
+    @Nullable
+    private Cursor getFolderCursor(long parentId, @Nullable String[] projection, @Nullable String selection,
+                                   @Nullable String[] selectionArgs) {
         Uri req_uri = Uri.withAppendedPath(ProviderTableMeta.CONTENT_URI_DIR, String.valueOf(parentId));
+        String where = ProviderTableMeta.FILE_PARENT + "=?";
+        String[] whereArgs = new String[]{String.valueOf(parentId)};
+        if (!TextUtils.isEmpty(selection)) {
+            where += AND_SELECTION + selection;
+            if (selectionArgs != null && selectionArgs.length > 0) {
+                whereArgs = Arrays.copyOf(whereArgs, selectionArgs.length + 1);
+                System.arraycopy(selectionArgs, 0, whereArgs, 1, selectionArgs.length);
+            }
+        }
+
         Cursor c;
 
         if (getContentProviderClient() != null) {
             try {
                 c = getContentProviderClient().query(
                         req_uri,
-                        null,
-                        ProviderTableMeta.FILE_PARENT + "=?",
-                        new String[]{String.valueOf(parentId)},
+                        projection,
+                        where,
+                        whereArgs,
                         null
                 );
             } catch (RemoteException e) {
                 Log_OC.e(TAG, e.getMessage(), e);
-                return ret;
+                c = null;
             }
         } else {
             c = getContentResolver().query(
                     req_uri,
-                    null,
-                    ProviderTableMeta.FILE_PARENT + "=?",
-                    new String[]{String.valueOf(parentId)},
+                    projection,
+                    where,
+                    whereArgs,
                     null
             );
         }
 
-        if (c != null) {
-            if (c.moveToFirst()) {
-                do {
-                    OCFile child = createFileInstance(c);
-                    if (!onlyOnDevice || child.existsOnDevice()) {
-                        ret.add(child);
-                    }
-                } while (c.moveToNext());
-            }
-
-            c.close();
-        }
-
-        return ret;
+        return c;
     }
 
-
     private OCFile createRootDir() {
         OCFile file = new OCFile(OCFile.ROOT_PATH);
         file.setMimeType(MimeType.DIRECTORY);
@@ -896,31 +1143,59 @@ public class FileDataStorageManager {
     }
 
     private boolean fileExists(String cmp_key, String value) {
+        Cursor c = getFileIdCursorForValue(cmp_key, value);
+        if (c == null) {
+            return false;
+        }
+        boolean retval = c.moveToFirst();
+        c.close();
+        return retval;
+    }
+
+    /**
+     * Gets a {@link Cursor} with only the id of the first stored file in the current account matching a given
+     * column and a value for that column; cheap enough for existence checks.
+     */
+    @Nullable
+    private Cursor getFileIdCursorForValue(String key, String value) {
+        Uri uri = ProviderTableMeta.CONTENT_URI.buildUpon()
+            .appendQueryParameter(ProviderTableMeta.QUERY_PARAMETER_LIMIT, "1")
+            .build();
+        String[] projection = new String[]{ProviderTableMeta._ID};
+        String where = key + AND + ProviderTableMeta.FILE_ACCOUNT_OWNER + "=?";
+        String[] whereArgs = new String[]{value, account.name};
+
         Cursor c;
         if (getContentResolver() != null) {
-            c = getContentResolver()
-                    .query(ProviderTableMeta.CONTENT_URI,
-                            null,
-                            cmp_key + AND
-                                    + ProviderTableMeta.FILE_ACCOUNT_OWNER
-                                    + "=?",
-                            new String[]{value, account.name}, null);
+            c = getContentResolver().query(uri, projection, where, whereArgs, null);
         } else {
             try {
-                c = getContentProviderClient().query(
-                        ProviderTableMeta.CONTENT_URI,
-                        null,
-                        cmp_key + AND
-                                + ProviderTableMeta.FILE_ACCOUNT_OWNER + "=?",
-                        new String[]{value, account.name}, null);
+                c = getContentProviderClient().query(uri, projection, where, whereArgs, null);
             } catch (RemoteException e) {
                 Log_OC.e(TAG, "Couldn't determine file existance, assuming non existance: " + e.getMessage(), e);
-                return false;
+                c = null;
             }
         }
-        boolean retval = c.moveToFirst();
-        c.close();
-        return retval;
+        return c;
+    }
+
+    /**
+     * Same as {@link #getFileCursorForValue(String, String)}, served from the {@link FileMetadataCache} when it
+     * is enabled.
+     */
+    private Cursor getCachedFileCursorForValue(String key, String value) {
+        FileMetadataCache cache = FileMetadataCache.forAccount(account.name);
+        if (cache == null) {
+            return getFileCursorForValue(key, value);
+        }
+
+        String cacheKey = key + "=" + value;
+        Cursor c = cache.get(cacheKey);
+        if (c == null) {
+            long generation = FileMetadataCache.getGeneration();
+            c = cache.put(cacheKey, getFileCursorForValue(key, value), generation);
+        }
+        return c;
     }
 
     private Cursor getFileCursorForValue(String key, String value) {
@@ -949,83 +1224,69 @@ public class FileDataStorageManager {
         return c;
     }
 
-    @Nullable
-    private OCFile createFileInstanceFromVirtual(Cursor c) {
-        OCFile file = null;
-        if (c != null) {
-            long fileId = c.getLong(c.getColumnIndex(ProviderTableMeta.VIRTUAL_OCFILE_ID));
-            file = getFileById(fileId);
-        }
+    /**
+     * Retrieves the files of the current account with the given ids, querying them in chunks instead of one by one.
+     *
+     * @param ids Identifiers of the files to retrieve.
+     * @return Found files, in the order of their identifiers in ids.
+     */
+    private List<OCFile> getFilesByIds(List<Long> ids) {
+        Map<Long, OCFile> filesById = new HashMap<>(ids.size());
 
-        return file;
-    }
+        for (int start = 0; start < ids.size(); start += MAX_QUERY_ARGUMENTS) {
+            List<Long> chunk = ids.subList(start, Math.min(start + MAX_QUERY_ARGUMENTS, ids.size()));
 
-    private OCFile createFileInstance(Cursor c) {
-        OCFile file = null;
-        if (c != null) {
-            file = new OCFile(c.getString(c.getColumnIndex(ProviderTableMeta.FILE_PATH)));
-            file.setFileId(c.getLong(c.getColumnIndex(ProviderTableMeta._ID)));
-            file.setParentId(c.getLong(c.getColumnIndex(ProviderTableMeta.FILE_PARENT)));
-            file.setEncryptedFileName(c.getString(c.getColumnIndex(ProviderTableMeta.FILE_ENCRYPTED_NAME)));
-            file.setMimeType(c.getString(c.getColumnIndex(ProviderTableMeta.FILE_CONTENT_TYPE)));
-            file.setStoragePath(c.getString(c.getColumnIndex(ProviderTableMeta.FILE_STORAGE_PATH)));
-            if (file.getStoragePath() == null) {
-                // try to find existing file and bind it with current account;
-                // with the current update of SynchronizeFolderOperation, this won't be
-                // necessary anymore after a full synchronization of the account
-                File f = new File(FileStorageUtils.getDefaultSavePathFor(account.name, file));
-                if (f.exists()) {
-                    file.setStoragePath(f.getAbsolutePath());
-                    file.setLastSyncDateForData(f.lastModified());
-                }
+            StringBuilder where = new StringBuilder(ProviderTableMeta.FILE_ACCOUNT_OWNER + "=? AND "
+                                                        + ProviderTableMeta._ID + " IN (");
+            String[] whereArgs = new String[chunk.size() + 1];
+            whereArgs[0] = account.name;
+            for (int i = 0; i < chunk.size(); i++) {
+                where.append(i == 0 ? "?" : ",?");
+                whereArgs[i + 1] = String.valueOf(chunk.get(i));
             }
-            file.setFileLength(c.getLong(c.getColumnIndex(ProviderTableMeta.FILE_CONTENT_LENGTH)));
-            file.setCreationTimestamp(c.getLong(c.getColumnIndex(ProviderTableMeta.FILE_CREATION)));
-            file.setModificationTimestamp(c.getLong(c.getColumnIndex(ProviderTableMeta.FILE_MODIFIED)));
-            file.setModificationTimestampAtLastSyncForData(c.getLong(
-                    c.getColumnIndex(ProviderTableMeta.FILE_MODIFIED_AT_LAST_SYNC_FOR_DATA)));
-            file.setLastSyncDateForProperties(c.getLong(c.getColumnIndex(ProviderTableMeta.FILE_LAST_SYNC_DATE)));
-            file.setLastSyncDateForData(c.getLong(c.getColumnIndex(ProviderTableMeta.FILE_LAST_SYNC_DATE_FOR_DATA)));
-            file.setEtag(c.getString(c.getColumnIndex(ProviderTableMeta.FILE_ETAG)));
-            file.setEtagOnServer(c.getString(c.getColumnIndex(ProviderTableMeta.FILE_ETAG_ON_SERVER)));
-            file.setSharedViaLink(c.getInt(c.getColumnIndex(ProviderTableMeta.FILE_SHARED_VIA_LINK)) == 1);
-            file.setSharedWithSharee(c.getInt(c.getColumnIndex(ProviderTableMeta.FILE_SHARED_WITH_SHAREE)) == 1);
-            file.setPublicLink(c.getString(c.getColumnIndex(ProviderTableMeta.FILE_PUBLIC_LINK)));
-            file.setPermissions(c.getString(c.getColumnIndex(ProviderTableMeta.FILE_PERMISSIONS)));
-            file.setRemoteId(c.getString(c.getColumnIndex(ProviderTableMeta.FILE_REMOTE_ID)));
-            file.setUpdateThumbnailNeeded(c.getInt(c.getColumnIndex(ProviderTableMeta.FILE_UPDATE_THUMBNAIL)) == 1);
-            file.setDownloading(c.getInt(c.getColumnIndex(ProviderTableMeta.FILE_IS_DOWNLOADING)) == 1);
-            file.setEtagInConflict(c.getString(c.getColumnIndex(ProviderTableMeta.FILE_ETAG_IN_CONFLICT)));
-            file.setFavorite(c.getInt(c.getColumnIndex(ProviderTableMeta.FILE_FAVORITE)) == 1);
-            file.setEncrypted(c.getInt(c.getColumnIndex(ProviderTableMeta.FILE_IS_ENCRYPTED)) == 1);
-            if (file.isEncrypted()) {
-                file.setFileName(c.getString(c.getColumnIndex(ProviderTableMeta.FILE_NAME)));
-            }
-            file.setMountType(WebdavEntry.MountType.values()[c.getInt(
-                    c.getColumnIndex(ProviderTableMeta.FILE_MOUNT_TYPE))]);
-            file.setPreviewAvailable(c.getInt(c.getColumnIndex(ProviderTableMeta.FILE_HAS_PREVIEW)) == 1);
-            file.setUnreadCommentsCount(c.getInt(c.getColumnIndex(ProviderTableMeta.FILE_UNREAD_COMMENTS_COUNT)));
-            file.setOwnerId(c.getString(c.getColumnIndex(ProviderTableMeta.FILE_OWNER_ID)));
-            file.setOwnerDisplayName(c.getString(c.getColumnIndex(ProviderTableMeta.FILE_OWNER_DISPLAY_NAME)));
-            file.setNote(c.getString(c.getColumnIndex(ProviderTableMeta.FILE_NOTE)));
-            file.setRichWorkspace(c.getString(c.getColumnIndex(ProviderTableMeta.FILE_RICH_WORKSPACE)));
-
-            String sharees = c.getString(c.getColumnIndex(ProviderTableMeta.FILE_SHAREES));
-
-            if (sharees == null || NULL_STRING.equals(sharees) || sharees.isEmpty()) {
-                file.setSharees(new ArrayList<>());
+            where.append(')');
+
+            Cursor c = null;
+            if (getContentResolver() != null) {
+                c = getContentResolver().query(ProviderTableMeta.CONTENT_URI, null, where.toString(), whereArgs, null);
             } else {
                 try {
-                    ShareeUser[] shareesArray = new Gson().fromJson(sharees, ShareeUser[].class);
+                    c = getContentProviderClient().query(ProviderTableMeta.CONTENT_URI, null, where.toString(),
+                                                         whereArgs, null);
+                } catch (RemoteException e) {
+                    Log_OC.e(TAG, "Could not get files by id: " + e.getMessage(), e);
+                }
+            }
 
-                    file.setSharees(new ArrayList<>(Arrays.asList(shareesArray)));
-                } catch (JsonSyntaxException e) {
-                    // ignore saved value due to api change
-                    file.setSharees(new ArrayList<>());
+            if (c != null) {
+                if (c.moveToFirst()) {
+                    OCFileCursorMapper mapper = new OCFileCursorMapper(c, account.name);
+                    do {
+                        OCFile file = mapper.map();
+                        filesById.put(file.getFileId(), file);
+                    } while (c.moveToNext());
                 }
+                c.close();
             }
         }
 
+        // the IN queries return rows in no particular order
+        List<OCFile> files = new ArrayList<>(filesById.size());
+        for (Long id : ids) {
+            OCFile file = filesById.get(id);
+            if (file != null) {
+                files.add(file);
+            }
+        }
+        return files;
+    }
+
+    private OCFile createFileInstance(Cursor c) {
+        OCFile file = null;
+        if (c != null) {
+            file = new OCFileCursorMapper(c, account.name).map();
+        }
+
         return file;
     }
 
@@ -1126,7 +1387,28 @@ public class FileDataStorageManager {
      * @return              'True' if a matching {@link OCShare} is stored in the current account.
      */
     private boolean shareExistsForValue(String key, String value) {
-        Cursor c = getShareCursorForValue(key, value);
+        Uri uri = ProviderTableMeta.CONTENT_URI_SHARE.buildUpon()
+            .appendQueryParameter(ProviderTableMeta.QUERY_PARAMETER_LIMIT, "1")
+            .build();
+        String[] projection = new String[]{ProviderTableMeta._ID};
+        String where = key + AND + ProviderTableMeta.OCSHARES_ACCOUNT_OWNER + "=?";
+        String[] whereArgs = new String[]{value, account.name};
+
+        Cursor c;
+        if (getContentResolver() != null) {
+            c = getContentResolver().query(uri, projection, where, whereArgs, null);
+        } else {
+            try {
+                c = getContentProviderClient().query(uri, projection, where, whereArgs, null);
+            } catch (RemoteException e) {
+                Log_OC.w(TAG, "Could not get details, assuming share does not exist: " + e.getMessage());
+                c = null;
+            }
+        }
+
+        if (c == null) {
+            return false;
+        }
         boolean retval = c.moveToFirst();
         c.close();
         return retval;
@@ -1655,7 +1937,7 @@ public class FileDataStorageManager {
                     + ProviderTableMeta.OCSHARES_ACCOUNT_OWNER + "=?";
             String[] whereArgs = new String[]{"", account.name};
 
-            List<OCFile> files = getFolderContent(folder, false);
+            List<OCFile> files = getFolderContent(folder.getFileId(), false, ProviderTableMeta.FILE_LIST_COLUMNS);
 
             for (OCFile file : files) {
                 whereArgs[0] = file.getRemotePath();
@@ -1781,6 +2063,59 @@ public class FileDataStorageManager {
         }
     }
 
+    /**
+     * Clears the "thumbnail needs update" flag of many files at once, without touching any other column.
+     *
+     * The flag of a file is only cleared if the file was not modified or synchronized since its thumbnail was
+     * generated, so that a flag set again in the meantime is kept.
+     *
+     * @param thumbnails files whose thumbnail has been regenerated
+     * @return number of updated files
+     */
+    public int clearUpdateThumbnailFlags(List<RegeneratedThumbnail> thumbnails) {
+        ContentValues cv = new ContentValues();
+        cv.put(ProviderTableMeta.FILE_UPDATE_THUMBNAIL, 0);
+        int updated = 0;
+        int filesPerStatement = MAX_QUERY_ARGUMENTS / 3;
+
+        for (int start = 0; start < thumbnails.size(); start += filesPerStatement) {
+            List<RegeneratedThumbnail> chunk = thumbnails.subList(start, Math.min(start + filesPerStatement,
+                                                                                  thumbnails.size()));
+
+            StringBuilder where = new StringBuilder(ProviderTableMeta.FILE_UPDATE_THUMBNAIL + "=1 AND (");
+            String[] whereArgs = new String[chunk.size() * 3];
+            for (int i = 0; i < chunk.size(); i++) {
+                RegeneratedThumbnail thumbnail = chunk.get(i);
+                where.append(i == 0 ? "" : " OR ")
+                    .append('(').append(ProviderTableMeta._ID).append("=? AND ")
+                    .append(ProviderTableMeta.FILE_MODIFIED).append("=? AND ")
+                    .append(ProviderTableMeta.FILE_LAST_SYNC_DATE_FOR_DATA).append("=?)");
+                whereArgs[i * 3] = String.valueOf(thumbnail.fileId);
+                whereArgs[i * 3 + 1] = String.valueOf(thumbnail.modificationTimestamp);
+                whereArgs[i * 3 + 2] = String.valueOf(thumbnail.lastSyncDateForData);
+            }
+            where.append(')');
+
+            if (getContentResolver() != null) {
+                updated += getContentResolver().update(ProviderTableMeta.CONTENT_URI_FILE,
+                                                       cv,
+                                                       where.toString(),
+                                                       whereArgs);
+            } else {
+                try {
+                    updated += getContentProviderClient().update(ProviderTableMeta.CONTENT_URI_FILE,
+                                                                 cv,
+                                                                 where.toString(),
+                                                                 whereArgs);
+                } catch (RemoteException e) {
+                    Log_OC.e(TAG, "Failed clearing thumbnail update flags " + e.getMessage(), e);
+                }
+            }
+        }
+
+        return updated;
+    }
+
     public void saveConflict(OCFile file, String etagInConflict) {
         if (!file.isDown()) {
             etagInConflict = null;
@@ -1811,124 +2146,99 @@ public class FileDataStorageManager {
         Log_OC.d(TAG, "Number of files updated with CONFLICT: " + updated);
 
         if (updated > 0) {
-            if (etagInConflict != null) {
-                /// set conflict in all ancestor folders
-
-                long parentId = file.getParentId();
-                Set<String> ancestorIds = new HashSet<>();
-                while (parentId != FileDataStorageManager.ROOT_PARENT_ID) {
-                    ancestorIds.add(Long.toString(parentId));
-                    parentId = getFileById(parentId).getParentId();
-                }
-
-                if (ancestorIds.size() > 0) {
-                    final StringBuffer whereBuffer = new StringBuffer();
-                    whereBuffer.append(ProviderTableMeta._ID).append(" IN (");
-                    for (int i = 0; i < ancestorIds.size() - 1; i++) {
-                        whereBuffer.append("?,");
-                    }
-                    whereBuffer.append("?)");
-
-                    if (getContentResolver() != null) {
-                        updated = getContentResolver().update(
-                                ProviderTableMeta.CONTENT_URI_FILE,
-                                cv,
-                                whereBuffer.toString(),
-                                ancestorIds.toArray(new String[]{})
-                        );
-                    } else {
-                        try {
-                            updated = getContentProviderClient().update(
-                                    ProviderTableMeta.CONTENT_URI_FILE,
-                                    cv,
-                                    whereBuffer.toString(),
-                                    ancestorIds.toArray(new String[]{})
-                            );
-                        } catch (RemoteException e) {
-                            Log_OC.e(TAG, "Failed saving conflict in database " + e.getMessage(), e);
-                        }
-                    }
-                } // else file is ROOT folder, no parent to set in conflict
+            List<String> ancestorPaths = getAncestorPaths(file.getRemotePath());
 
-            } else {
+            if (etagInConflict == null) {
                 /// update conflict in ancestor folders
                 // (not directly unset; maybe there are more conflicts below them)
-                String parentPath = file.getRemotePath();
-                if (parentPath.endsWith(OCFile.PATH_SEPARATOR)) {
-                    parentPath = parentPath.substring(0, parentPath.length() - 1);
+                ancestorPaths = getAncestorPathsWithoutConflicts(ancestorPaths);
+            }
+
+            if (!ancestorPaths.isEmpty()) {
+                StringBuilder where = new StringBuilder(ProviderTableMeta.FILE_ACCOUNT_OWNER + "=? AND "
+                                                            + ProviderTableMeta.FILE_PATH + " IN (");
+                String[] whereArgs = new String[ancestorPaths.size() + 1];
+                whereArgs[0] = account.name;
+                for (int i = 0; i < ancestorPaths.size(); i++) {
+                    where.append(i == 0 ? "?" : ",?");
+                    whereArgs[i + 1] = ancestorPaths.get(i);
                 }
-                parentPath = parentPath.substring(0, parentPath.lastIndexOf(OCFile.PATH_SEPARATOR) + 1);
-
-                Log_OC.d(TAG, "checking parents to remove conflict; STARTING with " + parentPath);
-                String[] projection = new String[]{ProviderTableMeta._ID};
-                while (parentPath.length() > 0) {
-
-                    String whereForDescencentsInConflict =
-                            ProviderTableMeta.FILE_ETAG_IN_CONFLICT + " IS NOT NULL AND " +
-                                    ProviderTableMeta.FILE_CONTENT_TYPE + " != 'DIR' AND " +
-                                    ProviderTableMeta.FILE_ACCOUNT_OWNER + AND +
-                                    ProviderTableMeta.FILE_PATH + " LIKE ?";
-                    Cursor descendentsInConflict = null;
-                    if (getContentResolver() != null) {
-                        descendentsInConflict = getContentResolver().query(
+                where.append(')');
+
+                if (getContentResolver() != null) {
+                    updated = getContentResolver().update(
+                            ProviderTableMeta.CONTENT_URI_FILE,
+                            cv,
+                            where.toString(),
+                            whereArgs
+                    );
+                } else {
+                    try {
+                        updated = getContentProviderClient().update(
                                 ProviderTableMeta.CONTENT_URI_FILE,
-                                projection,
-                                whereForDescencentsInConflict,
-                                new String[]{account.name, parentPath + "%"},
-                                null
+                                cv,
+                                where.toString(),
+                                whereArgs
                         );
-                    } else {
-                        try {
-                            descendentsInConflict = getContentProviderClient().query(
-                                    ProviderTableMeta.CONTENT_URI_FILE,
-                                    projection,
-                                    whereForDescencentsInConflict,
-                                    new String[]{account.name, parentPath + "%"},
-                                    null
-                            );
-                        } catch (RemoteException e) {
-                            Log_OC.e(TAG, "Failed querying for descendents in conflict " + e.getMessage(), e);
-                        }
+                    } catch (RemoteException e) {
+                        Log_OC.e(TAG, "Failed saving conflict in database " + e.getMessage(), e);
                     }
-                    if (descendentsInConflict == null || descendentsInConflict.getCount() == 0) {
-                        Log_OC.d(TAG, "NO MORE conflicts in " + parentPath);
-                        if (getContentResolver() != null) {
-                            updated = getContentResolver().update(
-                                    ProviderTableMeta.CONTENT_URI_FILE,
-                                    cv,
-                                    ProviderTableMeta.FILE_ACCOUNT_OWNER + AND +
-                                            ProviderTableMeta.FILE_PATH + "=?",
-                                    new String[]{account.name, parentPath}
-                            );
-                        } else {
-                            try {
-                                updated = getContentProviderClient().update(
-                                        ProviderTableMeta.CONTENT_URI_FILE,
-                                        cv,
-                                        ProviderTableMeta.FILE_ACCOUNT_OWNER + AND +
-                                                ProviderTableMeta.FILE_PATH + "=?"
-                                        , new String[]{account.name, parentPath}
-                                );
-                            } catch (RemoteException e) {
-                                Log_OC.e(TAG, "Failed saving conflict in database " + e.getMessage(), e);
-                            }
-                        }
+                }
+                Log_OC.d(TAG, "Number of ancestor folders updated with CONFLICT: " + updated);
+            } // else file is ROOT folder, no parent to update
+        }
 
-                    } else {
-                        Log_OC.d(TAG, "STILL " + descendentsInConflict.getCount() + " in " + parentPath);
-                    }
+    }
 
-                    if (descendentsInConflict != null) {
-                        descendentsInConflict.close();
-                    }
+    /**
+     * Filters the given ancestor folders down to those with no file in conflict below them, using a single query
+     * for the files in conflict of the account.
+     *
+     * @param ancestorPaths Remote paths of the ancestors of a file, the parent first.
+     * @return The leading ancestors without conflicts; once a folder contains a conflict, all its ancestors do.
+     */
+    private List<String> getAncestorPathsWithoutConflicts(List<String> ancestorPaths) {
+        String[] projection = new String[]{ProviderTableMeta.FILE_PATH};
+        String where = ProviderTableMeta.FILE_ETAG_IN_CONFLICT + " IS NOT NULL AND " +
+                ProviderTableMeta.FILE_CONTENT_TYPE + " != 'DIR' AND " +
+                ProviderTableMeta.FILE_ACCOUNT_OWNER + "=?";
+        String[] whereArgs = new String[]{account.name};
 
-                    parentPath = parentPath.substring(0, parentPath.length() - 1);  // trim last /
-                    parentPath = parentPath.substring(0, parentPath.lastIndexOf(OCFile.PATH_SEPARATOR) + 1);
-                    Log_OC.d(TAG, "checking parents to remove conflict; NEXT " + parentPath);
-                }
+        Cursor filesInConflict = null;
+        if (getContentResolver() != null) {
+            filesInConflict = getContentResolver().query(ProviderTableMeta.CONTENT_URI_FILE, projection, where,
+                                                         whereArgs, null);
+        } else {
+            try {
+                filesInConflict = getContentProviderClient().query(ProviderTableMeta.CONTENT_URI_FILE, projection,
+                                                                   where, whereArgs, null);
+            } catch (RemoteException e) {
+                Log_OC.e(TAG, "Failed querying for descendents in conflict " + e.getMessage(), e);
             }
         }
 
+        if (filesInConflict == null) {
+            return Collections.emptyList();
+        }
+
+        List<String> conflictPaths = new ArrayList<>(filesInConflict.getCount());
+        while (filesInConflict.moveToNext()) {
+            conflictPaths.add(filesInConflict.getString(0));
+        }
+        filesInConflict.close();
+
+        List<String> withoutConflicts = new ArrayList<>();
+        for (String ancestorPath : ancestorPaths) {
+            for (String conflictPath : conflictPaths) {
+                if (conflictPath.startsWith(ancestorPath)) {
+                    Log_OC.d(TAG, "STILL conflicts in " + ancestorPath);
+                    return withoutConflicts;
+                }
+            }
+            Log_OC.d(TAG, "NO MORE conflicts in " + ancestorPath);
+            withoutConflicts.add(ancestorPath);
+        }
+        return withoutConflicts;
     }
 
     public OCCapability saveCapabilities(OCCapability capability) {
@@ -2233,16 +2543,16 @@ public class FileDataStorageManager {
         }
 
         if (c != null) {
+            List<Long> ids = new ArrayList<>(c.getCount());
             if (c.moveToFirst()) {
+                int fileIdIndex = c.getColumnIndex(ProviderTableMeta.VIRTUAL_OCFILE_ID);
                 do {
-                    OCFile child = createFileInstanceFromVirtual(c);
-
-                    if (child != null) {
-                        ocFiles.add(child);
-                    }
+                    ids.add(c.getLong(fileIdIndex));
                 } while (c.moveToNext());
             }
             c.close();
+
+            ocFiles = getFilesByIds(ids);
         }
 
         if (onlyImages) {
@@ -2294,4 +2604,19 @@ public class FileDataStorageManager {
     private CapabilityBooleanType getBoolean(Cursor cursor, String columnName) {
         return CapabilityBooleanType.fromValue(cursor.getInt(cursor.getColumnIndex(columnName)));
     }
+
+    /**
+     * State of a file when its thumbnail was generated, see {@link #clearUpdateThumbnailFlags(List)}
+     */
+    public static final class RegeneratedThumbnail {
+        private final long fileId;
+        private final long modificationTimestamp;
+        private final long lastSyncDateForData;
+
+        public RegeneratedThumbnail(OCFile file) {
+            fileId = file.getFileId();
+            modificationTimestamp = file.getModificationTimestamp();
+            lastSyncDateForData = file.getLastSyncDateForData();
+        }
+    }
 }
@@ -0,0 +1,239 @@
+/*
+ * Nextcloud Android client application
+ *
+ * Copyright (C) 2020 Nextcloud GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.owncloud.android.datamodel;
+
+import android.content.res.Resources;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.util.LruCache;
+
+import com.owncloud.android.MainApp;
+import com.owncloud.android.R;
+import com.owncloud.android.lib.common.utils.Log_OC;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+/**
+ * Opt-in, per account, size bounded cache of file rows read by {@link FileDataStorageManager}: folder listings
+ * and single files by id or path.
+ *
+ * Rows are kept as plain values and handed out as new cursors, so every read still maps fresh {@link OCFile}
+ * instances and callers can't modify cached state. Any change in the files table, reported by
+ * {@link com.owncloud.android.providers.FileContentProvider} after committing it, drops all cached rows.
+ */
+public final class FileMetadataCache {
+
+    private static final String TAG = FileMetadataCache.class.getSimpleName();
+    private static final int DEFAULT_MAX_ROWS = 5000;
+
+    private static final Map<String, FileMetadataCache> caches = new HashMap<>();
+    private static Boolean enabled;
+    private static int maxRows = DEFAULT_MAX_ROWS;
+
+    /**
+     * Increased on every invalidation; rows read before it are not stored afterwards.
+     */
+    private static long generation;
+
+    private static final AtomicLong totalHitCount = new AtomicLong();
+    private static final AtomicLong totalMissCount = new AtomicLong();
+
+    private final LruCache<String, Rows> rows;
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    private FileMetadataCache(int maxRows) {
+        rows = new LruCache<String, Rows>(maxRows) {
+            @Override
+            protected int sizeOf(String key, Rows value) {
+                return Math.max(1, value.values.size());
+            }
+        };
+    }
+
+    /**
+     * @return cache for the given account, or null if the cache is disabled
+     */
+    @Nullable
+    public static synchronized FileMetadataCache forAccount(String accountName) {
+        if (!isEnabled() || accountName == null) {
+            return null;
+        }
+
+        FileMetadataCache cache = caches.get(accountName);
+        if (cache == null) {
+            cache = new FileMetadataCache(maxRows);
+            caches.put(accountName, cache);
+        }
+        return cache;
+    }
+
+    /**
+     * Drops the cached rows of all accounts; to be called after any change in the files table is committed.
+     */
+    public static synchronized void invalidateAll() {
+        generation++;
+        if (caches.isEmpty()) {
+            return;
+        }
+
+        Log_OC.d(TAG, getStatistics());
+        for (FileMetadataCache cache : caches.values()) {
+            cache.rows.evictAll();
+        }
+    }
+
+    /**
+     * @return hits and misses of all accounts since the app started, and the rows cached right now
+     */
+    public static synchronized String getStatistics() {
+        int cachedRows = 0;
+        for (FileMetadataCache cache : caches.values()) {
+            cachedRows += cache.rows.size();
+        }
+        return "metadata cache: " + totalHitCount.get() + " hits, " + totalMissCount.get() + " misses, " +
+            cachedRows + " rows of " + caches.size() + " accounts, invalidated " + generation + " times";
+    }
+
+    private static boolean isEnabled() {
+        if (enabled == null) {
+            Resources resources = MainApp.getAppContext().getResources();
+            enabled = resources.getBoolean(R.bool.metadata_cache_enabled);
+            maxRows = resources.getInteger(R.integer.metadata_cache_max_rows);
+        }
+        return enabled;
+    }
+
+    @VisibleForTesting
+    public static synchronized void setEnabled(boolean enabled) {
+        FileMetadataCache.enabled = enabled;
+        caches.clear();
+    }
+
+    public static synchronized long getGeneration() {
+        return generation;
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * @return a new cursor over the cached rows for the given key, or null if they are not cached
+     */
+    @Nullable
+    public Cursor get(String key) {
+        Rows cached = rows.get(key);
+        if (cached == null) {
+            missCount.incrementAndGet();
+            totalMissCount.incrementAndGet();
+            return null;
+        }
+
+        hitCount.incrementAndGet();
+        totalHitCount.incrementAndGet();
+        return cached.toCursor();
+    }
+
+    /**
+     * Copies and closes a cursor just read from the provider, storing its rows unless the files table changed
+     * since the given generation.
+     *
+     * @param key        Key the rows are stored with.
+     * @param cursor     Cursor to copy, positioned before its first row; may be null.
+     * @param generation Result of {@link #getGeneration()} taken before running the query.
+     * @return a new cursor over the copied rows, or null if the given cursor is null
+     */
+    @Nullable
+    public Cursor put(String key, @Nullable Cursor cursor, long generation) {
+        if (cursor == null) {
+            return null;
+        }
+
+        Rows copy = new Rows(cursor);
+        cursor.close();
+
+        synchronized (FileMetadataCache.class) {
+            if (generation == FileMetadataCache.generation) {
+                rows.put(key, copy);
+            }
+        }
+
+        return copy.toCursor();
+    }
+
+    @Override
+    public String toString() {
+        return "FileMetadataCache{hits=" + hitCount.get() + ", misses=" + missCount.get() + ", rows=" + rows.size() +
+            "}";
+    }
+
+    private static class Rows {
+        private final String[] columnNames;
+        private final List<Object[]> values;
+
+        Rows(Cursor cursor) {
+            columnNames = cursor.getColumnNames();
+            values = new ArrayList<>(cursor.getCount());
+
+            while (cursor.moveToNext()) {
+                Object[] row = new Object[columnNames.length];
+                for (int i = 0; i < columnNames.length; i++) {
+                    switch (cursor.getType(i)) {
+                        case Cursor.FIELD_TYPE_INTEGER:
+                            row[i] = cursor.getLong(i);
+                            break;
+                        case Cursor.FIELD_TYPE_FLOAT:
+                            row[i] = cursor.getDouble(i);
+                            break;
+                        case Cursor.FIELD_TYPE_STRING:
+                            row[i] = cursor.getString(i);
+                            break;
+                        case Cursor.FIELD_TYPE_BLOB:
+                            row[i] = cursor.getBlob(i);
+                            break;
+                        default:
+                            row[i] = null;
+                            break;
+                    }
+                }
+                values.add(row);
+            }
+        }
+
+        Cursor toCursor() {
+            MatrixCursor cursor = new MatrixCursor(columnNames, values.size());
+            for (Object[] row : values) {
+                cursor.addRow(row);
+            }
+            return cursor;
+        }
+    }
+}
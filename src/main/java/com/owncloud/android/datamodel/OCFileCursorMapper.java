@@ -0,0 +1,254 @@
+/*
+ * Nextcloud Android client application
+ *
+ * Copyright (C) 2020 Nextcloud GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.owncloud.android.datamodel;
+
+import android.database.Cursor;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonSyntaxException;
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta;
+import com.owncloud.android.lib.common.network.WebdavEntry;
+import com.owncloud.android.lib.resources.shares.ShareeUser;
+import com.owncloud.android.utils.FileStorageUtils;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Maps rows of a file {@link Cursor} to {@link OCFile} instances.
+ *
+ * Column indices are resolved once per cursor, so mapping a whole folder listing does not look up ~35 column names
+ * per row. Columns missing from the cursor projection are skipped and keep the {@link OCFile} default value, e.g. a
+ * file id of -1.
+ *
+ * Instances are bound to a single cursor and are not thread safe.
+ */
+public class OCFileCursorMapper {
+
+    private static final int MISSING = -1;
+
+    /**
+     * {@link Gson} instances are thread safe, no need to create one per row
+     */
+    static final Gson GSON = new Gson();
+
+    private final Cursor cursor;
+    private final String accountName;
+
+    /**
+     * Whether local folders are listed to bind downloaded files; a single row is probed directly instead
+     */
+    private final boolean listLocalFolders;
+
+    private final int id;
+    private final int parent;
+    private final int name;
+    private final int encryptedName;
+    private final int path;
+    private final int contentType;
+    private final int storagePath;
+    private final int contentLength;
+    private final int creation;
+    private final int modified;
+    private final int modifiedAtLastSyncForData;
+    private final int lastSyncDate;
+    private final int lastSyncDateForData;
+    private final int etag;
+    private final int etagOnServer;
+    private final int sharedViaLink;
+    private final int sharedWithSharee;
+    private final int publicLink;
+    private final int permissions;
+    private final int remoteId;
+    private final int updateThumbnail;
+    private final int isDownloading;
+    private final int etagInConflict;
+    private final int favorite;
+    private final int isEncrypted;
+    private final int mountType;
+    private final int hasPreview;
+    private final int unreadCommentsCount;
+    private final int ownerId;
+    private final int ownerDisplayName;
+    private final int note;
+    private final int richWorkspace;
+    private final int sharees;
+
+    /**
+     * Local folder whose content was last listed to find downloaded files not yet bound to their database entry
+     */
+    private String listedLocalFolder;
+    private Set<String> listedLocalFolderContent = Collections.emptySet();
+
+    public OCFileCursorMapper(Cursor cursor, String accountName) {
+        this.cursor = cursor;
+        this.accountName = accountName;
+        listLocalFolders = cursor.getCount() > 1;
+
+        id = cursor.getColumnIndex(ProviderTableMeta._ID);
+        parent = cursor.getColumnIndex(ProviderTableMeta.FILE_PARENT);
+        name = cursor.getColumnIndex(ProviderTableMeta.FILE_NAME);
+        encryptedName = cursor.getColumnIndex(ProviderTableMeta.FILE_ENCRYPTED_NAME);
+        path = cursor.getColumnIndex(ProviderTableMeta.FILE_PATH);
+        contentType = cursor.getColumnIndex(ProviderTableMeta.FILE_CONTENT_TYPE);
+        storagePath = cursor.getColumnIndex(ProviderTableMeta.FILE_STORAGE_PATH);
+        contentLength = cursor.getColumnIndex(ProviderTableMeta.FILE_CONTENT_LENGTH);
+        creation = cursor.getColumnIndex(ProviderTableMeta.FILE_CREATION);
+        modified = cursor.getColumnIndex(ProviderTableMeta.FILE_MODIFIED);
+        modifiedAtLastSyncForData = cursor.getColumnIndex(ProviderTableMeta.FILE_MODIFIED_AT_LAST_SYNC_FOR_DATA);
+        lastSyncDate = cursor.getColumnIndex(ProviderTableMeta.FILE_LAST_SYNC_DATE);
+        lastSyncDateForData = cursor.getColumnIndex(ProviderTableMeta.FILE_LAST_SYNC_DATE_FOR_DATA);
+        etag = cursor.getColumnIndex(ProviderTableMeta.FILE_ETAG);
+        etagOnServer = cursor.getColumnIndex(ProviderTableMeta.FILE_ETAG_ON_SERVER);
+        sharedViaLink = cursor.getColumnIndex(ProviderTableMeta.FILE_SHARED_VIA_LINK);
+        sharedWithSharee = cursor.getColumnIndex(ProviderTableMeta.FILE_SHARED_WITH_SHAREE);
+        publicLink = cursor.getColumnIndex(ProviderTableMeta.FILE_PUBLIC_LINK);
+        permissions = cursor.getColumnIndex(ProviderTableMeta.FILE_PERMISSIONS);
+        remoteId = cursor.getColumnIndex(ProviderTableMeta.FILE_REMOTE_ID);
+        updateThumbnail = cursor.getColumnIndex(ProviderTableMeta.FILE_UPDATE_THUMBNAIL);
+        isDownloading = cursor.getColumnIndex(ProviderTableMeta.FILE_IS_DOWNLOADING);
+        etagInConflict = cursor.getColumnIndex(ProviderTableMeta.FILE_ETAG_IN_CONFLICT);
+        favorite = cursor.getColumnIndex(ProviderTableMeta.FILE_FAVORITE);
+        isEncrypted = cursor.getColumnIndex(ProviderTableMeta.FILE_IS_ENCRYPTED);
+        mountType = cursor.getColumnIndex(ProviderTableMeta.FILE_MOUNT_TYPE);
+        hasPreview = cursor.getColumnIndex(ProviderTableMeta.FILE_HAS_PREVIEW);
+        unreadCommentsCount = cursor.getColumnIndex(ProviderTableMeta.FILE_UNREAD_COMMENTS_COUNT);
+        ownerId = cursor.getColumnIndex(ProviderTableMeta.FILE_OWNER_ID);
+        ownerDisplayName = cursor.getColumnIndex(ProviderTableMeta.FILE_OWNER_DISPLAY_NAME);
+        note = cursor.getColumnIndex(ProviderTableMeta.FILE_NOTE);
+        richWorkspace = cursor.getColumnIndex(ProviderTableMeta.FILE_RICH_WORKSPACE);
+        sharees = cursor.getColumnIndex(ProviderTableMeta.FILE_SHAREES);
+    }
+
+    /**
+     * Creates an {@link OCFile} from the current row of the cursor.
+     *
+     * @return the file stored in the current row
+     */
+    public OCFile map() {
+        OCFile file = new OCFile(cursor.getString(path));
+        file.setFileId(getLong(id, file.getFileId()));
+        file.setParentId(getLong(parent, file.getParentId()));
+        file.setEncryptedFileName(getString(encryptedName, file.getEncryptedFileName()));
+        file.setMimeType(getString(contentType, file.getMimeType()));
+        file.setStoragePath(getString(storagePath, file.getStoragePath()));
+        if (file.getStoragePath() == null && storagePath != MISSING) {
+            // try to find existing file and bind it with current account;
+            // with the current update of SynchronizeFolderOperation, this won't be
+            // necessary anymore after a full synchronization of the account
+            bindExistingLocalFile(file);
+        }
+        file.setFileLength(getLong(contentLength, file.getFileLength()));
+        file.setCreationTimestamp(getLong(creation, file.getCreationTimestamp()));
+        file.setModificationTimestamp(getLong(modified, file.getModificationTimestamp()));
+        file.setModificationTimestampAtLastSyncForData(getLong(modifiedAtLastSyncForData,
+                                                               file.getModificationTimestampAtLastSyncForData()));
+        file.setLastSyncDateForProperties(getLong(lastSyncDate, file.getLastSyncDateForProperties()));
+        file.setLastSyncDateForData(getLong(lastSyncDateForData, file.getLastSyncDateForData()));
+        file.setEtag(getString(etag, file.getEtag()));
+        file.setEtagOnServer(getString(etagOnServer, file.getEtagOnServer()));
+        file.setSharedViaLink(getBoolean(sharedViaLink, file.isSharedViaLink()));
+        file.setSharedWithSharee(getBoolean(sharedWithSharee, file.isSharedWithSharee()));
+        file.setPublicLink(getString(publicLink, file.getPublicLink()));
+        file.setPermissions(getString(permissions, file.getPermissions()));
+        file.setRemoteId(getString(remoteId, file.getRemoteId()));
+        file.setUpdateThumbnailNeeded(getBoolean(updateThumbnail, file.isUpdateThumbnailNeeded()));
+        file.setDownloading(getBoolean(isDownloading, file.isDownloading()));
+        file.setEtagInConflict(getString(etagInConflict, file.getEtagInConflict()));
+        file.setFavorite(getBoolean(favorite, file.isFavorite()));
+        file.setEncrypted(getBoolean(isEncrypted, file.isEncrypted()));
+        if (file.isEncrypted() && name != MISSING) {
+            file.setFileName(cursor.getString(name));
+        }
+        if (mountType != MISSING) {
+            file.setMountType(WebdavEntry.MountType.values()[cursor.getInt(mountType)]);
+        }
+        file.setPreviewAvailable(getBoolean(hasPreview, file.isPreviewAvailable()));
+        file.setUnreadCommentsCount(getInt(unreadCommentsCount, file.getUnreadCommentsCount()));
+        file.setOwnerId(getString(ownerId, file.getOwnerId()));
+        file.setOwnerDisplayName(getString(ownerDisplayName, file.getOwnerDisplayName()));
+        file.setNote(getString(note, file.getNote()));
+        file.setRichWorkspace(getString(richWorkspace, file.getRichWorkspace()));
+        // unlike the other values, sharees are never left null
+        file.setSharees(parseSharees(getString(sharees, null)));
+
+        return file;
+    }
+
+    /**
+     * Binds a downloaded file which is not registered in the database yet. When mapping several rows, the content of
+     * the local folder is listed once and reused for all the rows sharing it, instead of probing the file system row
+     * by row.
+     */
+    private void bindExistingLocalFile(OCFile file) {
+        File localFile = new File(FileStorageUtils.getDefaultSavePathFor(accountName, file));
+        boolean exists;
+
+        if (listLocalFolders) {
+            String localFolder = localFile.getParent();
+            if (localFolder != null && !localFolder.equals(listedLocalFolder)) {
+                listedLocalFolder = localFolder;
+                String[] content = new File(localFolder).list();
+                listedLocalFolderContent = content == null ? Collections.emptySet() :
+                    new HashSet<>(Arrays.asList(content));
+            }
+            exists = listedLocalFolderContent.contains(localFile.getName());
+        } else {
+            exists = localFile.exists();
+        }
+
+        if (exists) {
+            file.setStoragePath(localFile.getAbsolutePath());
+            file.setLastSyncDateForData(localFile.lastModified());
+        }
+    }
+
+    static ArrayList<ShareeUser> parseSharees(String sharees) {
+        if (sharees == null || FileDataStorageManager.NULL_STRING.equals(sharees) || sharees.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        try {
+            return new ArrayList<>(Arrays.asList(GSON.fromJson(sharees, ShareeUser[].class)));
+        } catch (JsonSyntaxException e) {
+            // ignore saved value due to api change
+            return new ArrayList<>();
+        }
+    }
+
+    private String getString(int index, String missing) {
+        return index == MISSING ? missing : cursor.getString(index);
+    }
+
+    private long getLong(int index, long missing) {
+        return index == MISSING ? missing : cursor.getLong(index);
+    }
+
+    private int getInt(int index, int missing) {
+        return index == MISSING ? missing : cursor.getInt(index);
+    }
+
+    private boolean getBoolean(int index, boolean missing) {
+        return index == MISSING ? missing : cursor.getInt(index) == 1;
+    }
+}
@@ -24,33 +24,40 @@
 package com.owncloud.android.datamodel;
 
 import android.accounts.Account;
+import android.accounts.AuthenticatorException;
+import android.accounts.OperationCanceledException;
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.ContentResolver;
 import android.content.Context;
 import android.content.res.Resources;
 import android.graphics.Bitmap;
 import android.graphics.Bitmap.CompressFormat;
 import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
+import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.Point;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
-import android.media.MediaMetadataRetriever;
 import android.media.ThumbnailUtils;
 import android.net.Uri;
 import android.os.AsyncTask;
-import android.provider.MediaStore;
-import android.text.TextUtils;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.view.Display;
 import android.view.MenuItem;
 import android.view.WindowManager;
 import android.widget.ImageView;
 
+import com.evernote.android.job.JobRequest;
 import com.nextcloud.client.network.ConnectivityService;
 import com.owncloud.android.MainApp;
 import com.owncloud.android.R;
 import com.owncloud.android.lib.common.OwnCloudAccount;
 import com.owncloud.android.lib.common.OwnCloudClient;
 import com.owncloud.android.lib.common.OwnCloudClientManagerFactory;
+import com.owncloud.android.lib.common.accounts.AccountUtils;
 import com.owncloud.android.lib.common.operations.RemoteOperation;
 import com.owncloud.android.lib.common.utils.Log_OC;
 import com.owncloud.android.lib.resources.files.model.ServerFileInterface;
@@ -66,16 +73,34 @@ import com.owncloud.android.utils.MimeTypeUtil;
 
 import org.apache.commons.httpclient.HttpStatus;
 import org.apache.commons.httpclient.methods.GetMethod;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.CountingInputStream;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.InputStream;
 import java.lang.ref.WeakReference;
 import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
-
+import java.util.Map;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import androidx.annotation.DimenRes;
 import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
+import androidx.collection.LruCache;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 
 /**
@@ -85,19 +110,34 @@ public final class ThumbnailsCacheManager {
 
     public static final String PREFIX_RESIZED_IMAGE = "r";
     public static final String PREFIX_THUMBNAIL = "t";
+    public static final String PREFIX_LIST_THUMBNAIL = "tl";
 
     private static final String TAG = ThumbnailsCacheManager.class.getSimpleName();
     private static final String PNG_MIMETYPE = "image/png";
     private static final String CACHE_FOLDER = "thumbnailCache";
-    public static final String AVATAR = "avatar";
-    private static final String AVATAR_TIMESTAMP = "avatarTimestamp";
-    private static final String ETAG = "ETag";
 
-    private static final Object mThumbnailsDiskCacheLock = new Object();
-    private static DiskLruImageCache mThumbnailCache;
-    private static boolean mThumbnailCacheStarting = true;
+    private static final Object mThumbnailsDiskCacheInitLock = new Object();
+    private static volatile DiskLruImageCache mThumbnailCache;
+    private static volatile boolean mThumbnailCacheOpened;
+    private static volatile long mThumbnailCacheOpenMillis = -1;
+    private static final AtomicInteger mThumbnailCacheNotReadyCount = new AtomicInteger();
 
     private static final int DISK_CACHE_SIZE = 1024 * 1024 * 200; // 200MB
+    private static final int THUMBNAIL_WORKERS = 3;
+    private static final int VIDEO_THUMBNAIL_WORKERS = 1;
+    private static final String VIDEO_OVERLAY_SUFFIX = "-overlay";
+    private static final int THUMBNAIL_QUEUE_CAPACITY = 64;
+    private static final int THUMBNAIL_GENERATION_LOCKS = 32;
+    private static final Object[] mThumbnailGenerationLocks = new Object[THUMBNAIL_GENERATION_LOCKS];
+    private static final int UPDATE_FLAGS_FLUSH_SIZE = 100;
+    private static final long UPDATE_FLAGS_FLUSH_DELAY_MILLIS = 2000;
+    private static final Map<Account, List<FileDataStorageManager.RegeneratedThumbnail>> mPendingUpdateFlags =
+        new HashMap<>();
+    private static final ScheduledExecutorService mUpdateFlagsExecutor = Executors.newSingleThreadScheduledExecutor();
+    private static boolean mUpdateFlagsFlushScheduled;
+    private static final int MEMORY_CACHE_FRACTION = 8; // 1/8 of the app memory class
+    private static final int BYTES_PER_MEGABYTE = 1024 * 1024;
+    private static LruCache<String, Bitmap> mThumbnailMemoryCache;
     private static final CompressFormat mCompressFormat = CompressFormat.JPEG;
     private static final int mCompressQuality = 70;
     private static OwnCloudClient mClient;
@@ -108,50 +148,278 @@ public final class ThumbnailsCacheManager {
     public static final Bitmap mDefaultVideo = BitmapFactory.decodeResource(MainApp.getAppContext().getResources(),
             R.drawable.file_movie);
 
+    /**
+     * Bounded executor for thumbnail generation. Requests are served last in, first out, as the latest bound views
+     * are the visible ones; the oldest waiting requests are cancelled when the queue is full.
+     */
+    public static final ThreadPoolExecutor THUMBNAIL_EXECUTOR = createThumbnailExecutor(THUMBNAIL_WORKERS);
+
+    /**
+     * Separate executor for frames extracted from local videos, which are much slower to decode than images, so
+     * that video heavy folders do not hold up image thumbnails.
+     */
+    private static final ThreadPoolExecutor VIDEO_THUMBNAIL_EXECUTOR = createThumbnailExecutor(VIDEO_THUMBNAIL_WORKERS);
+
+    static {
+        for (int i = 0; i < THUMBNAIL_GENERATION_LOCKS; i++) {
+            mThumbnailGenerationLocks[i] = new Object();
+        }
+    }
+
     private ThumbnailsCacheManager() {
     }
 
-    public static class InitDiskCacheTask extends AsyncTask<File, Void, Void> {
-        @Override
-        protected Void doInBackground(File... params) {
-            synchronized (mThumbnailsDiskCacheLock) {
-                mThumbnailCacheStarting = true;
+    /**
+     * Size buckets of cached previews. A missing variant is downscaled from a larger cached one before it is fetched
+     * from the server, and it is never fetched larger than its bucket.
+     */
+    public enum ThumbnailSize {
+        LIST(PREFIX_LIST_THUMBNAIL),
+        GRID(PREFIX_THUMBNAIL),
+        SCREEN(PREFIX_RESIZED_IMAGE);
 
-                if (mThumbnailCache == null) {
-                    try {
-                        File cacheDir = MainApp.getAppContext().getCacheDir();
+        private final String prefix;
 
-                        if (cacheDir == null) {
-                            throw new FileNotFoundException("Thumbnail cache could not be opened");
-                        }
+        ThumbnailSize(String prefix) {
+            this.prefix = prefix;
+        }
+
+        public String getKey(String remoteId) {
+            return prefix + remoteId;
+        }
+
+        /**
+         * @return edge length in pixel; for {@link #SCREEN} the shorter screen side
+         */
+        public int getDimension() {
+            switch (this) {
+                case LIST:
+                    // list icons are small, a power of two below them would be visibly blurry
+                    return (int) Math.ceil(MainApp.getAppContext().getResources()
+                                               .getDimension(R.dimen.file_icon_size));
+                case GRID:
+                    return getThumbnailDimension(R.dimen.file_icon_size_grid);
+                default:
+                    Point p = getScreenDimension();
+                    return Math.min(p.x, p.y);
+            }
+        }
+
+        /**
+         * @return smallest bucket covering the requested edge length, {@link #SCREEN} if none does
+         */
+        public static ThumbnailSize forDimension(int px) {
+            for (ThumbnailSize size : values()) {
+                if (size.getDimension() >= px) {
+                    return size;
+                }
+            }
+            return SCREEN;
+        }
+    }
 
-                        String cachePath = cacheDir.getPath() + File.separator + CACHE_FOLDER;
-                        Log_OC.d(TAG, "thumbnail cache dir: " + cachePath);
-                        File diskCacheDir = new File(cachePath);
+    /**
+     * Marks the thumbnail of a file as regenerated. The "thumbnail needs update" flag is cleared in the database in
+     * batches, after a short delay or once enough files are pending, instead of saving each file.
+     */
+    private static void markThumbnailUpdated(OCFile file, FileDataStorageManager storageManager) {
+        file.setUpdateThumbnailNeeded(false);
+        if (file.getFileId() <= 0) {
+            return;
+        }
 
-                        // migrate from external cache to internal cache
-                        File oldCacheDir = MainApp.getAppContext().getExternalCacheDir();
+        boolean flushNow;
+        synchronized (mPendingUpdateFlags) {
+            List<FileDataStorageManager.RegeneratedThumbnail> thumbnails =
+                mPendingUpdateFlags.get(storageManager.getAccount());
+            if (thumbnails == null) {
+                thumbnails = new ArrayList<>();
+                mPendingUpdateFlags.put(storageManager.getAccount(), thumbnails);
+            }
+            // the file's state is queued, a flag set again by a later change of the file is not cleared
+            thumbnails.add(new FileDataStorageManager.RegeneratedThumbnail(file));
+
+            flushNow = thumbnails.size() >= UPDATE_FLAGS_FLUSH_SIZE;
+            if (!flushNow && !mUpdateFlagsFlushScheduled) {
+                mUpdateFlagsFlushScheduled = true;
+                mUpdateFlagsExecutor.schedule(ThumbnailsCacheManager::flushUpdateFlags,
+                                              UPDATE_FLAGS_FLUSH_DELAY_MILLIS,
+                                              TimeUnit.MILLISECONDS);
+            }
+        }
 
-                        if (oldCacheDir != null && oldCacheDir.exists()) {
-                            String cacheOldPath = oldCacheDir.getPath() + File.separator + CACHE_FOLDER;
-                            File diskOldCacheDir = new File(cacheOldPath);
+        if (flushNow) {
+            mUpdateFlagsExecutor.execute(ThumbnailsCacheManager::flushUpdateFlags);
+        }
+    }
 
-                            FileStorageUtils.copyDirs(diskOldCacheDir, diskCacheDir);
-                            FileStorageUtils.deleteRecursive(diskOldCacheDir);
-                        }
+    /**
+     * Writes pending "thumbnail needs update" flags, one statement per account.
+     */
+    private static void flushUpdateFlags() {
+        Map<Account, List<FileDataStorageManager.RegeneratedThumbnail>> pending;
+        synchronized (mPendingUpdateFlags) {
+            pending = new HashMap<>(mPendingUpdateFlags);
+            mPendingUpdateFlags.clear();
+            mUpdateFlagsFlushScheduled = false;
+        }
+
+        ContentResolver contentResolver = MainApp.getAppContext().getContentResolver();
+        for (Map.Entry<Account, List<FileDataStorageManager.RegeneratedThumbnail>> entry : pending.entrySet()) {
+            int updated = new FileDataStorageManager(entry.getKey(), contentResolver)
+                .clearUpdateThumbnailFlags(entry.getValue());
+            Log_OC.d(TAG, "cleared thumbnail update flag of " + updated + " files");
+        }
+    }
+
+    /**
+     * Looks up the smallest cached variant larger than the requested one, memory tier first.
+     *
+     * @return downscaled variant, or null if no larger variant is cached
+     */
+    private static Bitmap getDownscaledVariant(String remoteId, ThumbnailSize size) {
+        ThumbnailSize[] sizes = ThumbnailSize.values();
+        for (int i = size.ordinal() + 1; i < sizes.length; i++) {
+            String key = sizes[i].getKey(remoteId);
+            Bitmap larger = getBitmapFromMemoryCache(key);
+            if (larger == null) {
+                larger = getBitmapFromDiskCache(key);
+            }
+            if (larger != null) {
+                int px = size.getDimension();
+                Log_OC.d(TAG, "downscale " + sizes[i] + " variant to " + size + " for " + remoteId);
+                return ThumbnailUtils.extractThumbnail(larger, px, px);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Converts a dimension to pixel, rounded down to a power of two
+     */
+    private static int getThumbnailDimension(@DimenRes int dimension) {
+        Resources r = MainApp.getAppContext().getResources();
+        Double d = Math.pow(2, Math.floor(Math.log(r.getDimension(dimension)) / Math.log(2)));
+        return d.intValue();
+    }
+
+    private static ThreadPoolExecutor createThumbnailExecutor(int workers) {
+        BlockingDeque<Runnable> queue = new LinkedBlockingDeque<Runnable>() {
+            @Override
+            public boolean offer(@NonNull Runnable runnable) {
+                while (size() >= THUMBNAIL_QUEUE_CAPACITY) {
+                    Runnable oldest = pollLast();
+                    if (oldest instanceof Future) {
+                        ((Future<?>) oldest).cancel(false);
+                    }
+                }
+                return offerFirst(runnable);
+            }
+        };
+
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(workers, workers, 30,
+                                                             TimeUnit.SECONDS, queue);
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private static Object getGenerationLock(String imageKey) {
+        return mThumbnailGenerationLocks[(imageKey.hashCode() & Integer.MAX_VALUE) % THUMBNAIL_GENERATION_LOCKS];
+    }
+
+    /**
+     * Opens the disk cache off the main thread, so that the first thumbnails are served from disk.
+     */
+    public static class InitDiskCacheTask extends AsyncTask<File, Void, Void> {
+        @Override
+        protected Void doInBackground(File... params) {
+            openDiskCache();
+            return null;
+        }
+    }
+
+    /**
+     * Opens the disk cache once; later calls return the already opened cache.
+     *
+     * @return disk cache, or null if it could not be opened
+     */
+    private static DiskLruImageCache openDiskCache() {
+        synchronized (mThumbnailsDiskCacheInitLock) {
+            if (!mThumbnailCacheOpened) {
+                long start = SystemClock.elapsedRealtime();
+                try {
+                    File cacheDir = MainApp.getAppContext().getCacheDir();
 
-                        mThumbnailCache = new DiskLruImageCache(diskCacheDir, DISK_CACHE_SIZE, mCompressFormat,
-                                                                mCompressQuality);
-                    } catch (Exception e) {
-                        Log_OC.d(TAG, String.format(Locale.US, "Disk cache init failed: %s", e.getMessage()));
-                        mThumbnailCache = null;
+                    if (cacheDir == null) {
+                        throw new FileNotFoundException("Thumbnail cache could not be opened");
                     }
+
+                    String cachePath = cacheDir.getPath() + File.separator + CACHE_FOLDER;
+                    Log_OC.d(TAG, "thumbnail cache dir: " + cachePath);
+
+                    mThumbnailCache = new DiskLruImageCache(new File(cachePath), DISK_CACHE_SIZE, mCompressFormat,
+                                                            mCompressQuality);
+                } catch (Exception e) {
+                    Log_OC.d(TAG, String.format(Locale.US, "Disk cache init failed: %s", e.getMessage()));
+                    mThumbnailCache = null;
                 }
-                mThumbnailCacheStarting = false; // Finished initialization
-                mThumbnailsDiskCacheLock.notifyAll(); // Wake any waiting threads
+                mThumbnailCacheOpenMillis = SystemClock.elapsedRealtime() - start;
+                mThumbnailCacheOpened = true;
+                Log_OC.d(TAG, getDiskCacheStatistics());
+            }
+            return mThumbnailCache;
+        }
+    }
+
+    /**
+     * Returns the disk cache without ever blocking the main thread: while the cache is still being opened, the main
+     * thread gets null, i.e. a miss, and the cache is opened in the background. Other threads open it themselves.
+     *
+     * @return disk cache, or null if it is not available (yet)
+     */
+    private static DiskLruImageCache getDiskCache() {
+        if (mThumbnailCacheOpened) {
+            return mThumbnailCache;
+        }
+
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            if (mThumbnailCacheNotReadyCount.getAndIncrement() == 0) {
+                new InitDiskCacheTask().executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
             }
             return null;
         }
+
+        return openDiskCache();
+    }
+
+    /**
+     * Deletes the thumbnail cache of old versions, which was kept in the external cache dir. Its entries were stored
+     * under keys that cannot be mapped to the current ones, so there is nothing to copy over.
+     *
+     * @return number of bytes freed
+     */
+    public static long removeLegacyDiskCache() {
+        File externalCacheDir = MainApp.getAppContext().getExternalCacheDir();
+        if (externalCacheDir == null) {
+            return 0;
+        }
+
+        File legacyCacheDir = new File(externalCacheDir, CACHE_FOLDER);
+        if (!legacyCacheDir.exists()) {
+            return 0;
+        }
+
+        long start = SystemClock.elapsedRealtime();
+        long size = FileStorageUtils.getFolderSize(legacyCacheDir);
+        FileStorageUtils.deleteRecursive(legacyCacheDir);
+        Log_OC.d(TAG, "removed legacy thumbnail cache of " + size + " bytes in " +
+            (SystemClock.elapsedRealtime() - start) + " ms");
+        return size;
+    }
+
+    public static String getDiskCacheStatistics() {
+        return "thumbnail disk cache: " + (mThumbnailCacheOpened ? "opened in " + mThumbnailCacheOpenMillis + " ms" :
+            "not opened") + ", " + mThumbnailCacheNotReadyCount.get() + " lookups before it was available";
     }
 
     /**
@@ -200,31 +468,212 @@ public final class ThumbnailsCacheManager {
     }
 
     public static void addBitmapToCache(String key, Bitmap bitmap) {
-        synchronized (mThumbnailsDiskCacheLock) {
-            if (mThumbnailCache != null) {
-                mThumbnailCache.put(key, bitmap);
-            }
+        addBitmapToMemoryCache(key, bitmap);
+
+        DiskLruImageCache diskCache = getDiskCache();
+        if (diskCache != null) {
+            diskCache.put(key, bitmap);
         }
     }
 
-    public static boolean containsBitmap(String key) {
-        return mThumbnailCache.containsKey(key);
+    /**
+     * Stores already encoded image data, e.g. a server response, without decoding and re-compressing it.
+     *
+     * @param key    cache key
+     * @param data   encoded image as written to disk
+     * @param bitmap decoded image, kept in the memory tier
+     */
+    public static void addBytesToCache(String key, byte[] data, Bitmap bitmap) {
+        addBitmapToMemoryCache(key, bitmap);
+
+        DiskLruImageCache diskCache = getDiskCache();
+        if (diskCache != null) {
+            diskCache.put(key, data);
+        }
     }
 
-    public static Bitmap getBitmapFromDiskCache(String key) {
-        synchronized (mThumbnailsDiskCacheLock) {
-            // Wait while disk cache is started from background thread
-            while (mThumbnailCacheStarting) {
-                try {
-                    mThumbnailsDiskCacheLock.wait();
-                } catch (InterruptedException e) {
-                    Log_OC.e(TAG, "Wait in mThumbnailsDiskCacheLock was interrupted", e);
+    private static boolean isStoreOriginalThumbnails() {
+        return MainApp.getAppContext().getResources().getBoolean(R.bool.thumbnail_cache_store_original);
+    }
+
+    private static synchronized LruCache<String, Bitmap> getMemoryCache() {
+        if (mThumbnailMemoryCache == null) {
+            ActivityManager activityManager = (ActivityManager) MainApp.getAppContext()
+                .getSystemService(Context.ACTIVITY_SERVICE);
+            int memoryClass = activityManager != null ? activityManager.getMemoryClass() : 16;
+            int maxBytes = memoryClass * BYTES_PER_MEGABYTE / MEMORY_CACHE_FRACTION;
+            Log_OC.d(TAG, "thumbnail memory cache size: " + maxBytes + " bytes");
+
+            mThumbnailMemoryCache = new LruCache<String, Bitmap>(maxBytes) {
+                @Override
+                protected int sizeOf(@NonNull String key, @NonNull Bitmap bitmap) {
+                    return bitmap.getRowBytes() * bitmap.getHeight();
                 }
+            };
+        }
+        return mThumbnailMemoryCache;
+    }
+
+    /**
+     * Keeps thumbnails in the memory tier; resized images are too big and are recycled by their consumers.
+     */
+    private static void addBitmapToMemoryCache(String key, Bitmap bitmap) {
+        if (key != null && bitmap != null && !bitmap.isRecycled() && key.startsWith(PREFIX_THUMBNAIL)) {
+            getMemoryCache().put(key, bitmap);
+            // overlay was drawn on the replaced thumbnail
+            getMemoryCache().remove(key + VIDEO_OVERLAY_SUFFIX);
+        }
+    }
+
+    /**
+     * Looks up a video thumbnail with play button overlay in the in-memory tier only. The overlay is drawn once per
+     * thumbnail and then kept in the memory tier as well.
+     *
+     * @param key cache key of the plain thumbnail, e.g. {@link #PREFIX_THUMBNAIL} + remote id
+     * @return cached bitmap with overlay, or null if the thumbnail has to be loaded from disk or server
+     */
+    public static Bitmap getVideoThumbnailFromMemoryCache(String key) {
+        Bitmap overlay = getBitmapFromMemoryCache(key + VIDEO_OVERLAY_SUFFIX);
+        if (overlay != null) {
+            return overlay;
+        }
+
+        Bitmap thumbnail = getBitmapFromMemoryCache(key);
+        return thumbnail == null ? null : addVideoOverlayToCache(key, thumbnail);
+    }
+
+    private static Bitmap addVideoOverlayToCache(String key, Bitmap thumbnail) {
+        Bitmap overlay = getBitmapFromMemoryCache(key + VIDEO_OVERLAY_SUFFIX);
+        if (overlay == null) {
+            overlay = addVideoOverlay(thumbnail);
+            addBitmapToMemoryCache(key + VIDEO_OVERLAY_SUFFIX, overlay);
+        }
+        return overlay;
+    }
+
+    /**
+     * Removes cancelled thumbnail tasks from the executor queues.
+     */
+    public static void purgeCancelledTasks() {
+        THUMBNAIL_EXECUTOR.purge();
+        VIDEO_THUMBNAIL_EXECUTOR.purge();
+    }
+
+    /**
+     * Looks up a thumbnail in the in-memory tier only, so it is safe to call on the main thread.
+     *
+     * @param key cache key, e.g. {@link #PREFIX_THUMBNAIL} + remote id
+     * @return cached bitmap or null if it has to be loaded from disk or server
+     */
+    public static Bitmap getBitmapFromMemoryCache(String key) {
+        Bitmap bitmap = getMemoryCache().get(key);
+
+        if (bitmap != null && bitmap.isRecycled()) {
+            getMemoryCache().remove(key);
+            return null;
+        }
+        return bitmap;
+    }
+
+    /**
+     * Shrinks the in-memory tier in reaction to {@link ComponentCallbacks2#onTrimMemory(int)} and writes pending
+     * thumbnail update flags once the UI is hidden.
+     */
+    public static void onTrimMemory(int level) {
+        LruCache<String, Bitmap> cache = getMemoryCache();
+
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            // app went to background and may be killed, persist batched flags
+            mUpdateFlagsExecutor.execute(ThumbnailsCacheManager::flushUpdateFlags);
+        }
+
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+            cache.evictAll();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND ||
+            level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW ||
+            level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            cache.trimToSize(cache.maxSize() / 2);
+        }
+        Log_OC.d(TAG, "trim memory level " + level + ", " + getMemoryCacheStatistics() + ", " +
+            getDiskCacheStatistics());
+    }
+
+    public static String getMemoryCacheStatistics() {
+        LruCache<String, Bitmap> cache = getMemoryCache();
+        int hits = cache.hitCount();
+        int lookups = hits + cache.missCount();
+        int hitRate = lookups == 0 ? 0 : hits * 100 / lookups;
+
+        return "thumbnail memory cache: " + cache.size() + "/" + cache.maxSize() + " bytes, " + hits + "/" +
+            lookups + " hits (" + hitRate + "%), " + cache.evictionCount() + " evictions";
+    }
+
+    public static int getMemoryCacheHitCount() {
+        return getMemoryCache().hitCount();
+    }
+
+    public static int getMemoryCacheMissCount() {
+        return getMemoryCache().missCount();
+    }
+
+    @VisibleForTesting
+    public static void clearMemoryCache() {
+        getMemoryCache().evictAll();
+    }
+
+    public static boolean containsBitmap(String key) {
+        DiskLruImageCache diskCache = getDiskCache();
+        return diskCache != null && diskCache.containsKey(key);
+    }
+
+    /**
+     * Warms the thumbnail caches for the first image and video files of a folder, in the order they are listed, so
+     * that the grid is populated when it is shown. Downloads run on the thumbnail executor and share the pooled
+     * connections of the account's client. Nothing is fetched on metered networks, and fetching stops once the byte
+     * budget has been used up.
+     *
+     * @param files folder content, sorted as shown to the user
+     */
+    public static void prefetchThumbnails(List<OCFile> files, FileDataStorageManager storageManager,
+                                          Account account, ConnectivityService connectivityService) {
+        Resources resources = MainApp.getAppContext().getResources();
+        int maxFiles = resources.getInteger(R.integer.thumbnail_prefetch_max_files);
+
+        if (maxFiles <= 0 || connectivityService.getActiveNetworkType() != JobRequest.NetworkType.UNMETERED) {
+            return;
+        }
+
+        List<OCFile> missing = new ArrayList<>();
+        int mediaFiles = 0;
+        for (OCFile file : files) {
+            if (mediaFiles >= maxFiles) {
+                break;
+            }
+            if (file.getRemoteId() == null || !file.isPreviewAvailable() || !MimeTypeUtil.isImageOrVideo(file)) {
+                continue;
             }
-            if (mThumbnailCache != null) {
-                return mThumbnailCache.getBitmap(key);
+            mediaFiles++;
+
+            if (file.isUpdateThumbnailNeeded() || !containsBitmap(PREFIX_THUMBNAIL + file.getRemoteId())) {
+                missing.add(file);
             }
         }
+
+        AtomicLong budget = new AtomicLong(resources.getInteger(R.integer.thumbnail_prefetch_budget_kb) * 1024L);
+        // executor serves the latest request first, so queue the last file first
+        for (int i = missing.size() - 1; i >= 0; i--) {
+            OCFile file = missing.get(i);
+            new ThumbnailGenerationTask(storageManager, account, budget)
+                .enqueue(new ThumbnailGenerationTaskObject(file, file.getRemoteId()));
+        }
+        Log_OC.d(TAG, "prefetching " + missing.size() + " of " + mediaFiles + " thumbnails");
+    }
+
+    public static Bitmap getBitmapFromDiskCache(String key) {
+        DiskLruImageCache diskCache = getDiskCache();
+        if (diskCache != null) {
+            return diskCache.getBitmap(key);
+        }
         return null;
     }
 
@@ -304,8 +753,7 @@ public final class ThumbnailsCacheManager {
 
                         thumbnail = addThumbnailToCache(imageKey, bitmap, file.getStoragePath(), pxW, pxH);
 
-                        file.setUpdateThumbnailNeeded(false);
-                        storageManager.saveFile(file);
+                        markThumbnailUpdated(file, storageManager);
                     }
 
                 } else {
@@ -404,12 +852,16 @@ public final class ThumbnailsCacheManager {
 
     public static class ThumbnailGenerationTask extends AsyncTask<ThumbnailGenerationTaskObject, Void, Bitmap> {
         private final WeakReference<ImageView> mImageViewReference;
-        private static Account mAccount;
+        private Account mAccount;
+        private OwnCloudClient mClient;
         private List<ThumbnailGenerationTask> mAsyncTasks;
         private Object mFile;
         private String mImageKey;
         private FileDataStorageManager mStorageManager;
         private GetMethod getMethod;
+        private AtomicLong mPrefetchBudget;
+        private long mDownloadedBytes;
+        private ThumbnailSize mSize = ThumbnailSize.GRID;
 
         public ThumbnailGenerationTask(ImageView imageView, FileDataStorageManager storageManager, Account account)
                 throws IllegalArgumentException {
@@ -429,10 +881,45 @@ public final class ThumbnailsCacheManager {
             mAsyncTasks = asyncTasks;
         }
 
+        public ThumbnailGenerationTask(ImageView imageView, FileDataStorageManager storageManager,
+                                       Account account, List<ThumbnailGenerationTask> asyncTasks,
+                                       ThumbnailSize size)
+                throws IllegalArgumentException {
+            this(imageView, storageManager, account, asyncTasks);
+            mSize = size;
+        }
+
         public GetMethod getGetMethod() {
             return getMethod;
         }
 
+        /**
+         * Queues the task on the bounded thumbnail executor, where the most recent request is served first. Frames of
+         * local videos are extracted on their own executor.
+         */
+        public void enqueue(ThumbnailGenerationTaskObject object) {
+            // known before the task starts, so a re-bind of the same file does not cancel it
+            mFile = object.getFile();
+            executeOnExecutor(isLocalVideo(mFile) ? VIDEO_THUMBNAIL_EXECUTOR : THUMBNAIL_EXECUTOR, object);
+        }
+
+        private static boolean isLocalVideo(Object file) {
+            if (file instanceof OCFile) {
+                return ((OCFile) file).isDown() && MimeTypeUtil.isVideo((OCFile) file);
+            }
+            return file instanceof File && MimeTypeUtil.isVideo((File) file);
+        }
+
+        /**
+         * Cancels the task and aborts a running download of its thumbnail.
+         */
+        public void cancelAndAbort() {
+            cancel(true);
+            if (getMethod != null) {
+                getMethod.abort();
+            }
+        }
+
         public ThumbnailGenerationTask(FileDataStorageManager storageManager, Account account){
             if (storageManager == null) {
                 throw new IllegalArgumentException("storageManager must not be NULL");
@@ -442,25 +929,40 @@ public final class ThumbnailsCacheManager {
             mImageViewReference = null;
         }
 
+        /**
+         * Task for a prefetch, which is skipped once the shared budget of downloaded bytes is used up.
+         */
+        private ThumbnailGenerationTask(FileDataStorageManager storageManager, Account account,
+                                        AtomicLong prefetchBudget) {
+            this(storageManager, account);
+            mPrefetchBudget = prefetchBudget;
+        }
+
         public ThumbnailGenerationTask(ImageView imageView) {
             // Use a WeakReference to ensure the ImageView can be garbage collected
             mImageViewReference = new WeakReference<>(imageView);
         }
 
+        private void initClient() {
+            if (mAccount != null) {
+                try {
+                    OwnCloudAccount ocAccount = new OwnCloudAccount(mAccount, MainApp.getAppContext());
+                    mClient = OwnCloudClientManagerFactory.getDefaultSingleton().
+                            getClientFor(ocAccount, MainApp.getAppContext());
+                } catch (OperationCanceledException | AuthenticatorException | IOException |
+                    AccountUtils.AccountNotFoundException e) {
+                    Log_OC.e(TAG, "Failed to set client", e);
+                }
+            }
+        }
+
         @SuppressFBWarnings("Dm")
         @Override
         protected Bitmap doInBackground(ThumbnailGenerationTaskObject... params) {
             Bitmap thumbnail = null;
 
             try {
-                if (mAccount != null) {
-                    OwnCloudAccount ocAccount = new OwnCloudAccount(
-                            mAccount,
-                            MainApp.getAppContext()
-                    );
-                    mClient = OwnCloudClientManagerFactory.getDefaultSingleton().
-                            getClientFor(ocAccount, MainApp.getAppContext());
-                }
+                initClient();
 
                 ThumbnailGenerationTaskObject object = params[0];
                 mFile = object.getFile();
@@ -470,15 +972,13 @@ public final class ThumbnailsCacheManager {
                     thumbnail = doThumbnailFromOCFileInBackground();
 
                     if (MimeTypeUtil.isVideo((ServerFileInterface) mFile) && thumbnail != null) {
-                        thumbnail = addVideoOverlay(thumbnail);
+                        thumbnail = addVideoOverlayToCache(mSize.getKey(((ServerFileInterface) mFile).getRemoteId()),
+                                                           thumbnail);
                     }
                 } else if (mFile instanceof File) {
                     thumbnail = doFileInBackground();
 
-                    String url = ((File) mFile).getAbsolutePath();
-                    String mMimeType = FileStorageUtils.getMimeTypeFromName(url);
-
-                    if (MimeTypeUtil.isVideo(mMimeType) && thumbnail != null) {
+                    if (MimeTypeUtil.isVideo((File) mFile) && thumbnail != null) {
                         thumbnail = addVideoOverlay(thumbnail);
                     }
                     //} else {  do nothing
@@ -518,16 +1018,52 @@ public final class ThumbnailsCacheManager {
             }
         }
 
+        @Override
+        protected void onCancelled(Bitmap bitmap) {
+            if (mAsyncTasks != null) {
+                mAsyncTasks.remove(this);
+            }
+        }
+
         private Bitmap doThumbnailFromOCFileInBackground() {
-            Bitmap thumbnail;
             ServerFileInterface file = (ServerFileInterface) mFile;
-            String imageKey = PREFIX_THUMBNAIL + file.getRemoteId();
+            String imageKey = mSize.getKey(file.getRemoteId());
+
+            // requests for the same remote id wait for the first one and then find its result in the memory tier
+            synchronized (getGenerationLock(imageKey)) {
+                if (isCancelled() || mPrefetchBudget != null && mPrefetchBudget.get() <= 0) {
+                    return null;
+                }
+                Bitmap thumbnail = doThumbnailFromOCFileInBackground(file, imageKey);
+
+                if (mPrefetchBudget != null) {
+                    mPrefetchBudget.addAndGet(-mDownloadedBytes);
+                }
+                return thumbnail;
+            }
+        }
+
+        private Bitmap doThumbnailFromOCFileInBackground(ServerFileInterface file, String imageKey) {
+            Bitmap thumbnail;
+            boolean updateNeeded = file instanceof OCFile && ((OCFile) file).isUpdateThumbnailNeeded();
+
+            if (!updateNeeded) {
+                thumbnail = getBitmapFromMemoryCache(imageKey);
+                if (thumbnail != null) {
+                    return thumbnail;
+                }
+            }
 
             // Check disk cache in background thread
             thumbnail = getBitmapFromDiskCache(imageKey);
 
+            if (thumbnail != null && !updateNeeded) {
+                // promote to memory tier, so the next bind does not need a task at all
+                addBitmapToMemoryCache(imageKey, thumbnail);
+            }
+
             // Not found in disk cache
-            if (thumbnail == null || (file instanceof OCFile && ((OCFile) file).isUpdateThumbnailNeeded())) {
+            if (thumbnail == null || updateNeeded) {
                 int pxW;
                 int pxH;
                 pxW = pxH = getThumbnailDimension();
@@ -535,35 +1071,37 @@ public final class ThumbnailsCacheManager {
                 if (file instanceof OCFile) {
                     OCFile ocFile = (OCFile) file;
                     if (ocFile.isDown()) {
-                        Bitmap bitmap;
                         if (MimeTypeUtil.isVideo(ocFile)) {
-                            bitmap = ThumbnailUtils.createVideoThumbnail(ocFile.getStoragePath(),
-                                    MediaStore.Images.Thumbnails.MINI_KIND);
+                            thumbnail = BitmapUtils.decodeVideoFrame(ocFile.getStoragePath(), pxW);
+                            if (thumbnail != null) {
+                                addBitmapToCache(imageKey, thumbnail);
+                            }
                         } else {
-                            bitmap = BitmapUtils.decodeSampledBitmapFromFile(ocFile.getStoragePath(), pxW, pxH);
-                        }
-
-                        if (bitmap != null) {
-                            // Handle PNG
-                            if (PNG_MIMETYPE.equalsIgnoreCase(ocFile.getMimeType())) {
-                                bitmap = handlePNG(bitmap, pxW, pxH);
+                            // single decode, crop, rotate and PNG background pass
+                            int backgroundColor = PNG_MIMETYPE.equalsIgnoreCase(ocFile.getMimeType()) ?
+                                getPngBackgroundColor() : Color.TRANSPARENT;
+                            thumbnail = BitmapUtils.decodeThumbnailFromFile(ocFile.getStoragePath(), pxW,
+                                                                            backgroundColor);
+                            if (thumbnail != null) {
+                                addBitmapToCache(imageKey, thumbnail);
                             }
+                        }
 
-                            thumbnail = addThumbnailToCache(imageKey, bitmap, ocFile.getStoragePath(), pxW, pxH);
-
-                            ocFile.setUpdateThumbnailNeeded(false);
-                            mStorageManager.saveFile(ocFile);
+                        if (thumbnail != null) {
+                            markThumbnailUpdated(ocFile, mStorageManager);
                         }
                     }
                 }
 
                 if (thumbnail == null) {
-                    // check if resized version is available
-                    String resizedImageKey = PREFIX_RESIZED_IMAGE + file.getRemoteId();
-                    Bitmap resizedImage = getBitmapFromDiskCache(resizedImageKey);
+                    // server response, if it is stored as is
+                    byte[] originalData = null;
+
+                    // check if a larger variant is available
+                    Bitmap downscaled = getDownscaledVariant(file.getRemoteId(), mSize);
 
-                    if (resizedImage != null) {
-                        thumbnail = ThumbnailUtils.extractThumbnail(resizedImage, pxW, pxH);
+                    if (downscaled != null) {
+                        thumbnail = downscaled;
                     } else {
                         // Download thumbnail from server
                         if (mClient != null) {
@@ -589,9 +1127,22 @@ public final class ThumbnailsCacheManager {
 
                                 int status = mClient.executeMethod(getMethod);
                                 if (status == HttpStatus.SC_OK) {
-                                    InputStream inputStream = getMethod.getResponseBodyAsStream();
-                                    Bitmap bitmap = BitmapFactory.decodeStream(inputStream);
-                                    thumbnail = ThumbnailUtils.extractThumbnail(bitmap, pxW, pxH);
+                                    CountingInputStream inputStream =
+                                        new CountingInputStream(getMethod.getResponseBodyAsStream());
+                                    if (isStoreOriginalThumbnails() &&
+                                        !PNG_MIMETYPE.equalsIgnoreCase(file.getMimeType())) {
+                                        // keep server bytes, avoids re-encoding them for the disk cache
+                                        byte[] data = IOUtils.toByteArray(inputStream);
+                                        Bitmap bitmap = BitmapFactory.decodeByteArray(data, 0, data.length);
+                                        thumbnail = ThumbnailUtils.extractThumbnail(bitmap, pxW, pxH);
+                                        if (bitmap != null && bitmap.getWidth() == pxW && bitmap.getHeight() == pxH) {
+                                            originalData = data;
+                                        }
+                                    } else {
+                                        Bitmap bitmap = BitmapFactory.decodeStream(inputStream);
+                                        thumbnail = ThumbnailUtils.extractThumbnail(bitmap, pxW, pxH);
+                                    }
+                                    mDownloadedBytes = inputStream.getByteCount();
                                 } else {
                                     mClient.exhaustResponse(getMethod.getResponseBodyAsStream());
                                 }
@@ -613,7 +1164,11 @@ public final class ThumbnailsCacheManager {
                     // Add thumbnail to cache
                     if (thumbnail != null) {
                         Log_OC.d(TAG, "add thumbnail to cache: " + file.getFileName());
-                        addBitmapToCache(imageKey, thumbnail);
+                        if (originalData != null) {
+                            addBytesToCache(imageKey, originalData, thumbnail);
+                        } else {
+                            addBitmapToCache(imageKey, thumbnail);
+                        }
                     }
                 }
             }
@@ -627,10 +1182,7 @@ public final class ThumbnailsCacheManager {
          * @return int
          */
         private int getThumbnailDimension() {
-            // Converts dp to pixel
-            Resources r = MainApp.getAppContext().getResources();
-            Double d = Math.pow(2, Math.floor(Math.log(r.getDimension(R.dimen.file_icon_size_grid)) / Math.log(2)));
-            return d.intValue();
+            return mSize.getDimension();
         }
 
         private Bitmap doFileInBackground() {
@@ -651,14 +1203,16 @@ public final class ThumbnailsCacheManager {
 
             // Not found in disk cache
             if (thumbnail == null) {
-                int pxW;
-                int pxH;
-                pxW = pxH = getThumbnailDimension();
+                int px = getThumbnailDimension();
 
-                Bitmap bitmap = BitmapUtils.decodeSampledBitmapFromFile(file.getAbsolutePath(), pxW, pxH);
+                if (MimeTypeUtil.isVideo(file)) {
+                    thumbnail = BitmapUtils.decodeVideoFrame(file.getAbsolutePath(), px);
+                } else {
+                    thumbnail = BitmapUtils.decodeThumbnailFromFile(file.getAbsolutePath(), px, Color.TRANSPARENT);
+                }
 
-                if (bitmap != null) {
-                    thumbnail = addThumbnailToCache(imageKey, bitmap, file.getPath(), pxW, pxH);
+                if (thumbnail != null) {
+                    addBitmapToCache(imageKey, thumbnail);
                 }
             }
             return thumbnail;
@@ -764,32 +1318,10 @@ public final class ThumbnailsCacheManager {
                         thumbnail = addThumbnailToCache(imageKey, bitmap, file.getPath(), px, px);
                     }
                 } else if (Type.VIDEO.equals(type)) {
-                    MediaMetadataRetriever retriever = new MediaMetadataRetriever();
-                    try {
-                        retriever.setDataSource(file.getAbsolutePath());
-                        thumbnail = retriever.getFrameAtTime(-1);
-                    } catch (Exception ex) {
-                        // can't create a bitmap
-                        Log_OC.w(TAG, "Failed to create bitmap from video " + file.getAbsolutePath());
-                    } finally {
-                        try {
-                            retriever.release();
-                        } catch (RuntimeException ex) {
-                            // Ignore failure at this point.
-                            Log_OC.w(TAG, "Failed release MediaMetadataRetriever for " + file.getAbsolutePath());
-                        }
-                    }
+                    thumbnail = BitmapUtils.decodeVideoFrame(file.getAbsolutePath(), getThumbnailDimension());
 
                     if (thumbnail != null) {
-                        // Scale down bitmap if too large.
-                        int px = getThumbnailDimension();
-                        int width = thumbnail.getWidth();
-                        int height = thumbnail.getHeight();
-                        int max = Math.max(width, height);
-                        if (max > px) {
-                            thumbnail = BitmapUtils.scaleBitmap(thumbnail, px, width, height, max);
-                            thumbnail = addThumbnailToCache(imageKey, thumbnail, file.getPath(), px, px);
-                        }
+                        addBitmapToCache(imageKey, thumbnail);
                     }
                 }
             }
@@ -822,18 +1354,18 @@ public final class ThumbnailsCacheManager {
             mContext = context;
         }
 
-        @SuppressFBWarnings("Dm")
         @Override
         protected Drawable doInBackground(String... params) {
             Drawable thumbnail = null;
 
             try {
+                OwnCloudClient client = null;
                 if (mAccount != null) {
                     OwnCloudAccount ocAccount = new OwnCloudAccount(mAccount, mContext);
-                    mClient = OwnCloudClientManagerFactory.getDefaultSingleton().getClientFor(ocAccount, mContext);
+                    client = OwnCloudClientManagerFactory.getDefaultSingleton().getClientFor(ocAccount, mContext);
                 }
 
-                thumbnail = doAvatarInBackground();
+                thumbnail = doAvatarInBackground(client);
 
             } catch (OutOfMemoryError oome) {
                 Log_OC.e(TAG, "Out of memory");
@@ -857,100 +1389,9 @@ public final class ThumbnailsCacheManager {
             }
         }
 
-        /**
-         * Converts size of file icon from dp to pixel
-         *
-         * @return int
-         */
-        private int getAvatarDimension() {
-            // Converts dp to pixel
-            Resources r = MainApp.getAppContext().getResources();
-            return Math.round(r.getDimension(R.dimen.file_avatar_size));
-        }
-
         private @NonNull
-        Drawable doAvatarInBackground() {
-            Bitmap avatar;
-
-            String accountName = mUserId + "@" + mServerName;
-
-            ArbitraryDataProvider arbitraryDataProvider = new ArbitraryDataProvider(mContext.getContentResolver());
-
-            String eTag = arbitraryDataProvider.getValue(accountName, ThumbnailsCacheManager.AVATAR);
-            long timestamp = arbitraryDataProvider.getLongValue(accountName, ThumbnailsCacheManager.AVATAR_TIMESTAMP);
-            String avatarKey = "a_" + mUserId + "_" + mServerName + "_" + eTag;
-            avatar = getBitmapFromDiskCache(avatarKey);
-
-            // Download avatar from server, only if older than 60 min or avatar does not exist
-            if ((System.currentTimeMillis() - timestamp >= 60 * 60 * 1000 || avatar == null) && mClient != null) {
-                GetMethod get = null;
-                try {
-                    int px = getAvatarDimension();
-                    String uri = mClient.getBaseUri() + "/index.php/avatar/" + Uri.encode(mUserId) + "/" + px;
-                    Log_OC.d("Avatar", "URI: " + uri);
-                    get = new GetMethod(uri);
-
-                    // only use eTag if available and corresponding avatar is still there
-                    // (might be deleted from cache)
-                    if (!eTag.isEmpty() && avatar != null) {
-                        get.setRequestHeader("If-None-Match", eTag);
-                    }
-
-                    int status = mClient.executeMethod(get);
-
-                    // we are using eTag to download a new avatar only if it changed
-                    switch (status) {
-                        case HttpStatus.SC_OK:
-                        case HttpStatus.SC_CREATED:
-						    // new avatar
-                            InputStream inputStream = get.getResponseBodyAsStream();
-
-                            String newETag = null;
-                            if (get.getResponseHeader(ETAG) != null) {
-                                newETag = get.getResponseHeader(ETAG).getValue().replace("\"", "");
-                                arbitraryDataProvider.storeOrUpdateKeyValue(accountName, AVATAR, newETag);
-                            }
-
-                            Bitmap bitmap = BitmapFactory.decodeStream(inputStream);
-                            avatar = ThumbnailUtils.extractThumbnail(bitmap, px, px);
-
-                            // Add avatar to cache
-                            if (avatar != null && !TextUtils.isEmpty(newETag)) {
-                                avatar = handlePNG(avatar, px, px);
-                                String newImageKey = "a_" + mUserId + "_" + mServerName + "_" + newETag;
-                                addBitmapToCache(newImageKey, avatar);
-                                arbitraryDataProvider.storeOrUpdateKeyValue(accountName,
-                                                                            ThumbnailsCacheManager.AVATAR_TIMESTAMP,
-                                                                            System.currentTimeMillis());
-                            } else {
-                                return TextDrawable.createAvatar(mAccount, mAvatarRadius);
-                            }
-                            break;
-
-                        case HttpStatus.SC_NOT_MODIFIED:
-                            // old avatar
-                            mClient.exhaustResponse(get.getResponseBodyAsStream());
-                            arbitraryDataProvider.storeOrUpdateKeyValue(accountName,
-                                                                        ThumbnailsCacheManager.AVATAR_TIMESTAMP,
-                                                                        System.currentTimeMillis());
-                            break;
-                        default:
-                            // everything else
-                            mClient.exhaustResponse(get.getResponseBodyAsStream());
-                            break;
-                    }
-                } catch (Exception e) {
-                    try {
-                        return TextDrawable.createAvatar(mAccount, mAvatarRadius);
-                    } catch (Exception e1) {
-                        Log_OC.e(TAG, "Error generating fallback avatar");
-                    }
-                } finally {
-                    if (get != null) {
-                        get.releaseConnection();
-                    }
-                }
-            }
+        Drawable doAvatarInBackground(OwnCloudClient client) {
+            Bitmap avatar = AvatarCache.getAvatar(client, mUserId, mServerName, AvatarCache.getAvatarDimension());
 
             if (avatar == null) {
                 try {
@@ -967,7 +1408,8 @@ public final class ThumbnailsCacheManager {
     public static boolean cancelPotentialThumbnailWork(Object file, ImageView imageView) {
         final ThumbnailGenerationTask bitmapWorkerTask = getBitmapWorkerTask(imageView);
 
-        if (bitmapWorkerTask != null) {
+        if (bitmapWorkerTask != null && !bitmapWorkerTask.isCancelled() &&
+            bitmapWorkerTask.getStatus() != AsyncTask.Status.FINISHED) {
             final Object bitmapData = bitmapWorkerTask.mFile;
             // If bitmapData is not yet set or it differs from the new data
             if (bitmapData == null || !bitmapData.equals(file)) {
@@ -983,6 +1425,18 @@ public final class ThumbnailsCacheManager {
         return true;
     }
 
+    /**
+     * Cancels thumbnail work of a recycled view, so it does not occupy a worker for a row that is no longer visible.
+     */
+    public static void cancelThumbnailWork(ImageView imageView) {
+        final ThumbnailGenerationTask bitmapWorkerTask = getBitmapWorkerTask(imageView);
+
+        if (bitmapWorkerTask != null) {
+            bitmapWorkerTask.cancelAndAbort();
+            purgeCancelledTasks();
+        }
+    }
+
     public static boolean cancelPotentialAvatarWork(Object file, Object callContext) {
         if (callContext instanceof ImageView) {
             return cancelPotentialAvatarWork(file, (ImageView) callContext);
@@ -1169,12 +1623,16 @@ public final class ThumbnailsCacheManager {
         }
     }
 
-    private static Bitmap handlePNG(Bitmap bitmap, int pxW, int pxH) {
+    private static int getPngBackgroundColor() {
+        return MainApp.getAppContext().getResources().getColor(R.color.background_color_png);
+    }
+
+    static Bitmap handlePNG(Bitmap bitmap, int pxW, int pxH) {
         Bitmap resultBitmap = Bitmap.createBitmap(pxW, pxH, Bitmap.Config.ARGB_8888);
         Canvas c = new Canvas(resultBitmap);
 
         // TODO check based on https://github.com/nextcloud/android/pull/3459#discussion_r339935975
-        c.drawColor(MainApp.getAppContext().getResources().getColor(R.color.background_color_png));
+        c.drawColor(getPngBackgroundColor());
         c.drawBitmap(bitmap, 0, 0, null);
 
         return resultBitmap;
@@ -1198,52 +1656,25 @@ public final class ThumbnailsCacheManager {
         }
     }
 
-    public static void generateThumbnailFromOCFile(OCFile file) {
-        int pxW;
-        int pxH;
-        pxW = pxH = getThumbnailDimension();
-        String imageKey = PREFIX_THUMBNAIL + file.getRemoteId();
-
-        GetMethod getMethod = null;
-
-        try {
-            Bitmap thumbnail = null;
-
-            String uri = mClient.getBaseUri() + "/index.php/apps/files/api/v1/thumbnail/" +
-                pxW + "/" + pxH + Uri.encode(file.getRemotePath(), "/");
-
-            Log_OC.d(TAG, "generate thumbnail: " + file.getFileName() + " URI: " + uri);
-            getMethod = new GetMethod(uri);
-            getMethod.setRequestHeader("Cookie", "nc_sameSiteCookielax=true;nc_sameSiteCookiestrict=true");
-
-            getMethod.setRequestHeader(RemoteOperation.OCS_API_HEADER,
-                                       RemoteOperation.OCS_API_HEADER_VALUE);
-
-            int status = mClient.executeMethod(getMethod);
-            if (status == HttpStatus.SC_OK) {
-                InputStream inputStream = getMethod.getResponseBodyAsStream();
-                Bitmap bitmap = BitmapFactory.decodeStream(inputStream);
-                thumbnail = ThumbnailUtils.extractThumbnail(bitmap, pxW, pxH);
-            } else {
-                mClient.exhaustResponse(getMethod.getResponseBodyAsStream());
-            }
-
-            // Add thumbnail to cache
-            if (thumbnail != null) {
-                // Handle PNG
-                if (PNG_MIMETYPE.equalsIgnoreCase(file.getMimeType())) {
-                    thumbnail = handlePNG(thumbnail, pxW, pxH);
-                }
-
-                Log_OC.d(TAG, "add thumbnail to cache: " + file.getFileName());
-                addBitmapToCache(imageKey, thumbnail);
-            }
-        } catch (Exception e) {
-            Log_OC.d(TAG, e.getMessage(), e);
-        } finally {
-            if (getMethod != null) {
-                getMethod.releaseConnection();
+    /**
+     * Returns the variant of a thumbnail matching the requested size, downscaling or fetching it if needed. Screen
+     * sized previews are only generated when an image is opened, so without one the grid variant is returned. Must not
+     * be called on the main thread.
+     */
+    public static Bitmap getThumbnail(OCFile file, ThumbnailSize size, Account account,
+                                      FileDataStorageManager storageManager) {
+        if (size == ThumbnailSize.SCREEN) {
+            Bitmap resized = getBitmapFromDiskCache(size.getKey(file.getRemoteId()));
+            if (resized != null) {
+                return resized;
             }
+            size = ThumbnailSize.GRID;
         }
+
+        ThumbnailGenerationTask task = new ThumbnailGenerationTask(storageManager, account);
+        task.mSize = size;
+        task.mFile = file;
+        task.initClient();
+        return task.doThumbnailFromOCFileInBackground();
     }
 }
@@ -140,6 +140,59 @@ public class UploadsStorageManager extends Observable {
         return result;
     }
 
+    /**
+     * Returns the manifest of a chunked upload, listing the chunks already transferred to the server.
+     *
+     * @param uploadId upload id.
+     * @return manifest as stored by {@link #updateChunkManifest(long, String)}, or null if there is none.
+     */
+    @Nullable
+    public String getChunkManifest(long uploadId) {
+        String manifest = null;
+        Cursor c = getDB().query(
+                ProviderTableMeta.CONTENT_URI_UPLOADS,
+                new String[]{ProviderTableMeta.UPLOADS_CHUNK_MANIFEST},
+                ProviderTableMeta._ID + "=?",
+                new String[]{String.valueOf(uploadId)},
+                null
+        );
+
+        if (c != null) {
+            if (c.moveToFirst()) {
+                manifest = c.getString(c.getColumnIndex(ProviderTableMeta.UPLOADS_CHUNK_MANIFEST));
+            }
+            c.close();
+        }
+
+        return manifest;
+    }
+
+    /**
+     * Stores the manifest of a chunked upload next to the upload, so an interrupted transfer can be resumed.
+     * Observers are not notified, as the manifest is not shown anywhere.
+     *
+     * @param uploadId upload id.
+     * @param manifest manifest to store, null to remove it.
+     */
+    public void updateChunkManifest(long uploadId, @Nullable String manifest) {
+        ContentValues cv = new ContentValues();
+        if (manifest == null) {
+            cv.putNull(ProviderTableMeta.UPLOADS_CHUNK_MANIFEST);
+        } else {
+            cv.put(ProviderTableMeta.UPLOADS_CHUNK_MANIFEST, manifest);
+        }
+
+        int result = getDB().update(ProviderTableMeta.CONTENT_URI_UPLOADS,
+                                    cv,
+                                    ProviderTableMeta._ID + "=?",
+                                    new String[]{String.valueOf(uploadId)}
+        );
+
+        if (result != SINGLE_RESULT) {
+            Log_OC.e(TAG, "Failed to store chunk manifest of upload " + uploadId);
+        }
+    }
+
     private int updateUploadInternal(Cursor c, UploadStatus status, UploadResult result, String remotePath,
                                      String localPath) {
 
@@ -31,7 +31,7 @@ import com.owncloud.android.MainApp;
  */
 public class ProviderMeta {
     public static final String DB_NAME = "filelist";
-    public static final int DB_VERSION = 52;
+    public static final int DB_VERSION = 54;
 
     private ProviderMeta() {
         // No instance
@@ -75,6 +75,11 @@ public class ProviderMeta {
                 + MainApp.getAuthority() + "/filesystem");
 
 
+        /**
+         * Optional query parameter limiting the number of rows returned by a query
+         */
+        public static final String QUERY_PARAMETER_LIMIT = "limit";
+
         public static final String CONTENT_TYPE = "vnd.android.cursor.dir/vnd.owncloud.file";
         public static final String CONTENT_TYPE_ITEM = "vnd.android.cursor.item/vnd.owncloud.file";
 
@@ -124,6 +129,18 @@ public class ProviderMeta {
             FILE_RICH_WORKSPACE
         };
 
+        /**
+         * Columns needed to show and handle the children of a folder; leaves out the note and rich workspace texts
+         */
+        public static final String[] FILE_LIST_COLUMNS = {
+            _ID, FILE_PARENT, FILE_NAME, FILE_CREATION, FILE_MODIFIED,
+            FILE_MODIFIED_AT_LAST_SYNC_FOR_DATA, FILE_CONTENT_LENGTH, FILE_CONTENT_TYPE, FILE_STORAGE_PATH,
+            FILE_PATH, FILE_ACCOUNT_OWNER, FILE_LAST_SYNC_DATE, FILE_LAST_SYNC_DATE_FOR_DATA, FILE_ETAG,
+            FILE_ETAG_ON_SERVER, FILE_SHARED_VIA_LINK, FILE_SHARED_WITH_SHAREE, FILE_PUBLIC_LINK, FILE_PERMISSIONS,
+            FILE_REMOTE_ID, FILE_UPDATE_THUMBNAIL, FILE_IS_DOWNLOADING, FILE_ETAG_IN_CONFLICT, FILE_FAVORITE,
+            FILE_IS_ENCRYPTED, FILE_MOUNT_TYPE, FILE_HAS_PREVIEW, FILE_UNREAD_COMMENTS_COUNT, FILE_SHAREES
+        };
+
         public static final String FILE_DEFAULT_SORT_ORDER = FILE_NAME + " collate nocase asc";
 
         // Columns of ocshares table
@@ -217,6 +234,7 @@ public class ProviderMeta {
         public static final String UPLOADS_IS_WHILE_CHARGING_ONLY = "is_while_charging_only";
         public static final String UPLOADS_IS_WIFI_ONLY = "is_wifi_only";
         public static final String UPLOADS_FOLDER_UNLOCK_TOKEN = "folder_unlock_token";
+        public static final String UPLOADS_CHUNK_MANIFEST = "chunk_manifest";
 
         // Columns of synced folder table
         public static final String SYNCED_FOLDER_LOCAL_PATH = "local_path";
@@ -258,6 +276,12 @@ public class ProviderMeta {
         public static final String FILESYSTEM_SYNCED_FOLDER_ID = "syncedfolder_id";
         public static final String FILESYSTEM_CRC32 = "crc32";
 
+        // Indexes
+        public static final String FILE_PARENT_INDEX = "filelist_parent_index";
+        public static final String FILE_PATH_ACCOUNT_INDEX = "filelist_path_account_index";
+        public static final String UPLOADS_STATUS_ACCOUNT_INDEX = "uploads_status_account_index";
+        public static final String FILESYSTEM_PATH_SYNCED_FOLDER_INDEX = "filesystem_path_syncedfolder_index";
+
         private ProviderTableMeta() {
             // No instance
         }
@@ -78,10 +78,12 @@ import com.owncloud.android.utils.ThemeUtils;
 
 import java.io.File;
 import java.util.AbstractList;
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.annotation.Nullable;
 import javax.inject.Inject;
@@ -103,7 +105,7 @@ import dagger.android.AndroidInjection;
  * However, Intent keys (e.g., KEY_WIFI_ONLY) are obeyed.
  */
 public class FileUploader extends Service
-        implements OnDatatransferProgressListener, OnAccountsUpdateListener, UploadFileOperation.OnRenameListener {
+        implements OnAccountsUpdateListener {
 
     private static final String TAG = FileUploader.class.getSimpleName();
 
@@ -177,9 +179,8 @@ public class FileUploader extends Service
     private Looper mServiceLooper;
     private ServiceHandler mServiceHandler;
     private IBinder mBinder;
-    private OwnCloudClient mUploadClient;
-    private Account mCurrentAccount;
-    private FileDataStorageManager mStorageManager;
+    private UploadWorkerPool mUploadWorkers;
+    private int mLastStartId;
     //since there can be only one instance of an Android service, there also just one db connection.
     @Inject UploadsStorageManager mUploadsStorageManager;
     @Inject ConnectivityService connectivityService;
@@ -188,14 +189,19 @@ public class FileUploader extends Service
     private IndexedForest<UploadFileOperation> mPendingUploads = new IndexedForest<>();
 
     /**
-     * {@link UploadFileOperation} object of ongoing upload. Can be null. Note: There can only be one concurrent upload!
+     * {@link UploadFileOperation} objects of ongoing uploads, by upload key. Several uploads run at the same time.
      */
-    private UploadFileOperation mCurrentUpload;
+    private final Map<String, UploadFileOperation> mCurrentUploads = new ConcurrentHashMap<>();
 
     private NotificationManager mNotificationManager;
     private NotificationCompat.Builder mNotificationBuilder;
     private int mLastPercent;
 
+    /**
+     * Upload whose progress is shown in the status notification.
+     */
+    private UploadFileOperation mNotifiedUpload;
+
     public static String getUploadsAddedMessage() {
         return FileUploader.class.getName() + UPLOADS_ADDED_MESSAGE;
     }
@@ -208,10 +214,21 @@ public class FileUploader extends Service
         return FileUploader.class.getName() + UPLOAD_FINISH_MESSAGE;
     }
 
-    @Override
-    public void onRenameUpload() {
-        mUploadsStorageManager.updateDatabaseUploadStart(mCurrentUpload);
-        sendBroadcastUploadStarted(mCurrentUpload);
+    private void onRenameUpload(UploadFileOperation upload) {
+        mUploadsStorageManager.updateDatabaseUploadStart(upload);
+        sendBroadcastUploadStarted(upload);
+    }
+
+    /**
+     * Reports progress and renaming of an upload to the notification and to the bound listeners.
+     */
+    private void addUploadListeners(UploadFileOperation upload) {
+        FileUploaderBinder binder = (FileUploaderBinder) mBinder;
+        upload.addDataTransferProgressListener((progressRate, totalTransferredSoFar, totalToTransfer, fileName) -> {
+            onTransferProgress(upload, totalTransferredSoFar, totalToTransfer, fileName);
+            binder.onTransferProgress(upload, progressRate, totalTransferredSoFar, totalToTransfer, fileName);
+        });
+        upload.addRenameUploadListener(() -> onRenameUpload(upload));
     }
 
     /**
@@ -472,6 +489,9 @@ public class FileUploader extends Service
         mServiceLooper = thread.getLooper();
         mServiceHandler = new ServiceHandler(mServiceLooper, this);
         mBinder = new FileUploaderBinder();
+        mUploadWorkers = new UploadWorkerPool(getResources().getInteger(R.integer.upload_max_concurrent),
+                                              getResources().getInteger(R.integer.upload_max_concurrent_per_account),
+                                              this::onUploadsIdle);
 
         NotificationCompat.Builder builder = new NotificationCompat.Builder(this).setContentTitle(
                 getApplicationContext().getResources().getString(R.string.app_name))
@@ -515,6 +535,7 @@ public class FileUploader extends Service
         mBinder = null;
         mServiceHandler = null;
         mServiceLooper.quit();
+        mUploadWorkers.shutdown();
         mServiceLooper = null;
         mNotificationManager = null;
 
@@ -654,10 +675,7 @@ public class FileUploader extends Service
                     if (isCreateRemoteFolder) {
                         newUpload.setRemoteFolderToBeCreated();
                     }
-                    newUpload.addDataTransferProgressListener(this);
-                    newUpload.addDataTransferProgressListener((FileUploaderBinder) mBinder);
-
-                    newUpload.addRenameUploadListener(this);
+                    addUploadListeners(newUpload);
 
                     Pair<String, String> putResult = mPendingUploads.putIfAbsent(
                             account.name,
@@ -712,10 +730,7 @@ public class FileUploader extends Service
                     whileChargingOnly
             );
 
-            newUpload.addDataTransferProgressListener(this);
-            newUpload.addDataTransferProgressListener((FileUploaderBinder) mBinder);
-
-            newUpload.addRenameUploadListener(this);
+            addUploadListeners(newUpload);
 
             Pair<String, String> putResult = mPendingUploads.putIfAbsent(
                     account.name,
@@ -766,9 +781,11 @@ public class FileUploader extends Service
 
     @Override
     public void onAccountsUpdated(Account[] accounts) {
-        // Review current upload, and cancel it if its account doen't exist
-        if (mCurrentUpload != null && !accountManager.exists(mCurrentUpload.getAccount())) {
-            mCurrentUpload.cancel();
+        // Review current uploads, and cancel them if their account doesn't exist
+        for (UploadFileOperation currentUpload : mCurrentUploads.values()) {
+            if (!accountManager.exists(currentUpload.getAccount())) {
+                currentUpload.cancel();
+            }
         }
         // The rest of uploads are cancelled when they try to start
     }
@@ -778,7 +795,7 @@ public class FileUploader extends Service
      *
      * It provides by itself the available operations.
      */
-    public class FileUploaderBinder extends Binder implements OnDatatransferProgressListener {
+    public class FileUploaderBinder extends Binder {
 
         /**
          * Map of listeners that will be reported about progress of uploads from a
@@ -817,24 +834,27 @@ public class FileUploader extends Service
         private void cancel(String accountName, String remotePath, @Nullable ResultCode resultCode ) {
             Pair<UploadFileOperation, String> removeResult =
                     mPendingUploads.remove(accountName, remotePath);
-            UploadFileOperation upload = removeResult.first;
-            if (upload == null &&
-                    mCurrentUpload != null && mCurrentAccount != null &&
-                    mCurrentUpload.getRemotePath().startsWith(remotePath) &&
-                    accountName.equals(mCurrentAccount.name)) {
-
-                upload = mCurrentUpload;
+            List<UploadFileOperation> uploads = new ArrayList<>();
+            if (removeResult.first != null) {
+                uploads.add(removeResult.first);
+            } else {
+                for (UploadFileOperation currentUpload : mCurrentUploads.values()) {
+                    if (currentUpload.getRemotePath().startsWith(remotePath) &&
+                        accountName.equals(currentUpload.getAccount().name)) {
+                        uploads.add(currentUpload);
+                    }
+                }
             }
 
-            if (upload != null) {
-                upload.cancel();
+            for (UploadFileOperation upload : uploads) {
+                upload.cancel(resultCode);
                 // need to update now table in mUploadsStorageManager,
                 // since the operation will not get to be run by FileUploader#uploadFile
                 if (resultCode != null) {
                     mUploadsStorageManager.updateDatabaseUploadResult(new RemoteOperationResult(resultCode), upload);
                     notifyUploadResult(upload, new RemoteOperationResult(resultCode));
                 } else {
-                    mUploadsStorageManager.removeUpload(accountName, remotePath);
+                    mUploadsStorageManager.removeUpload(accountName, upload.getRemotePath());
                 }
             }
         }
@@ -847,10 +867,10 @@ public class FileUploader extends Service
         public void cancel(Account account) {
             Log_OC.d(TAG, "Account= " + account.name);
 
-            if (mCurrentUpload != null) {
-                Log_OC.d(TAG, "Current Upload Account= " + mCurrentUpload.getAccount().name);
-                if (mCurrentUpload.getAccount().name.equals(account.name)) {
-                    mCurrentUpload.cancel();
+            for (UploadFileOperation currentUpload : mCurrentUploads.values()) {
+                Log_OC.d(TAG, "Current Upload Account= " + currentUpload.getAccount().name);
+                if (currentUpload.getAccount().name.equals(account.name)) {
+                    currentUpload.cancel();
                 }
             }
             // Cancel pending uploads
@@ -883,13 +903,16 @@ public class FileUploader extends Service
         }
 
         public boolean isUploadingNow(OCUpload upload) {
-            return
-                    upload != null &&
-                            mCurrentAccount != null &&
-                            mCurrentUpload != null &&
-                            upload.getAccountName().equals(mCurrentAccount.name) &&
-                            upload.getRemotePath().equals(mCurrentUpload.getRemotePath())
-            ;
+            if (upload == null) {
+                return false;
+            }
+            for (UploadFileOperation currentUpload : mCurrentUploads.values()) {
+                if (upload.getAccountName().equals(currentUpload.getAccount().name) &&
+                    upload.getRemotePath().equals(currentUpload.getRemotePath())) {
+                    return true;
+                }
+            }
+            return false;
         }
 
         /**
@@ -968,10 +991,9 @@ public class FileUploader extends Service
             }
         }
 
-        @Override
-        public void onTransferProgress(long progressRate, long totalTransferredSoFar,
-                                       long totalToTransfer, String fileName) {
-            String key = buildRemoteName(mCurrentUpload.getAccount().name, mCurrentUpload.getFile().getRemotePath());
+        private void onTransferProgress(UploadFileOperation upload, long progressRate, long totalTransferredSoFar,
+                                        long totalToTransfer, String fileName) {
+            String key = buildRemoteName(upload.getAccount().name, upload.getFile().getRemotePath());
             OnDatatransferProgressListener boundListener = mBoundListeners.get(key);
 
             if (boundListener != null) {
@@ -980,17 +1002,17 @@ public class FileUploader extends Service
             }
 
             if (MainApp.getAppContext() != null) {
-                if (mCurrentUpload.isWifiRequired() && !Device.getNetworkType(MainApp.getAppContext()).
+                if (upload.isWifiRequired() && !Device.getNetworkType(MainApp.getAppContext()).
                     equals(JobRequest.NetworkType.UNMETERED)) {
-                    cancel(mCurrentUpload.getAccount().name, mCurrentUpload.getFile().getRemotePath()
+                    cancel(upload.getAccount().name, upload.getFile().getRemotePath()
                         , ResultCode.DELAYED_FOR_WIFI);
-                } else if (mCurrentUpload.isChargingRequired() &&
+                } else if (upload.isChargingRequired() &&
                     !Device.getBatteryStatus(MainApp.getAppContext()).isCharging()) {
-                    cancel(mCurrentUpload.getAccount().name, mCurrentUpload.getFile().getRemotePath()
+                    cancel(upload.getAccount().name, upload.getFile().getRemotePath()
                         , ResultCode.DELAYED_FOR_CHARGING);
-                } else if (!mCurrentUpload.isIgnoringPowerSaveMode() &&
+                } else if (!upload.isIgnoringPowerSaveMode() &&
                     powerManagementService.isPowerSavingEnabled()) {
-                    cancel(mCurrentUpload.getAccount().name, mCurrentUpload.getFile().getRemotePath()
+                    cancel(upload.getAccount().name, upload.getFile().getRemotePath()
                         , ResultCode.DELAYED_IN_POWER_SAVE_MODE);
                 }
             }
@@ -1014,8 +1036,7 @@ public class FileUploader extends Service
 
 
     /**
-     * Upload worker. Performs the pending uploads in the order they were
-     * requested.
+     * Upload dispatcher. Hands the pending uploads to the worker pool in the order they were requested.
      *
      * Created with the Looper of a new thread, started in
      * {@link FileUploader#onCreate()}.
@@ -1037,79 +1058,95 @@ public class FileUploader extends Service
         public void handleMessage(Message msg) {
             @SuppressWarnings("unchecked")
             AbstractList<String> requestedUploads = (AbstractList<String>) msg.obj;
+            mService.mLastStartId = msg.arg1;
             if (msg.obj != null) {
-                Iterator<String> it = requestedUploads.iterator();
-                while (it.hasNext()) {
-                    mService.uploadFile(it.next());
+                for (String uploadKey : requestedUploads) {
+                    mService.submitUpload(uploadKey);
                 }
             }
-            Log_OC.d(TAG, "Stopping command after id " + msg.arg1);
-            mService.stopForeground(true);
-            mService.stopSelf(msg.arg1);
+            mService.stopIfIdle();
+        }
+    }
+
+    /**
+     * Queues an upload on the worker pool. Uploads into a folder that is not known yet, or is encrypted, run one at
+     * a time, as they create or lock that folder; other uploads only wait for uploads to the same remote path.
+     *
+     * @param uploadKey Key to access the upload to perform, contained in mPendingUploads
+     */
+    private void submitUpload(String uploadKey) {
+        UploadFileOperation upload = mPendingUploads.get(uploadKey);
+        if (upload == null) {
+            return;
+        }
 
+        Account account = upload.getAccount();
+        String parentPath = upload.getFile().getParentRemotePath();
+        OCFile parent = new FileDataStorageManager(account, getContentResolver()).getFileByPath(parentPath);
+        String orderKey = parent != null && !parent.isEncrypted() ? upload.getRemotePath() : parentPath;
+
+        mUploadWorkers.submit(account.name, account.name + orderKey, () -> uploadFile(uploadKey));
+    }
+
+    /**
+     * Called on a worker thread once all uploads are done.
+     */
+    private void onUploadsIdle() {
+        Handler handler = mServiceHandler;
+        if (handler != null) {
+            handler.post(this::stopIfIdle);
+        }
+    }
+
+    private void stopIfIdle() {
+        if (mUploadWorkers.isIdle()) {
+            Log_OC.d(TAG, "Stopping command after id " + mLastStartId);
+            stopForeground(true);
+            stopSelf(mLastStartId);
         }
     }
 
     /**
-     * Core upload method: sends the file(s) to upload
+     * Core upload method: sends the file(s) to upload. Runs on a worker thread of the upload pool.
      *
      * @param uploadKey Key to access the upload to perform, contained in mPendingUploads
      */
     public void uploadFile(String uploadKey) {
 
-        mCurrentUpload = mPendingUploads.get(uploadKey);
+        UploadFileOperation upload = mPendingUploads.get(uploadKey);
 
-        if (mCurrentUpload != null) {
+        if (upload != null) {
 
             /// Check account existence
-            if (!accountManager.exists(mCurrentUpload.getAccount())) {
-                Log_OC.w(TAG, "Account " + mCurrentUpload.getAccount().name +
+            if (!accountManager.exists(upload.getAccount())) {
+                Log_OC.w(TAG, "Account " + upload.getAccount().name +
                         " does not exist anymore -> cancelling all its uploads");
-                cancelUploadsForAccount(mCurrentUpload.getAccount());
+                cancelUploadsForAccount(upload.getAccount());
                 return;
             }
 
+            mCurrentUploads.put(uploadKey, upload);
+
             /// OK, let's upload
-            mUploadsStorageManager.updateDatabaseUploadStart(mCurrentUpload);
+            mUploadsStorageManager.updateDatabaseUploadStart(upload);
 
-            notifyUploadStart(mCurrentUpload);
+            notifyUploadStart(upload);
 
-            sendBroadcastUploadStarted(mCurrentUpload);
+            sendBroadcastUploadStarted(upload);
 
             RemoteOperationResult uploadResult = null;
 
-            try {
-                /// prepare client object to send the request to the ownCloud server
-                if (mCurrentAccount == null || !mCurrentAccount.equals(mCurrentUpload.getAccount())) {
-                    mCurrentAccount = mCurrentUpload.getAccount();
-                    mStorageManager = new FileDataStorageManager(
-                            mCurrentAccount,
-                            getContentResolver()
-                    );
-                }   // else, reuse storage manager from previous operation
+            Account account = upload.getAccount();
+            FileDataStorageManager storageManager = new FileDataStorageManager(account, getContentResolver());
 
+            try {
                 // always get client from client manager, to get fresh credentials in case of update
-                OwnCloudAccount ocAccount = new OwnCloudAccount(
-                        mCurrentAccount,
-                        this
-                );
-                mUploadClient = OwnCloudClientManagerFactory.getDefaultSingleton().
+                OwnCloudAccount ocAccount = new OwnCloudAccount(account, this);
+                OwnCloudClient uploadClient = OwnCloudClientManagerFactory.getDefaultSingleton().
                         getClientFor(ocAccount, this);
 
-
-//                // If parent folder is encrypted, upload file encrypted
-//                OCFile parent = mStorageManager.getFileByPath(mCurrentUpload.getFile().getParentRemotePath());
-
-//                if (parent.isEncrypted()) {
-//                    UploadEncryptedFileOperation uploadEncryptedFileOperation =
-//                            new UploadEncryptedFileOperation(parent, mCurrentUpload);
-//
-//                    uploadResult = uploadEncryptedFileOperation.execute(mUploadClient, mStorageManager);
-//                } else {
-                    /// perform the regular upload
-                    uploadResult = mCurrentUpload.execute(mUploadClient, mStorageManager);
-//                }
-
+                /// perform the regular upload
+                uploadResult = upload.execute(uploadClient, storageManager);
 
             } catch (Exception e) {
                 Log_OC.e(TAG, "Error uploading", e);
@@ -1117,32 +1154,33 @@ public class FileUploader extends Service
 
             } finally {
                 Pair<UploadFileOperation, String> removeResult;
-                if (mCurrentUpload.wasRenamed()) {
+                if (upload.wasRenamed()) {
                     removeResult = mPendingUploads.removePayload(
-                            mCurrentAccount.name,
-                            mCurrentUpload.getOldFile().getRemotePath()
+                            account.name,
+                            upload.getOldFile().getRemotePath()
                     );
-                    // TODO: grant that name is also updated for mCurrentUpload.getOCUploadId
+                    // TODO: grant that name is also updated for upload.getOCUploadId
 
                 } else {
-                    removeResult = mPendingUploads.removePayload(mCurrentAccount.name,
-                            mCurrentUpload.getDecryptedRemotePath());
+                    removeResult = mPendingUploads.removePayload(account.name, upload.getDecryptedRemotePath());
                 }
 
-                mUploadsStorageManager.updateDatabaseUploadResult(uploadResult, mCurrentUpload);
+                mUploadsStorageManager.updateDatabaseUploadResult(uploadResult, upload);
 
                 /// notify result
-                notifyUploadResult(mCurrentUpload, uploadResult);
+                notifyUploadResult(upload, uploadResult);
 
-                sendBroadcastUploadFinished(mCurrentUpload, uploadResult, removeResult.second);
+                sendBroadcastUploadFinished(upload, uploadResult, removeResult.second);
+
+                mCurrentUploads.remove(uploadKey);
             }
 
             // generate new Thumbnail
             final ThumbnailsCacheManager.ThumbnailGenerationTask task =
-                    new ThumbnailsCacheManager.ThumbnailGenerationTask(mStorageManager, mCurrentAccount);
+                    new ThumbnailsCacheManager.ThumbnailGenerationTask(storageManager, account);
 
-            File file = new File(mCurrentUpload.getOriginalStoragePath());
-            String remoteId = mCurrentUpload.getFile().getRemoteId();
+            File file = new File(upload.getOriginalStoragePath());
+            String remoteId = upload.getFile().getRemoteId();
 
             task.execute(new ThumbnailsCacheManager.ThumbnailGenerationTaskObject(file, remoteId));
         }
@@ -1150,11 +1188,17 @@ public class FileUploader extends Service
 
 
     /**
-     * Creates a status notification to show the upload progress
+     * Creates a status notification to show the upload progress. While several uploads run, the notification
+     * follows one of them until it is finished.
      *
      * @param upload Upload operation starting.
      */
-    private void notifyUploadStart(UploadFileOperation upload) {
+    private synchronized void notifyUploadStart(UploadFileOperation upload) {
+        if (mNotifiedUpload != null) {
+            return;
+        }
+        mNotifiedUpload = upload;
+
         // / create status notification with a progress bar
         mLastPercent = 0;
         mNotificationBuilder = NotificationUtils.newNotificationBuilder(this);
@@ -1194,9 +1238,16 @@ public class FileUploader extends Service
     /**
      * Callback method to update the progress bar in the status notification
      */
-    @Override
-    public void onTransferProgress(long progressRate, long totalTransferredSoFar,
-                                   long totalToTransfer, String filePath) {
+    private synchronized void onTransferProgress(UploadFileOperation upload, long totalTransferredSoFar,
+                                                 long totalToTransfer, String filePath) {
+        if (mNotifiedUpload == null) {
+            // previously shown upload is finished, follow this one
+            notifyUploadStart(upload);
+        }
+        if (upload != mNotifiedUpload) {
+            return;
+        }
+
         int percent = (int) (100.0 * ((double) totalTransferredSoFar) / ((double) totalToTransfer));
         if (percent != mLastPercent) {
             mNotificationBuilder.setProgress(100, percent, false);
@@ -1214,15 +1265,18 @@ public class FileUploader extends Service
      * @param uploadResult Result of the upload operation.
      * @param upload       Finished upload operation
      */
-    private void notifyUploadResult(UploadFileOperation upload,
-                                    RemoteOperationResult uploadResult) {
+    private synchronized void notifyUploadResult(UploadFileOperation upload,
+                                                 RemoteOperationResult uploadResult) {
         Log_OC.d(TAG, "NotifyUploadResult with resultCode: " + uploadResult.getCode());
         // cancelled operation or success -> silent removal of progress notification
         if (mNotificationManager == null) {
             mNotificationManager = (NotificationManager) getSystemService(NOTIFICATION_SERVICE);
         }
 
-        mNotificationManager.cancel(R.string.uploader_upload_in_progress_ticker);
+        if (upload == mNotifiedUpload) {
+            mNotificationManager.cancel(R.string.uploader_upload_in_progress_ticker);
+            mNotifiedUpload = null;
+        }
 
         // Only notify if the upload fails
         if (!uploadResult.isCancelled() &&
@@ -1241,7 +1295,14 @@ public class FileUploader extends Service
             boolean needsToUpdateCredentials = ResultCode.UNAUTHORIZED.equals(uploadResult.getCode());
             tickerId = needsToUpdateCredentials ? R.string.uploader_upload_failed_credentials_error : tickerId;
 
-            mNotificationBuilder
+            // own builder, the progress notification might be showing another upload
+            NotificationCompat.Builder notificationBuilder = NotificationUtils.newNotificationBuilder(this);
+            notificationBuilder.setSmallIcon(R.drawable.notification_icon);
+            if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.O) {
+                notificationBuilder.setChannelId(NotificationUtils.NOTIFICATION_CHANNEL_UPLOAD);
+            }
+
+            notificationBuilder
                     .setTicker(getString(tickerId))
                     .setContentTitle(getString(tickerId))
                     .setAutoCancel(true)
@@ -1264,7 +1325,7 @@ public class FileUploader extends Service
                 updateAccountCredentials.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
                 updateAccountCredentials.addFlags(Intent.FLAG_ACTIVITY_EXCLUDE_FROM_RECENTS);
                 updateAccountCredentials.addFlags(Intent.FLAG_FROM_BACKGROUND);
-                mNotificationBuilder.setContentIntent(PendingIntent.getActivity(
+                notificationBuilder.setContentIntent(PendingIntent.getActivity(
                         this,
                         (int) System.currentTimeMillis(),
                         updateAccountCredentials,
@@ -1277,12 +1338,12 @@ public class FileUploader extends Service
                 showUploadListIntent.putExtra(FileActivity.EXTRA_FILE, upload.getFile());
                 showUploadListIntent.putExtra(FileActivity.EXTRA_ACCOUNT, upload.getAccount());
                 showUploadListIntent.addFlags(Intent.FLAG_ACTIVITY_CLEAR_TOP);
-                mNotificationBuilder.setContentIntent(PendingIntent.getActivity(this, (int) System.currentTimeMillis(),
+                notificationBuilder.setContentIntent(PendingIntent.getActivity(this, (int) System.currentTimeMillis(),
                         showUploadListIntent, 0));
             }
 
-            mNotificationBuilder.setContentText(content);
-            mNotificationManager.notify(tickerId, mNotificationBuilder.build());
+            notificationBuilder.setContentText(content);
+            mNotificationManager.notify(tickerId, notificationBuilder.build());
         }
     }
 
@@ -0,0 +1,263 @@
+/*
+ * Nextcloud Android client application
+ *
+ * Copyright (C) 2020 Nextcloud GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.owncloud.android.files.services;
+
+import android.os.Process;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs uploads on a bounded number of worker threads.
+ *
+ * Uploads start in the order they were submitted, as long as the global limit and the limit per account allow it.
+ * Uploads sharing an ordering key never run at the same time and keep their submission order, e.g. uploads into a
+ * folder that still has to be created.
+ *
+ * Waiting uploads are queued per account, so a finished upload only looks at the heads of the accounts below their
+ * limit. An upload whose ordering key is busy is parked with that key until the upload ahead of it is finished.
+ */
+class UploadWorkerPool {
+
+    static final int MIN_WORKERS = 1;
+    static final int MAX_WORKERS = 6;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private final int maxConcurrent;
+    private final int maxPerAccount;
+    private final ThreadPoolExecutor executor;
+    private final Runnable onIdle;
+
+    private final Map<String, Queue<Upload>> waitingPerAccount = new HashMap<>();
+    private final Map<String, Queue<Upload>> parkedPerOrderKey = new HashMap<>();
+    private final Map<String, Integer> runningPerAccount = new HashMap<>();
+    private final Set<String> runningOrderKeys = new HashSet<>();
+    private long submitted;
+    private int waiting;
+    private int running;
+
+    private static final class Upload implements Comparable<Upload> {
+        private final long sequence;
+        private final String accountName;
+        private final String orderKey;
+        private final Runnable work;
+
+        private Upload(long sequence, String accountName, String orderKey, Runnable work) {
+            this.sequence = sequence;
+            this.accountName = accountName;
+            this.orderKey = orderKey;
+            this.work = work;
+        }
+
+        @Override
+        public int compareTo(Upload other) {
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+
+    /**
+     * @param maxConcurrent uploads running at the same time, limited to {@link #MIN_WORKERS}..{@link #MAX_WORKERS}
+     * @param maxPerAccount uploads of a single account running at the same time
+     * @param onIdle        called on a worker thread whenever the last running upload is finished, may be null
+     */
+    UploadWorkerPool(int maxConcurrent, int maxPerAccount, Runnable onIdle) {
+        this.onIdle = onIdle;
+        this.maxConcurrent = Math.max(MIN_WORKERS, Math.min(MAX_WORKERS, maxConcurrent));
+        this.maxPerAccount = Math.max(MIN_WORKERS, Math.min(this.maxConcurrent, maxPerAccount));
+
+        executor = new ThreadPoolExecutor(this.maxConcurrent, this.maxConcurrent, KEEP_ALIVE_SECONDS,
+                                          TimeUnit.SECONDS, new LinkedBlockingQueue<>(), new WorkerThreadFactory());
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+
+    /**
+     * Queues an upload.
+     *
+     * @param accountName account the upload belongs to
+     * @param orderKey    uploads with the same key run one after the other, keys are not shared between accounts
+     * @param work        the upload
+     */
+    synchronized void submit(String accountName, String orderKey, Runnable work) {
+        Upload upload = new Upload(submitted++, accountName, orderKey, work);
+        waiting++;
+
+        Queue<Upload> parked = parkedPerOrderKey.get(orderKey);
+        if (parked != null) {
+            parked.add(upload);
+        } else {
+            enqueue(upload);
+            dispatch();
+        }
+    }
+
+    synchronized boolean isIdle() {
+        return running == 0 && waiting == 0;
+    }
+
+    /**
+     * Waits until all submitted uploads are finished.
+     *
+     * @return false if the timeout passed first
+     */
+    synchronized boolean awaitIdle(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (!isIdle()) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return false;
+            }
+            wait(remaining);
+        }
+        return true;
+    }
+
+    void shutdown() {
+        executor.shutdown();
+    }
+
+    private void enqueue(Upload upload) {
+        Queue<Upload> queue = waitingPerAccount.get(upload.accountName);
+        if (queue == null) {
+            queue = new PriorityQueue<>();
+            waitingPerAccount.put(upload.accountName, queue);
+        }
+        queue.add(upload);
+    }
+
+    private void dispatch() {
+        while (running < maxConcurrent) {
+            Upload next = nextUpload();
+            if (next == null) {
+                return;
+            }
+            start(next);
+        }
+    }
+
+    /**
+     * Takes the earliest submitted upload among the accounts below their limit, parking heads whose key is busy.
+     */
+    private Upload nextUpload() {
+        Queue<Upload> earliest = null;
+        for (Map.Entry<String, Queue<Upload>> entry : waitingPerAccount.entrySet()) {
+            Integer accountRunning = runningPerAccount.get(entry.getKey());
+            if (accountRunning != null && accountRunning >= maxPerAccount) {
+                continue;
+            }
+
+            Queue<Upload> queue = entry.getValue();
+            while (!queue.isEmpty() && runningOrderKeys.contains(queue.peek().orderKey)) {
+                park(queue.poll());
+            }
+            if (!queue.isEmpty() && (earliest == null || queue.peek().compareTo(earliest.peek()) < 0)) {
+                earliest = queue;
+            }
+        }
+
+        if (earliest == null) {
+            return null;
+        }
+        Upload upload = earliest.poll();
+        if (earliest.isEmpty()) {
+            waitingPerAccount.remove(upload.accountName);
+        }
+        return upload;
+    }
+
+    private void park(Upload upload) {
+        Queue<Upload> parked = parkedPerOrderKey.get(upload.orderKey);
+        if (parked == null) {
+            parked = new PriorityQueue<>();
+            parkedPerOrderKey.put(upload.orderKey, parked);
+        }
+        parked.add(upload);
+    }
+
+    private void start(Upload upload) {
+        waiting--;
+        running++;
+        Integer accountRunning = runningPerAccount.get(upload.accountName);
+        runningPerAccount.put(upload.accountName, accountRunning == null ? 1 : accountRunning + 1);
+        runningOrderKeys.add(upload.orderKey);
+
+        executor.execute(() -> {
+            try {
+                upload.work.run();
+            } finally {
+                finished(upload);
+            }
+        });
+    }
+
+    private synchronized void finished(Upload upload) {
+        running--;
+        int accountRunning = runningPerAccount.get(upload.accountName) - 1;
+        if (accountRunning == 0) {
+            runningPerAccount.remove(upload.accountName);
+        } else {
+            runningPerAccount.put(upload.accountName, accountRunning);
+        }
+        runningOrderKeys.remove(upload.orderKey);
+
+        // the next upload of the same key goes back in line, the ones after it stay parked until it is finished
+        Queue<Upload> parked = parkedPerOrderKey.get(upload.orderKey);
+        if (parked != null) {
+            enqueue(parked.poll());
+            if (parked.isEmpty()) {
+                parkedPerOrderKey.remove(upload.orderKey);
+            }
+        }
+
+        dispatch();
+        if (isIdle()) {
+            notifyAll();
+            if (onIdle != null) {
+                onIdle.run();
+            }
+        }
+    }
+
+    private static class WorkerThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(() -> {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                runnable.run();
+            }, "FileUploaderWorker-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -91,6 +91,8 @@ public class NCJobCreator implements JobCreator {
                 return new NotificationJob(context, accountManager);
             case MediaFoldersDetectionJob.TAG:
                 return new MediaFoldersDetectionJob(accountManager, clock);
+            case ThumbnailCacheMigrationJob.TAG:
+                return new ThumbnailCacheMigrationJob(preferences);
             default:
                 return null;
         }
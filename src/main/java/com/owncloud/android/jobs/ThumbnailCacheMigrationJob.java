@@ -0,0 +1,48 @@
+/*
+ * Nextcloud Android client application
+ *
+ * Copyright (C) 2020 Nextcloud GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.owncloud.android.jobs;
+
+import com.evernote.android.job.Job;
+import com.nextcloud.client.preferences.AppPreferences;
+import com.owncloud.android.datamodel.ThumbnailsCacheManager;
+
+import androidx.annotation.NonNull;
+
+/**
+ * One-shot job removing the thumbnail cache of old versions from the external cache dir, so that app start does
+ * not wait for it. Once it ran, it is not scheduled again.
+ */
+public class ThumbnailCacheMigrationJob extends Job {
+    public static final String TAG = "ThumbnailCacheMigrationJob";
+
+    private final AppPreferences preferences;
+
+    public ThumbnailCacheMigrationJob(AppPreferences preferences) {
+        this.preferences = preferences;
+    }
+
+    @NonNull
+    @Override
+    protected Result onRunJob(@NonNull Params params) {
+        ThumbnailsCacheManager.removeLegacyDiskCache();
+        preferences.setLegacyThumbnailCacheRemoved(true);
+        return Result.SUCCESS;
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Nextcloud Android client application
+ *
+ * Copyright (C) 2020 Nextcloud GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.owncloud.android.operations;
+
+import com.evernote.android.job.JobRequest;
+import com.owncloud.android.datamodel.ArbitraryDataProvider;
+import com.owncloud.android.lib.common.utils.Log_OC;
+import com.owncloud.android.lib.resources.files.ChunkedFileUploadRemoteOperation;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import androidx.annotation.VisibleForTesting;
+
+/**
+ * Chunk size of chunked uploads for an account on a kind of network.
+ *
+ * Starts with the library defaults for Wi-Fi and mobile networks. After each transfer the size is adapted to what
+ * was observed: chunks finishing quickly without errors make the next transfer use larger chunks, failing or slow
+ * chunks smaller ones. The size is stored per account and network type, as the same account sees very different links
+ * at home and on the road.
+ */
+public class AdaptiveChunkSize {
+
+    private static final String TAG = AdaptiveChunkSize.class.getSimpleName();
+    private static final String CHUNK_SIZE_KEY = "uploadChunkSize_";
+
+    static final long MIN_CHUNK_SIZE = ChunkedFileUploadRemoteOperation.CHUNK_SIZE_MOBILE;
+    static final long MAX_CHUNK_SIZE = 100 * 1024 * 1024;
+
+    /**
+     * Chunks taking less time than this on average, without errors, may grow.
+     */
+    private static final long FAST_CHUNK_MILLIS = 5000;
+
+    /**
+     * Chunks taking more time than this on average get close to timeouts and shrink.
+     */
+    private static final long SLOW_CHUNK_MILLIS = 30000;
+
+    /**
+     * Share of failed chunk attempts, in percent, above which chunks shrink.
+     */
+    private static final int MAX_FAILURE_PERCENT = 10;
+
+    private static final AtomicInteger transfers = new AtomicInteger();
+    private static final AtomicLong chunks = new AtomicLong();
+    private static final AtomicLong retries = new AtomicLong();
+    private static final Map<JobRequest.NetworkType, Long> chosenSizes = new ConcurrentHashMap<>();
+
+    private final ArbitraryDataProvider arbitraryDataProvider;
+    private final String accountName;
+    private final JobRequest.NetworkType networkType;
+
+    /**
+     * @param networkType active network as reported by the connectivity service
+     */
+    public AdaptiveChunkSize(ArbitraryDataProvider arbitraryDataProvider, String accountName,
+                             JobRequest.NetworkType networkType) {
+        this.arbitraryDataProvider = arbitraryDataProvider;
+        this.accountName = accountName;
+        this.networkType = networkType;
+    }
+
+    /**
+     * @return chunk size for a new transfer
+     */
+    public long getChunkSize() {
+        long chunkSize = arbitraryDataProvider.getLongValue(accountName, getKey());
+        if (chunkSize <= 0) {
+            chunkSize = getDefaultChunkSize(networkType);
+        }
+        chunkSize = clamp(chunkSize);
+        chosenSizes.put(networkType, chunkSize);
+        return chunkSize;
+    }
+
+    /**
+     * Adapts the chunk size of later transfers to a finished transfer.
+     *
+     * @param chunkSize   chunk size used by the transfer
+     * @param sentChunks  chunks sent successfully
+     * @param failures    failed chunk attempts
+     * @param chunkMillis time spent sending the successful chunks, summed up over all chunks
+     */
+    public void onTransferFinished(long chunkSize, int sentChunks, int failures, long chunkMillis) {
+        transfers.incrementAndGet();
+        chunks.addAndGet(sentChunks);
+        retries.addAndGet(failures);
+
+        long nextChunkSize = getNextChunkSize(chunkSize, sentChunks, failures, chunkMillis);
+        if (nextChunkSize != chunkSize) {
+            arbitraryDataProvider.storeOrUpdateKeyValue(accountName, getKey(), nextChunkSize);
+            Log_OC.d(TAG, "chunk size on " + networkType + " changed from " + chunkSize / 1024 + " KB to " +
+                nextChunkSize / 1024 + " KB");
+        }
+        Log_OC.d(TAG, getStatistics());
+    }
+
+    @VisibleForTesting
+    static long getNextChunkSize(long chunkSize, int sentChunks, int failures, long chunkMillis) {
+        int attempts = sentChunks + failures;
+        if (attempts == 0) {
+            return clamp(chunkSize);
+        }
+
+        if (failures * 100 > attempts * MAX_FAILURE_PERCENT) {
+            return clamp(chunkSize / 2);
+        }
+
+        if (sentChunks > 0) {
+            long averageMillis = chunkMillis / sentChunks;
+            if (failures == 0 && averageMillis < FAST_CHUNK_MILLIS) {
+                return clamp(chunkSize * 2);
+            }
+            if (averageMillis > SLOW_CHUNK_MILLIS) {
+                return clamp(chunkSize / 2);
+            }
+        }
+        return clamp(chunkSize);
+    }
+
+    @VisibleForTesting
+    static long getDefaultChunkSize(JobRequest.NetworkType networkType) {
+        return networkType == JobRequest.NetworkType.UNMETERED ? ChunkedFileUploadRemoteOperation.CHUNK_SIZE_WIFI :
+            ChunkedFileUploadRemoteOperation.CHUNK_SIZE_MOBILE;
+    }
+
+    public static String getStatistics() {
+        StringBuilder sizes = new StringBuilder();
+        for (Map.Entry<JobRequest.NetworkType, Long> entry : new TreeMap<>(chosenSizes).entrySet()) {
+            sizes.append(' ').append(entry.getKey()).append('=').append(entry.getValue() / 1024).append(" KB");
+        }
+        return "chunked uploads: " + transfers.get() + " transfers, " + chunks.get() + " chunks, " + retries.get() +
+            " retries, chosen chunk sizes:" + (sizes.length() == 0 ? " none" : sizes.toString());
+    }
+
+    private String getKey() {
+        return CHUNK_SIZE_KEY + networkType.name();
+    }
+
+    private static long clamp(long chunkSize) {
+        return Math.max(MIN_CHUNK_SIZE, Math.min(MAX_CHUNK_SIZE, chunkSize));
+    }
+}
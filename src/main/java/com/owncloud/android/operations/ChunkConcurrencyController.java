@@ -0,0 +1,121 @@
+/*
+ * Nextcloud Android client application
+ *
+ * Copyright (C) 2020 Nextcloud GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.owncloud.android.operations;
+
+/**
+ * Decides how many chunks of an upload are sent at the same time.
+ *
+ * Throughput is measured over windows of finished chunks. As long as one more chunk in flight increases the
+ * throughput noticeably, another one is added. If it does not pay off or the throughput drops, the last step is
+ * undone and the concurrency is kept for a few windows before probing again. Failed chunks halve the concurrency, as
+ * they usually mean the link or the server is overloaded.
+ */
+class ChunkConcurrencyController {
+
+    /**
+     * Relative change of throughput which is not considered noise.
+     */
+    private static final double THRESHOLD = 0.1;
+
+    /**
+     * Windows to wait after a step back before probing for more concurrency.
+     */
+    private static final int HOLD_WINDOWS = 3;
+
+    private final int min;
+    private final int max;
+    private int concurrency;
+    private int lastStep;
+    private int holdWindows;
+
+    private long windowStart;
+    private long windowBytes;
+    private int windowChunks;
+    private double lastThroughput;
+
+    ChunkConcurrencyController(int min, int max, int initial, long now) {
+        this.min = Math.max(1, min);
+        this.max = Math.max(this.min, max);
+        concurrency = Math.max(this.min, Math.min(this.max, initial));
+        windowStart = now;
+    }
+
+    synchronized int getConcurrency() {
+        return concurrency;
+    }
+
+    /**
+     * @return throughput of the last finished window in bytes per second, 0 if none is finished yet
+     */
+    synchronized long getThroughput() {
+        return Math.round(lastThroughput * 1000);
+    }
+
+    synchronized void onChunkUploaded(long bytes, long now) {
+        windowBytes += bytes;
+        windowChunks++;
+
+        // every chunk in flight finishes once per window, so the window covers a steady state
+        if (windowChunks < 2 * concurrency || now <= windowStart) {
+            return;
+        }
+
+        double throughput = (double) windowBytes / (now - windowStart);
+        boolean first = lastThroughput == 0;
+        boolean better = !first && throughput > lastThroughput * (1 + THRESHOLD);
+        boolean worse = !first && throughput < lastThroughput * (1 - THRESHOLD);
+
+        int step = 0;
+        if (worse) {
+            step = lastStep == 0 ? -1 : -lastStep;
+            holdWindows = HOLD_WINDOWS;
+        } else if (first || better && lastStep >= 0) {
+            step = 1;
+            holdWindows = 0;
+        } else if (lastStep > 0) {
+            // one more chunk in flight did not pay off
+            step = -1;
+            holdWindows = HOLD_WINDOWS;
+        } else if (holdWindows > 0) {
+            holdWindows--;
+        } else {
+            step = 1;
+        }
+
+        int previous = concurrency;
+        concurrency = Math.max(min, Math.min(max, concurrency + step));
+        lastStep = concurrency - previous;
+        lastThroughput = throughput;
+        startWindow(now);
+    }
+
+    synchronized void onChunkFailed(long now) {
+        concurrency = Math.max(min, concurrency / 2);
+        lastStep = 0;
+        lastThroughput = 0;
+        startWindow(now);
+    }
+
+    private void startWindow(long now) {
+        windowStart = now;
+        windowBytes = 0;
+        windowChunks = 0;
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Nextcloud Android client application
+ *
+ * Copyright (C) 2020 Nextcloud GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.owncloud.android.operations;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import java.util.Collection;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+
+import androidx.annotation.Nullable;
+
+/**
+ * Describes a chunked upload to the chunking v2 endpoint: the transfer folder on the server, the file it was started
+ * for, how the file is split and which chunks already arrived. Stored with the upload so a transfer interrupted by a
+ * network change or a restart of the app continues with the missing chunks only.
+ */
+public class ChunkUploadManifest {
+
+    private static final Gson GSON = new Gson();
+
+    private String transferId;
+    private long fileSize;
+    private long lastModified;
+    private long chunkSize;
+    private Set<Integer> uploadedChunks = new TreeSet<>();
+
+    public ChunkUploadManifest(long fileSize, long lastModified, long chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Chunk size must be positive");
+        }
+        this.transferId = UUID.randomUUID().toString();
+        this.fileSize = fileSize;
+        this.lastModified = lastModified;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * @return manifest, or null if the given JSON is empty or not a valid manifest
+     */
+    @Nullable
+    public static ChunkUploadManifest fromJson(@Nullable String json) {
+        if (json == null || json.isEmpty()) {
+            return null;
+        }
+
+        try {
+            ChunkUploadManifest manifest = GSON.fromJson(json, ChunkUploadManifest.class);
+            if (manifest == null || manifest.transferId == null || manifest.chunkSize <= 0) {
+                return null;
+            }
+            if (manifest.uploadedChunks == null) {
+                manifest.uploadedChunks = new TreeSet<>();
+            }
+            return manifest;
+        } catch (JsonParseException e) {
+            return null;
+        }
+    }
+
+    public synchronized String toJson() {
+        return GSON.toJson(this);
+    }
+
+    /**
+     * @return true if the manifest was made for a file of this size and modification time, so its chunks can be reused
+     */
+    public boolean matches(long fileSize, long lastModified) {
+        return this.fileSize == fileSize && this.lastModified == lastModified;
+    }
+
+    public String getTransferId() {
+        return transferId;
+    }
+
+    public long getFileSize() {
+        return fileSize;
+    }
+
+    public long getChunkSize() {
+        return chunkSize;
+    }
+
+    public int getChunkCount() {
+        return (int) ((fileSize + chunkSize - 1) / chunkSize);
+    }
+
+    public long getChunkStart(int chunk) {
+        return chunk * chunkSize;
+    }
+
+    public long getChunkLength(int chunk) {
+        return Math.min(chunkSize, fileSize - getChunkStart(chunk));
+    }
+
+    /**
+     * Chunks are named after the bytes they contain, padded so that the server assembles them in the right order.
+     */
+    public String getChunkName(int chunk) {
+        long start = getChunkStart(chunk);
+        return String.format(Locale.US, "%015d-%015d", start, start + getChunkLength(chunk) - 1);
+    }
+
+    public synchronized boolean isUploaded(int chunk) {
+        return uploadedChunks.contains(chunk);
+    }
+
+    public synchronized int getUploadedChunkCount() {
+        return uploadedChunks.size();
+    }
+
+    public synchronized long getUploadedBytes() {
+        long bytes = 0;
+        for (int chunk : uploadedChunks) {
+            bytes += getChunkLength(chunk);
+        }
+        return bytes;
+    }
+
+    public synchronized void markUploaded(int chunk) {
+        uploadedChunks.add(chunk);
+    }
+
+    /**
+     * Forgets uploaded chunks which are not in the transfer folder on the server anymore.
+     *
+     * @param chunkNames names of the chunks found on the server
+     */
+    public synchronized void retainUploaded(Collection<String> chunkNames) {
+        Set<Integer> retained = new TreeSet<>();
+        for (int chunk : uploadedChunks) {
+            if (chunk < getChunkCount() && chunkNames.contains(getChunkName(chunk))) {
+                retained.add(chunk);
+            }
+        }
+        uploadedChunks = retained;
+    }
+}
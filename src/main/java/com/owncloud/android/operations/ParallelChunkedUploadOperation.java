@@ -0,0 +1,622 @@
+/*
+ * Nextcloud Android client application
+ *
+ * Copyright (C) 2020 Nextcloud GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.owncloud.android.operations;
+
+import android.net.Uri;
+import android.os.Process;
+import android.os.SystemClock;
+import android.text.TextUtils;
+
+import com.owncloud.android.datamodel.UploadsStorageManager;
+import com.owncloud.android.lib.common.OwnCloudClient;
+import com.owncloud.android.lib.common.network.OnDatatransferProgressListener;
+import com.owncloud.android.lib.common.network.WebdavUtils;
+import com.owncloud.android.lib.common.operations.OperationCancelledException;
+import com.owncloud.android.lib.common.operations.RemoteOperationResult;
+import com.owncloud.android.lib.common.operations.RemoteOperationResult.ResultCode;
+import com.owncloud.android.lib.common.utils.Log_OC;
+import com.owncloud.android.lib.resources.files.UploadFileRemoteOperation;
+
+import org.apache.commons.httpclient.HttpMethodBase;
+import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.httpclient.methods.PutMethod;
+import org.apache.commons.httpclient.methods.RequestEntity;
+import org.apache.jackrabbit.webdav.DavConstants;
+import org.apache.jackrabbit.webdav.MultiStatusResponse;
+import org.apache.jackrabbit.webdav.client.methods.DeleteMethod;
+import org.apache.jackrabbit.webdav.client.methods.MkColMethod;
+import org.apache.jackrabbit.webdav.client.methods.MoveMethod;
+import org.apache.jackrabbit.webdav.client.methods.PropFindMethod;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import androidx.annotation.Nullable;
+
+/**
+ * Uploads a file to the chunking v2 endpoint of the server, sending several chunks at the same time.
+ *
+ * Chunks are PUT into a transfer folder below remote.php/dav/uploads and assembled into the target file by a final
+ * MOVE. Failed chunks are retried on their own. Transferred chunks are recorded in a {@link ChunkUploadManifest} stored
+ * with the upload, so a later attempt only sends what is missing. The number of chunks in flight adapts to the
+ * measured throughput, see {@link ChunkConcurrencyController}, within a budget of chunks shared by all uploads.
+ */
+public class ParallelChunkedUploadOperation extends UploadFileRemoteOperation {
+
+    private static final String TAG = ParallelChunkedUploadOperation.class.getSimpleName();
+
+    private static final String UPLOADS_PATH = "/remote.php/dav/uploads/";
+    private static final String FILES_PATH = "/remote.php/dav/files/";
+    private static final String ASSEMBLED_FILE = "/.file";
+    private static final String OC_TOTAL_LENGTH_HEADER = "OC-Total-Length";
+    private static final String OC_X_OC_MTIME_HEADER = "X-OC-Mtime";
+    private static final String IF_MATCH_HEADER = "If-Match";
+
+    private static final int SC_TOO_MANY_REQUESTS = 429;
+    private static final int MAX_CHUNK_ATTEMPTS = 3;
+    private static final long RETRY_DELAY_MILLIS = 1000;
+    private static final int CHUNK_READ_TIMEOUT = 60000;
+    private static final int ASSEMBLE_READ_TIMEOUT = (int) TimeUnit.MINUTES.toMillis(10);
+    private static final int BUFFER_SIZE = 8 * 1024;
+    private static final long SLOT_POLL_MILLIS = 500;
+    private static final long STOP_TIMEOUT_MILLIS = 10000;
+
+    /**
+     * Chunks in flight over all uploads. All requests to a server share a connection manager with few connections per
+     * host and no timeout waiting for one, so chunks must leave some for other requests, like listings or thumbnails.
+     * Waiting for a connection would also distort the throughput measured by {@link ChunkConcurrencyController}.
+     */
+    static final int MAX_CHUNKS_IN_FLIGHT = 3;
+    private static final Semaphore CHUNK_SLOTS = new Semaphore(MAX_CHUNKS_IN_FLIGHT, true);
+
+    private final String localPath;
+    private final String remotePath;
+    private final String mimeType;
+    private final String requiredEtag;
+    private final String timestamp;
+    private final String userId;
+    private final AdaptiveChunkSize chunkSize;
+    private final int maxParallelChunks;
+    private final long uploadId;
+    private final UploadsStorageManager uploadsStorageManager;
+    private final long sourceSize;
+    private final long sourceLastModified;
+
+    private final Set<OnDatatransferProgressListener> dataTransferListeners = new CopyOnWriteArraySet<>();
+    private final Set<HttpMethodBase> runningMethods = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    private final AtomicBoolean cancellationRequested = new AtomicBoolean(false);
+    private final AtomicBoolean keepTransfer = new AtomicBoolean(false);
+    private final AtomicLong transferred = new AtomicLong();
+    private long totalToTransfer;
+
+    private int heldChunkSlots;
+    private int sentChunks;
+    private int failedChunks;
+    private long chunkMillis;
+
+    /**
+     * @param userId             user id of the account, used in the dav paths
+     * @param chunkSize          size of chunks of a new transfer, a resumed transfer keeps its chunk size; learns from
+     *                           the chunks sent
+     * @param maxParallelChunks  upper limit of chunks in flight
+     * @param uploadId           id of the upload the manifest is stored with
+     * @param sourceSize         size of the file the upload was started for
+     * @param sourceLastModified modification time of the file the upload was started for; together with its size it
+     *                           tells whether a stored transfer can be resumed, as the copy at localPath may be
+     *                           rewritten on every attempt
+     */
+    public ParallelChunkedUploadOperation(String localPath, String remotePath, String mimeType, String requiredEtag,
+                                          String timestamp, String userId, AdaptiveChunkSize chunkSize,
+                                          int maxParallelChunks,
+                                          long uploadId, UploadsStorageManager uploadsStorageManager,
+                                          long sourceSize, long sourceLastModified) {
+        super(localPath, remotePath, mimeType, requiredEtag, timestamp);
+        this.localPath = localPath;
+        this.remotePath = remotePath;
+        this.mimeType = mimeType;
+        this.requiredEtag = requiredEtag;
+        this.timestamp = timestamp;
+        this.userId = userId;
+        this.chunkSize = chunkSize;
+        this.maxParallelChunks = Math.max(1, maxParallelChunks);
+        this.uploadId = uploadId;
+        this.uploadsStorageManager = uploadsStorageManager;
+        this.sourceSize = sourceSize;
+        this.sourceLastModified = sourceLastModified;
+    }
+
+    @Override
+    protected RemoteOperationResult run(OwnCloudClient client) {
+        File file = new File(localPath);
+        ChunkUploadManifest manifest = null;
+
+        try (FileInputStream inputStream = new FileInputStream(file)) {
+            FileChannel channel = inputStream.getChannel();
+            long size = channel.size();
+            totalToTransfer = size;
+
+            // a copy differing in size from its source was changed meanwhile, only its own chunks are reusable
+            long lastModified = size == sourceSize ? sourceLastModified : file.lastModified();
+            manifest = resumeTransfer(client, size, lastModified);
+            if (manifest == null) {
+                manifest = new ChunkUploadManifest(size, lastModified, chunkSize.getChunkSize());
+                RemoteOperationResult result = createTransfer(client, manifest);
+                if (!result.isSuccess()) {
+                    return result;
+                }
+            }
+            transferred.set(manifest.getUploadedBytes());
+
+            ExecutorService executor = Executors.newFixedThreadPool(maxParallelChunks, runnable -> {
+                Thread thread = new Thread(() -> {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }, "ChunkUpload");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+            RemoteOperationResult result;
+            try {
+                result = uploadChunks(client, channel, manifest, executor);
+            } finally {
+                // chunks still reading from the channel must be gone before it is closed
+                stopChunks(executor);
+            }
+            if (result != null) {
+                return result;
+            }
+
+            return assemble(client, manifest);
+        } catch (OperationCancelledException e) {
+            onCancelled(client, manifest);
+            return new RemoteOperationResult(e);
+        } catch (Exception e) {
+            if (cancellationRequested.get()) {
+                onCancelled(client, manifest);
+                return new RemoteOperationResult(new OperationCancelledException());
+            }
+            Log_OC.e(TAG, "Parallel chunked upload of " + localPath + " failed", e);
+            return new RemoteOperationResult(e);
+        } finally {
+            if (manifest != null && !cancellationRequested.get() && sentChunks + failedChunks > 0) {
+                chunkSize.onTransferFinished(manifest.getChunkSize(), sentChunks, failedChunks, chunkMillis);
+            }
+        }
+    }
+
+    /**
+     * Aborts chunks still in flight, e.g. after a failed one, waits for them to end and returns their slots.
+     */
+    private void stopChunks(ExecutorService executor) {
+        for (HttpMethodBase method : runningMethods) {
+            method.abort();
+        }
+        executor.shutdownNow();
+        try {
+            if (!executor.awaitTermination(STOP_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                Log_OC.w(TAG, "Chunks of " + localPath + " still running after " + STOP_TIMEOUT_MILLIS + " ms");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        CHUNK_SLOTS.release(heldChunkSlots);
+        heldChunkSlots = 0;
+    }
+
+    /**
+     * @return manifest of the stored transfer if it still matches the file and its folder is still on the server
+     */
+    @Nullable
+    private ChunkUploadManifest resumeTransfer(OwnCloudClient client, long size, long lastModified) {
+        ChunkUploadManifest manifest = ChunkUploadManifest.fromJson(uploadsStorageManager.getChunkManifest(uploadId));
+
+        if (manifest != null && manifest.matches(size, lastModified)) {
+            Set<String> chunksOnServer = listTransfer(client, manifest);
+            if (chunksOnServer != null) {
+                manifest.retainUploaded(chunksOnServer);
+                Log_OC.d(TAG, "Resuming upload of " + localPath + " with " + manifest.getUploadedChunkCount() +
+                    " of " + manifest.getChunkCount() + " chunks on the server");
+                return manifest;
+            }
+        } else if (manifest != null) {
+            // file changed in between, its chunks are useless
+            removeTransfer(client, manifest);
+        }
+        return null;
+    }
+
+    private RemoteOperationResult createTransfer(OwnCloudClient client, ChunkUploadManifest manifest)
+        throws IOException {
+        MkColMethod mkCol = new MkColMethod(getTransferUri(client, manifest));
+        try {
+            int status = client.executeMethod(mkCol);
+            client.exhaustResponse(mkCol.getResponseBodyAsStream());
+
+            boolean success = status == HttpStatus.SC_CREATED;
+            if (success) {
+                uploadsStorageManager.updateChunkManifest(uploadId, manifest.toJson());
+            } else {
+                Log_OC.e(TAG, "Creating transfer folder for " + localPath + " failed with status " + status);
+            }
+            return new RemoteOperationResult(success, mkCol);
+        } finally {
+            mkCol.releaseConnection();
+        }
+    }
+
+    /**
+     * @return names of the chunks in the transfer folder, or null if the folder is gone
+     */
+    @Nullable
+    private Set<String> listTransfer(OwnCloudClient client, ChunkUploadManifest manifest) {
+        PropFindMethod propFind = null;
+        try {
+            propFind = new PropFindMethod(getTransferUri(client, manifest),
+                                          DavConstants.PROPFIND_ALL_PROP,
+                                          DavConstants.DEPTH_1);
+            int status = client.executeMethod(propFind);
+            if (status != HttpStatus.SC_MULTI_STATUS) {
+                client.exhaustResponse(propFind.getResponseBodyAsStream());
+                return null;
+            }
+
+            Set<String> chunkNames = new HashSet<>();
+            for (MultiStatusResponse response : propFind.getResponseBodyAsMultiStatus().getResponses()) {
+                String href = response.getHref();
+                if (href.endsWith("/")) {
+                    href = href.substring(0, href.length() - 1);
+                }
+                chunkNames.add(Uri.decode(href.substring(href.lastIndexOf('/') + 1)));
+            }
+            return chunkNames;
+        } catch (Exception e) {
+            Log_OC.w(TAG, "Listing transfer folder of " + localPath + " failed: " + e.getMessage());
+            return null;
+        } finally {
+            if (propFind != null) {
+                propFind.releaseConnection();
+            }
+        }
+    }
+
+    /**
+     * Sends all missing chunks, keeping as many in flight as the controller allows.
+     *
+     * @return null if all chunks are on the server, the result of the failed chunk otherwise
+     */
+    @Nullable
+    private RemoteOperationResult uploadChunks(OwnCloudClient client, FileChannel channel,
+                                               ChunkUploadManifest manifest, ExecutorService executor)
+        throws InterruptedException, OperationCancelledException {
+        ChunkConcurrencyController controller = new ChunkConcurrencyController(1, maxParallelChunks,
+                                                                               Math.min(2, maxParallelChunks),
+                                                                               System.currentTimeMillis());
+        CompletionService<ChunkResult> completionService = new ExecutorCompletionService<>(executor);
+        Queue<Integer> pendingChunks = new ArrayDeque<>();
+        int[] attempts = new int[manifest.getChunkCount()];
+        for (int chunk = 0; chunk < manifest.getChunkCount(); chunk++) {
+            if (!manifest.isUploaded(chunk)) {
+                pendingChunks.add(chunk);
+            }
+        }
+
+        int running = 0;
+        while (!pendingChunks.isEmpty() || running > 0) {
+            // with nothing in flight, wait for a slot to make progress; otherwise only take free ones
+            while (!pendingChunks.isEmpty() && running < controller.getConcurrency() &&
+                acquireChunkSlot(running == 0)) {
+                int chunk = pendingChunks.poll();
+                int attempt = attempts[chunk]++;
+                completionService.submit(() -> uploadChunk(client, channel, manifest, chunk, attempt));
+                running++;
+            }
+
+            ChunkResult chunkResult;
+            try {
+                chunkResult = completionService.take().get();
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e.getCause());
+            }
+            running--;
+            releaseChunkSlot();
+
+            if (cancellationRequested.get()) {
+                throw new OperationCancelledException();
+            }
+
+            if (chunkResult.result.isSuccess()) {
+                sentChunks++;
+                chunkMillis += chunkResult.millis;
+                manifest.markUploaded(chunkResult.chunk);
+                uploadsStorageManager.updateChunkManifest(uploadId, manifest.toJson());
+                controller.onChunkUploaded(manifest.getChunkLength(chunkResult.chunk), System.currentTimeMillis());
+                continue;
+            }
+
+            failedChunks++;
+            if (chunkResult.retry && attempts[chunkResult.chunk] < MAX_CHUNK_ATTEMPTS) {
+                Log_OC.w(TAG, "Chunk " + chunkResult.chunk + " of " + localPath + " failed, retrying: " +
+                    chunkResult.result.getLogMessage());
+                controller.onChunkFailed(System.currentTimeMillis());
+                pendingChunks.add(chunkResult.chunk);
+            } else {
+                return chunkResult.result;
+            }
+        }
+
+        Log_OC.d(TAG, "All chunks of " + localPath + " sent, last throughput " + controller.getThroughput() +
+            " B/s with " + controller.getConcurrency() + " chunks in flight");
+        return null;
+    }
+
+    /**
+     * @param wait whether to wait for a slot, until one is free or the upload is cancelled
+     * @return true if a slot was taken
+     */
+    private boolean acquireChunkSlot(boolean wait) throws InterruptedException, OperationCancelledException {
+        if (wait) {
+            while (!CHUNK_SLOTS.tryAcquire(SLOT_POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                if (cancellationRequested.get()) {
+                    throw new OperationCancelledException();
+                }
+            }
+        } else if (!CHUNK_SLOTS.tryAcquire()) {
+            return false;
+        }
+        heldChunkSlots++;
+        return true;
+    }
+
+    private void releaseChunkSlot() {
+        heldChunkSlots--;
+        CHUNK_SLOTS.release();
+    }
+
+    private ChunkResult uploadChunk(OwnCloudClient client, FileChannel channel, ChunkUploadManifest manifest,
+                                   int chunk, int attempt) {
+        ChunkRequestEntity entity = new ChunkRequestEntity(channel, manifest.getChunkStart(chunk),
+                                                           manifest.getChunkLength(chunk));
+        PutMethod put = null;
+        try {
+            if (attempt > 0) {
+                Thread.sleep(RETRY_DELAY_MILLIS * attempt);
+            }
+            if (cancellationRequested.get()) {
+                return new ChunkResult(chunk, new RemoteOperationResult(new OperationCancelledException()), false, 0);
+            }
+
+            put = new PutMethod(getTransferUri(client, manifest) + "/" + manifest.getChunkName(chunk));
+            // per method, as the timeouts of the client are shared by all chunks in flight
+            put.getParams().setSoTimeout(CHUNK_READ_TIMEOUT);
+            put.setRequestEntity(entity);
+            runningMethods.add(put);
+
+            long start = SystemClock.elapsedRealtime();
+            int status = client.executeMethod(put);
+            client.exhaustResponse(put.getResponseBodyAsStream());
+            long millis = SystemClock.elapsedRealtime() - start;
+
+            boolean success = status == HttpStatus.SC_CREATED || status == HttpStatus.SC_NO_CONTENT ||
+                status == HttpStatus.SC_OK;
+            if (!success) {
+                transferred.addAndGet(-entity.sent);
+            }
+            boolean retry = status >= HttpStatus.SC_INTERNAL_SERVER_ERROR ||
+                status == HttpStatus.SC_REQUEST_TIMEOUT || status == SC_TOO_MANY_REQUESTS;
+            return new ChunkResult(chunk, new RemoteOperationResult(success, put), retry, millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            transferred.addAndGet(-entity.sent);
+            return new ChunkResult(chunk, new RemoteOperationResult(new OperationCancelledException()), false, 0);
+        } catch (Exception e) {
+            transferred.addAndGet(-entity.sent);
+            return new ChunkResult(chunk, new RemoteOperationResult(e), !cancellationRequested.get(), 0);
+        } finally {
+            if (put != null) {
+                runningMethods.remove(put);
+                put.releaseConnection();
+            }
+        }
+    }
+
+    private RemoteOperationResult assemble(OwnCloudClient client, ChunkUploadManifest manifest) throws IOException {
+        String destination = client.getBaseUri() + FILES_PATH + Uri.encode(userId) +
+            WebdavUtils.encodePath(remotePath);
+        MoveMethod move = new MoveMethod(getTransferUri(client, manifest) + ASSEMBLED_FILE, destination, true);
+        move.getParams().setSoTimeout(ASSEMBLE_READ_TIMEOUT);
+        move.addRequestHeader(OC_TOTAL_LENGTH_HEADER, String.valueOf(manifest.getFileSize()));
+        move.addRequestHeader(OC_X_OC_MTIME_HEADER, timestamp);
+        if (!TextUtils.isEmpty(requiredEtag)) {
+            move.addRequestHeader(IF_MATCH_HEADER, "\"" + requiredEtag + "\"");
+        }
+
+        try {
+            int status = client.executeMethod(move);
+            client.exhaustResponse(move.getResponseBodyAsStream());
+
+            boolean success = status == HttpStatus.SC_CREATED || status == HttpStatus.SC_NO_CONTENT;
+            if (success) {
+                uploadsStorageManager.updateChunkManifest(uploadId, null);
+            }
+            return new RemoteOperationResult(success, move);
+        } finally {
+            move.releaseConnection();
+        }
+    }
+
+    /**
+     * A cancelled upload does not need its chunks anymore, a paused one continues with them later.
+     */
+    private void onCancelled(OwnCloudClient client, @Nullable ChunkUploadManifest manifest) {
+        if (keepTransfer.get()) {
+            Log_OC.d(TAG, "Upload of " + localPath + " paused, keeping its transfer on the server");
+        } else {
+            removeTransfer(client, manifest);
+        }
+    }
+
+    private void removeTransfer(OwnCloudClient client, @Nullable ChunkUploadManifest manifest) {
+        uploadsStorageManager.updateChunkManifest(uploadId, null);
+        if (manifest == null) {
+            return;
+        }
+
+        DeleteMethod delete = new DeleteMethod(getTransferUri(client, manifest));
+        try {
+            client.executeMethod(delete);
+            client.exhaustResponse(delete.getResponseBodyAsStream());
+        } catch (IOException e) {
+            Log_OC.w(TAG, "Removing transfer folder of " + localPath + " failed: " + e.getMessage());
+        } finally {
+            delete.releaseConnection();
+        }
+    }
+
+    private String getTransferUri(OwnCloudClient client, ChunkUploadManifest manifest) {
+        return client.getBaseUri() + UPLOADS_PATH + Uri.encode(userId) + "/" + manifest.getTransferId();
+    }
+
+    @Override
+    public void cancel() {
+        cancel(null);
+    }
+
+    /**
+     * @param cancellationReason reason the upload is paused for, e.g. waiting for Wi-Fi; null if the user cancelled it
+     *                           and the chunks on the server can be removed
+     */
+    public void cancel(@Nullable ResultCode cancellationReason) {
+        keepTransfer.set(cancellationReason != null);
+        cancellationRequested.set(true);
+        for (HttpMethodBase method : runningMethods) {
+            method.abort();
+        }
+    }
+
+    @Override
+    public void addDataTransferProgressListener(OnDatatransferProgressListener listener) {
+        dataTransferListeners.add(listener);
+    }
+
+    @Override
+    public void removeDataTransferProgressListener(OnDatatransferProgressListener listener) {
+        dataTransferListeners.remove(listener);
+    }
+
+    private void onBytesSent(long bytes) {
+        long sent = transferred.addAndGet(bytes);
+        for (OnDatatransferProgressListener listener : dataTransferListeners) {
+            listener.onTransferProgress(bytes, sent, totalToTransfer, localPath);
+        }
+    }
+
+    private static final class ChunkResult {
+        private final int chunk;
+        private final RemoteOperationResult result;
+        private final boolean retry;
+        private final long millis;
+
+        private ChunkResult(int chunk, RemoteOperationResult result, boolean retry, long millis) {
+            this.chunk = chunk;
+            this.result = result;
+            this.retry = retry;
+            this.millis = millis;
+        }
+    }
+
+    /**
+     * Sends a range of the file, reading it with positional reads so that chunks can share the channel.
+     */
+    private class ChunkRequestEntity implements RequestEntity {
+        private final FileChannel channel;
+        private final long start;
+        private final long length;
+        private long sent;
+
+        private ChunkRequestEntity(FileChannel channel, long start, long length) {
+            this.channel = channel;
+            this.start = start;
+            this.length = length;
+        }
+
+        @Override
+        public boolean isRepeatable() {
+            return true;
+        }
+
+        @Override
+        public void writeRequest(OutputStream out) throws IOException {
+            // a repeated request, e.g. after an authentication challenge, starts over
+            transferred.addAndGet(-sent);
+            sent = 0;
+
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            long position = start;
+            long end = start + length;
+            while (position < end) {
+                if (cancellationRequested.get()) {
+                    throw new IOException(new OperationCancelledException());
+                }
+
+                buffer.clear();
+                buffer.limit((int) Math.min(BUFFER_SIZE, end - position));
+                int read = channel.read(buffer, position);
+                if (read < 0) {
+                    throw new IOException("File " + localPath + " was truncated during upload");
+                }
+                out.write(buffer.array(), 0, read);
+                position += read;
+                sent += read;
+                onBytesSent(read);
+            }
+        }
+
+        @Override
+        public long getContentLength() {
+            return length;
+        }
+
+        @Override
+        public String getContentType() {
+            return mimeType;
+        }
+    }
+}
@@ -26,10 +26,14 @@ import android.util.Log;
 
 import com.google.gson.Gson;
 import com.nextcloud.android.lib.resources.directediting.DirectEditingObtainRemoteOperation;
+import com.nextcloud.client.network.ConnectivityService;
+import com.nextcloud.client.preferences.AppPreferences;
+import com.nextcloud.client.preferences.AppPreferencesImpl;
 import com.owncloud.android.datamodel.ArbitraryDataProvider;
 import com.owncloud.android.datamodel.DecryptedFolderMetadata;
 import com.owncloud.android.datamodel.FileDataStorageManager;
 import com.owncloud.android.datamodel.OCFile;
+import com.owncloud.android.datamodel.ThumbnailsCacheManager;
 import com.owncloud.android.lib.common.DirectEditing;
 import com.owncloud.android.lib.common.OwnCloudClient;
 import com.owncloud.android.lib.common.operations.RemoteOperation;
@@ -126,6 +130,9 @@ public class RefreshFolderOperation extends RemoteOperation {
     private List<SynchronizeFileOperation> mFilesToSyncContents;
     // this will be used for every file when 'folder synchronization' replaces 'folder download'
 
+    /** Set to prefetch thumbnails of the folder content after a successful refresh */
+    private ConnectivityService mConnectivityService;
+
 
     /**
      * Creates a new instance of {@link RefreshFolderOperation}.
@@ -182,6 +189,15 @@ public class RefreshFolderOperation extends RemoteOperation {
         mFilesToSyncContents = new Vector<>();
     }
 
+    /**
+     * Warms the thumbnail cache for the first images and videos of the folder once it has been refreshed.
+     *
+     * @param connectivityService used to skip the prefetch on metered networks
+     */
+    public void setThumbnailPrefetch(ConnectivityService connectivityService) {
+        mConnectivityService = connectivityService;
+    }
+
     public int getConflictsFound() {
         return mConflictsFound;
     }
@@ -245,6 +261,10 @@ public class RefreshFolderOperation extends RemoteOperation {
             );
         }
 
+        if (result.isSuccess() && mConnectivityService != null && mChildren != null) {
+            prefetchThumbnails();
+        }
+
         if (result.isSuccess() && !mSyncFullAccount && !mOnlyFileMetadata) {
             refreshSharesForFolder(client); // share result is ignored
         }
@@ -259,6 +279,22 @@ public class RefreshFolderOperation extends RemoteOperation {
 
     }
 
+    private void prefetchThumbnails() {
+        AppPreferences preferences = AppPreferencesImpl.fromContext(mContext);
+        boolean showHiddenFiles = preferences.isShowHiddenFilesEnabled();
+
+        // same order as in the file list, so the first visible rows are fetched first
+        List<OCFile> files = new ArrayList<>(mChildren.size());
+        for (OCFile file : mChildren) {
+            if (showHiddenFiles || !file.isHidden()) {
+                files.add(file);
+            }
+        }
+        files = preferences.getSortOrderByFolder(mLocalFolder).sortCloudFiles(files);
+
+        ThumbnailsCacheManager.prefetchThumbnails(files, mStorageManager, mAccount, mConnectivityService);
+    }
+
     private void updateOCVersion(OwnCloudClient client) {
         UpdateOCVersionOperation update = new UpdateOCVersionOperation(mAccount, mContext);
         RemoteOperationResult result = update.execute(client);
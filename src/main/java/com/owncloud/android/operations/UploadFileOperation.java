@@ -22,6 +22,7 @@
 package com.owncloud.android.operations;
 
 import android.accounts.Account;
+import android.accounts.AccountManager;
 import android.annotation.SuppressLint;
 import android.content.Context;
 import android.net.Uri;
@@ -34,6 +35,7 @@ import com.evernote.android.job.util.Device;
 import com.google.gson.reflect.TypeToken;
 import com.nextcloud.client.device.PowerManagementService;
 import com.nextcloud.client.network.ConnectivityService;
+import com.owncloud.android.R;
 import com.owncloud.android.datamodel.ArbitraryDataProvider;
 import com.owncloud.android.datamodel.DecryptedFolderMetadata;
 import com.owncloud.android.datamodel.EncryptedFolderMetadata;
@@ -44,6 +46,7 @@ import com.owncloud.android.datamodel.UploadsStorageManager;
 import com.owncloud.android.db.OCUpload;
 import com.owncloud.android.files.services.FileUploader;
 import com.owncloud.android.lib.common.OwnCloudClient;
+import com.owncloud.android.lib.common.accounts.AccountUtils;
 import com.owncloud.android.lib.common.network.OnDatatransferProgressListener;
 import com.owncloud.android.lib.common.network.ProgressiveDataTransfer;
 import com.owncloud.android.lib.common.operations.OperationCancelledException;
@@ -79,7 +82,6 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
 import java.io.RandomAccessFile;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileLock;
@@ -90,6 +92,7 @@ import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.atomic.AtomicBoolean;
 
+import androidx.annotation.Nullable;
 import androidx.annotation.RequiresApi;
 
 
@@ -100,6 +103,7 @@ import androidx.annotation.RequiresApi;
 public class UploadFileOperation extends SyncOperation {
 
     private static final String TAG = UploadFileOperation.class.getSimpleName();
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
 
     public static final int CREATED_BY_USER = 0;
     public static final int CREATED_AS_INSTANT_PICTURE = 1;
@@ -127,6 +131,7 @@ public class UploadFileOperation extends SyncOperation {
 
     private boolean mWasRenamed;
     private long mOCUploadId;
+    private long mBytesCopied;
     /**
      * Local path to file which is to be uploaded (before any possible renaming or moving).
      */
@@ -319,6 +324,14 @@ public class UploadFileOperation extends SyncOperation {
         return mOCUploadId;
     }
 
+    /**
+     * @return bytes copied locally to stage the file and to move it into place, 0 if it was uploaded in place or
+     * hard linked
+     */
+    public long getBytesCopied() {
+        return mBytesCopied;
+    }
+
     public Set<OnDatatransferProgressListener> getDataTransferListeners() {
         return mDataTransferListeners;
     }
@@ -360,6 +373,7 @@ public class UploadFileOperation extends SyncOperation {
     protected RemoteOperationResult run(OwnCloudClient client) {
         mCancellationRequested.set(false);
         mUploadStarted.set(true);
+        mBytesCopied = 0;
 
         for (OCUpload ocUpload : uploadsStorageManager.getAllStoredUploads()) {
             if (ocUpload.getUploadId() == getOCUploadId()) {
@@ -557,7 +571,7 @@ public class UploadFileOperation extends SyncOperation {
                 temporalFile = new File(temporalPath);
 
                 Files.deleteIfExists(Paths.get(temporalPath));
-                result = copy(originalFile, temporalFile);
+                result = copy(originalFile, temporalFile, false);
 
                 if (result.isSuccess()) {
                     if (temporalFile.length() == originalFile.length()) {
@@ -584,18 +598,10 @@ public class UploadFileOperation extends SyncOperation {
             }
 
             /// perform the upload
-            if (size > ChunkedFileUploadRemoteOperation.CHUNK_SIZE_MOBILE) {
-                boolean onWifiConnection = connectivityService.isOnlineWithWifi();
-
-                mUploadOperation = new ChunkedFileUploadRemoteOperation(encryptedTempFile.getAbsolutePath(),
-                                                                        mFile.getParentRemotePath() + encryptedFileName,
-                                                                        mFile.getMimeType(), mFile.getEtagInConflict(),
-                                                                        timeStamp, onWifiConnection);
-            } else {
-                mUploadOperation = new UploadFileRemoteOperation(encryptedTempFile.getAbsolutePath(),
-                        mFile.getParentRemotePath() + encryptedFileName, mFile.getMimeType(),
-                        mFile.getEtagInConflict(), timeStamp);
-            }
+            // every attempt encrypts with a new key, so chunks of an earlier one can never be reused
+            mUploadOperation = createUploadOperation(encryptedTempFile.getAbsolutePath(),
+                                                     mFile.getParentRemotePath() + encryptedFileName,
+                                                     size, timeStamp, encryptedTempFile);
 
             for (OnDatatransferProgressListener mDataTransferListener : mDataTransferListeners) {
                 mUploadOperation.addDataTransferProgressListener(mDataTransferListener);
@@ -786,7 +792,7 @@ public class UploadFileOperation extends SyncOperation {
                 temporalFile = new File(temporalPath);
 
                 Files.deleteIfExists(Paths.get(temporalPath));
-                result = copy(originalFile, temporalFile);
+                result = copy(originalFile, temporalFile, false);
 
                 if (result.isSuccess()) {
                     if (temporalFile.length() == originalFile.length()) {
@@ -813,17 +819,8 @@ public class UploadFileOperation extends SyncOperation {
             }
 
             // perform the upload
-            if (size > ChunkedFileUploadRemoteOperation.CHUNK_SIZE_MOBILE) {
-                boolean onWifiConnection = connectivityService.isOnlineWithWifi();
-
-                mUploadOperation = new ChunkedFileUploadRemoteOperation(mFile.getStoragePath(),
-                                                                        mFile.getRemotePath(), mFile.getMimeType(),
-                                                                        mFile.getEtagInConflict(),
-                                                                        timeStamp, onWifiConnection);
-            } else {
-                mUploadOperation = new UploadFileRemoteOperation(mFile.getStoragePath(),
-                        mFile.getRemotePath(), mFile.getMimeType(), mFile.getEtagInConflict(), timeStamp);
-            }
+            mUploadOperation = createUploadOperation(mFile.getStoragePath(), mFile.getRemotePath(), size, timeStamp,
+                                                     originalFile);
 
             for (OnDatatransferProgressListener mDataTransferListener : mDataTransferListeners) {
                 mUploadOperation.addDataTransferProgressListener(mDataTransferListener);
@@ -886,6 +883,39 @@ public class UploadFileOperation extends SyncOperation {
         return result;
     }
 
+    /**
+     * Creates the operation sending the file. Large files are sent in chunks, several at a time if the account allows
+     * addressing the chunking v2 endpoint.
+     *
+     * @param source file the upload was started for, identifies chunks sent by earlier attempts
+     */
+    private UploadFileRemoteOperation createUploadOperation(String localPath, String remotePath, long size,
+                                                            String timeStamp, File source) {
+        if (size <= ChunkedFileUploadRemoteOperation.CHUNK_SIZE_MOBILE) {
+            return new UploadFileRemoteOperation(localPath, remotePath, mFile.getMimeType(),
+                                                 mFile.getEtagInConflict(), timeStamp);
+        }
+
+        String userId = AccountManager.get(mContext).getUserData(mAccount, AccountUtils.Constants.KEY_USER_ID);
+
+        if (mContext.getResources().getBoolean(R.bool.upload_parallel_chunks) && !TextUtils.isEmpty(userId)) {
+            ArbitraryDataProvider arbitraryDataProvider = new ArbitraryDataProvider(mContext.getContentResolver());
+            AdaptiveChunkSize chunkSize = new AdaptiveChunkSize(arbitraryDataProvider, mAccount.name,
+                                                                connectivityService.getActiveNetworkType());
+
+            return new ParallelChunkedUploadOperation(localPath, remotePath, mFile.getMimeType(),
+                                                      mFile.getEtagInConflict(), timeStamp, userId, chunkSize,
+                                                      mContext.getResources()
+                                                          .getInteger(R.integer.upload_max_parallel_chunks),
+                                                      mOCUploadId, uploadsStorageManager,
+                                                      source.length(), source.lastModified());
+        }
+
+        boolean onWifiConnection = connectivityService.isOnlineWithWifi();
+        return new ChunkedFileUploadRemoteOperation(localPath, remotePath, mFile.getMimeType(),
+                                                    mFile.getEtagInConflict(), timeStamp, onWifiConnection);
+    }
+
     private void logResult(RemoteOperationResult result, String sourcePath, String targetPath) {
         if (result.isSuccess()) {
             Log_OC.i(TAG, "Upload of " + sourcePath + " to " + targetPath + ": " + result.getLogMessage());
@@ -907,12 +937,12 @@ public class UploadFileOperation extends SyncOperation {
     private RemoteOperationResult copyFile(File originalFile, String expectedPath) throws OperationCancelledException,
             IOException {
         if (mLocalBehaviour == FileUploader.LOCAL_BEHAVIOUR_COPY && !mOriginalStoragePath.equals(expectedPath)) {
-            String temporalPath = FileStorageUtils.getInternalTemporalPath(mAccount.name, mContext) +
-                mFile.getRemotePath();
+            // staged on the volume of the save path, so that it can be linked there and later renamed into place
+            String temporalPath = FileStorageUtils.getTemporalPath(mAccount.name) + mFile.getRemotePath();
             mFile.setStoragePath(temporalPath);
             File temporalFile = new File(temporalPath);
 
-            return copy(originalFile, temporalFile);
+            return copy(originalFile, temporalFile, true);
         }
 
         if (mCancellationRequested.get()) {
@@ -958,12 +988,12 @@ public class UploadFileOperation extends SyncOperation {
                 break;
 
             case FileUploader.LOCAL_BEHAVIOUR_COPY:
-                if (temporalFile != null) {
-                    try {
-                        move(temporalFile, expectedFile);
-                    } catch (IOException e) {
-                        Log_OC.e(TAG, e.getMessage());
-                    }
+                // the copy made when the original could not be locked, or the one staged by copyFile
+                File stagedFile = temporalFile != null ? temporalFile : new File(mFile.getStoragePath());
+                try {
+                    move(stagedFile, expectedFile);
+                } catch (IOException e) {
+                    Log_OC.e(TAG, e.getMessage());
                 }
                 mFile.setStoragePath(expectedFile.getAbsolutePath());
                 saveUploadedFile(client);
@@ -1134,6 +1164,14 @@ public class UploadFileOperation extends SyncOperation {
      * upload will not take place.
      */
     public void cancel() {
+        cancel(null);
+    }
+
+    /**
+     * @param cancellationReason reason the upload is paused for, e.g. waiting for Wi-Fi; null if it is cancelled for
+     *                           good
+     */
+    public void cancel(@Nullable ResultCode cancellationReason) {
         if (mUploadOperation == null) {
             if (mUploadStarted.get()) {
                 Log_OC.d(TAG, "Cancelling upload during upload preparations.");
@@ -1143,7 +1181,11 @@ public class UploadFileOperation extends SyncOperation {
             }
         } else {
             Log_OC.d(TAG, "Cancelling upload during actual upload operation.");
-            mUploadOperation.cancel();
+            if (mUploadOperation instanceof ParallelChunkedUploadOperation) {
+                ((ParallelChunkedUploadOperation) mUploadOperation).cancel(cancellationReason);
+            } else {
+                mUploadOperation.cancel();
+            }
         }
     }
 
@@ -1159,12 +1201,17 @@ public class UploadFileOperation extends SyncOperation {
      * TODO rewrite with homogeneous fail handling, remove dependency on {@link RemoteOperationResult},
      * TODO     use Exceptions instead
      *
+     * Stages the file to upload at a new path, preferring a hard link to copying it. A linked file keeps sharing its
+     * contents with the source once moved into place; writers of local copies break the link first, see
+     * {@link FileStorageUtils#breakHardLink(File)}.
+     *
      * @param sourceFile Source file to copy.
      * @param targetFile Target location to copy the file.
+     * @param allowLink  false if the target must not share its contents with the source, e.g. to lock it
      * @return {@link RemoteOperationResult}
      * @throws IOException exception if file cannot be accessed
      */
-    private RemoteOperationResult copy(File sourceFile, File targetFile) throws IOException {
+    private RemoteOperationResult copy(File sourceFile, File targetFile, boolean allowLink) throws IOException {
         Log_OC.d(TAG, "Copying local file");
 
         if (FileStorageUtils.getUsableSpace() < sourceFile.length()) {
@@ -1183,26 +1230,23 @@ public class UploadFileOperation extends SyncOperation {
             }
 
             Log_OC.d(TAG, "Copying file contents");
-            InputStream in = null;
-            OutputStream out = null;
-
             try {
                 if (!mOriginalStoragePath.equals(targetFile.getAbsolutePath())) {
+                    long copied;
                     // In case document provider schema as 'content://'
                     if (mOriginalStoragePath.startsWith(UriUtils.URI_CONTENT_SCHEME)) {
-                        Uri uri = Uri.parse(mOriginalStoragePath);
-                        in = mContext.getContentResolver().openInputStream(uri);
+                        copied = copyContentUri(Uri.parse(mOriginalStoragePath), targetFile);
+                    } else if (allowLink) {
+                        copied = FileStorageUtils.linkOrCopy(sourceFile, targetFile, mCancellationRequested);
                     } else {
-                        in = new FileInputStream(sourceFile);
-                    }
-                    out = new FileOutputStream(targetFile);
-                    int nRead;
-                    byte[] buf = new byte[4096];
-                    while (!mCancellationRequested.get() &&
-                            (nRead = in.read(buf)) > -1) {
-                        out.write(buf, 0, nRead);
+                        try (FileInputStream in = new FileInputStream(sourceFile);
+                             FileOutputStream out = new FileOutputStream(targetFile)) {
+                            copied = FileStorageUtils.transfer(in.getChannel(), out.getChannel(),
+                                                               mCancellationRequested);
+                        }
                     }
-                    out.flush();
+                    mBytesCopied += copied;
+                    Log_OC.d(TAG, "Staged " + mOriginalStoragePath + ", " + copied + " bytes copied");
 
                 } // else: weird but possible situation, nothing to copy
 
@@ -1211,28 +1255,37 @@ public class UploadFileOperation extends SyncOperation {
                 }
             } catch (Exception e) {
                 return new RemoteOperationResult(ResultCode.LOCAL_STORAGE_NOT_COPIED);
-            } finally {
-                try {
-                    if (in != null) {
-                        in.close();
-                    }
-                } catch (Exception e) {
-                    Log_OC.d(TAG, "Weird exception while closing input stream for " +
-                            mOriginalStoragePath + " (ignoring)", e);
-                }
-                try {
-                    if (out != null) {
-                        out.close();
-                    }
-                } catch (Exception e) {
-                    Log_OC.d(TAG, "Weird exception while closing output stream for " +
-                            targetFile.getAbsolutePath() + " (ignoring)", e);
-                }
             }
         }
         return new RemoteOperationResult(ResultCode.OK);
     }
 
+    /**
+     * @return bytes copied
+     */
+    private long copyContentUri(Uri uri, File targetFile) throws IOException {
+        try (InputStream in = mContext.getContentResolver().openInputStream(uri);
+             FileOutputStream out = new FileOutputStream(targetFile)) {
+            if (in == null) {
+                throw new IOException("Cannot open " + uri);
+            }
+
+            // providers may hand out pipes, whose channels report no size
+            if (in instanceof FileInputStream && ((FileInputStream) in).getChannel().size() > 0) {
+                return FileStorageUtils.transfer(((FileInputStream) in).getChannel(), out.getChannel(),
+                                                 mCancellationRequested);
+            }
+
+            long copied = 0;
+            int nRead;
+            byte[] buf = new byte[COPY_BUFFER_SIZE];
+            while (!mCancellationRequested.get() && (nRead = in.read(buf)) > -1) {
+                out.write(buf, 0, nRead);
+                copied += nRead;
+            }
+            return copied;
+        }
+    }
 
     /**
      * TODO rewrite with homogeneous fail handling, remove dependency on {@link RemoteOperationResult},
@@ -1256,8 +1309,11 @@ public class UploadFileOperation extends SyncOperation {
                     FileChannel inChannel = new FileInputStream(sourceFile).getChannel();
                     FileChannel outChannel = new FileOutputStream(targetFile).getChannel();
                     try {
-                        inChannel.transferTo(0, inChannel.size(), outChannel);
-                        sourceFile.delete();
+                        // transferTo may stop early, e.g. for files above 2 GB
+                        mBytesCopied += FileStorageUtils.transfer(inChannel, outChannel, null);
+                        if (outChannel.size() == inChannel.size()) {
+                            sourceFile.delete();
+                        }
                     } catch (Exception e) {
                         mFile.setStoragePath(""); // forget the local file
                         // by now, treat this as a success; the file was uploaded
@@ -0,0 +1,176 @@
+/*
+ * Nextcloud Android client application
+ *
+ * Copyright (C) 2020 Nextcloud GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.owncloud.android.providers;
+
+import android.net.Uri;
+import android.os.Handler;
+import android.text.TextUtils;
+
+import com.owncloud.android.lib.common.utils.Log_OC;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Coalesces the change notifications of {@link FileContentProvider}.
+ *
+ * Notifications raised inside a batch are held until the outermost batch of the same thread ends; any other
+ * notification, including those of other threads while a batch runs, is held for a short window so that bursts of
+ * single row operations are delivered together. Every pending URI is
+ * delivered once, and URIs below another pending URI are dropped, since observers of descendants are notified
+ * along with their ancestors.
+ */
+class ChangeNotifier {
+
+    private static final String TAG = ChangeNotifier.class.getSimpleName();
+
+    /**
+     * Final delivery of a notification, usually {@link android.content.ContentResolver#notifyChange}
+     */
+    interface Delivery {
+        void notifyChange(Uri uri);
+    }
+
+    private final Delivery delivery;
+    private final Handler handler;
+    private final long windowMillis;
+    private final Runnable flushRunnable = this::flush;
+
+    private final Set<Uri> pending = new LinkedHashSet<>();
+    private final ThreadLocal<Batch> batches = new ThreadLocal<>();
+    private boolean flushScheduled;
+    private long receivedCount;
+    private long deliveredCount;
+    private long heldCount;
+
+    ChangeNotifier(Delivery delivery, Handler handler, long windowMillis) {
+        this.delivery = delivery;
+        this.handler = handler;
+        this.windowMillis = windowMillis;
+    }
+
+    void notifyChange(Uri uri) {
+        Batch batch = batches.get();
+        synchronized (this) {
+            receivedCount++;
+            if (batch != null) {
+                if (batch.uris.add(uri)) {
+                    heldCount++;
+                }
+                return;
+            }
+            pending.add(uri);
+            if (flushScheduled) {
+                return;
+            }
+            flushScheduled = true;
+        }
+        handler.postDelayed(flushRunnable, windowMillis);
+    }
+
+    void beginBatch() {
+        Batch batch = batches.get();
+        if (batch == null) {
+            batch = new Batch();
+            batches.set(batch);
+        }
+        batch.depth++;
+    }
+
+    void endBatch() {
+        Batch batch = batches.get();
+        if (batch == null || --batch.depth > 0) {
+            return;
+        }
+        batches.remove();
+
+        synchronized (this) {
+            heldCount -= batch.uris.size();
+            pending.addAll(batch.uris);
+        }
+        flush();
+    }
+
+    /**
+     * Delivers all pending notifications now; notifications held by running batches stay with them.
+     */
+    void flush() {
+        List<Uri> uris;
+        synchronized (this) {
+            flushScheduled = false;
+            if (pending.isEmpty()) {
+                return;
+            }
+            uris = withoutDescendants(pending);
+            pending.clear();
+            deliveredCount += uris.size();
+        }
+        handler.removeCallbacks(flushRunnable);
+
+        for (Uri uri : uris) {
+            delivery.notifyChange(uri);
+        }
+        Log_OC.v(TAG, "Delivered " + uris.size() + " change notifications, " + getSuppressedCount() +
+            " suppressed so far");
+    }
+
+    /**
+     * @return number of notifications that were merged into others instead of being delivered
+     */
+    synchronized long getSuppressedCount() {
+        return receivedCount - deliveredCount - pending.size() - heldCount;
+    }
+
+    private static List<Uri> withoutDescendants(Set<Uri> uris) {
+        Set<String> keys = new HashSet<>(uris.size());
+        for (Uri uri : uris) {
+            keys.add(key(uri, uri.getPathSegments().size()));
+        }
+
+        List<Uri> result = new ArrayList<>(uris.size());
+        for (Uri uri : uris) {
+            boolean covered = false;
+            for (int depth = uri.getPathSegments().size() - 1; depth >= 0 && !covered; depth--) {
+                covered = keys.contains(key(uri, depth));
+            }
+            if (!covered) {
+                result.add(uri);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return key identifying the URI made of the authority and the first path segments of the given one
+     */
+    private static String key(Uri uri, int depth) {
+        return uri.getAuthority() + "/" + TextUtils.join("/", uri.getPathSegments().subList(0, depth));
+    }
+
+    /**
+     * Batches running on one thread, with the notifications raised inside them
+     */
+    private static final class Batch {
+        private final Set<Uri> uris = new LinkedHashSet<>();
+        private int depth;
+    }
+}
@@ -32,6 +32,7 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.res.AssetFileDescriptor;
 import android.database.Cursor;
+import android.graphics.Bitmap;
 import android.graphics.Point;
 import android.net.Uri;
 import android.os.AsyncTask;
@@ -81,6 +82,7 @@ import org.nextcloud.providers.cursors.RootCursor;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
@@ -263,6 +265,8 @@ public class DocumentsStorageProvider extends DocumentsProvider {
 
         if (isWrite) {
             try {
+                // an uploaded copy may still be linked to the user's original, which must not change along
+                FileStorageUtils.breakHardLink(file);
                 Handler handler = new Handler(context.getMainLooper());
                 return ParcelFileDescriptor.open(file, accessMode, handler, l -> {
                     RemoteOperationResult result = new SynchronizeFileOperation(newFile, oldFile, account, true,
@@ -315,11 +319,15 @@ public class DocumentsStorageProvider extends DocumentsProvider {
 
         Document document = toDocument(documentId);
 
-        boolean exists = ThumbnailsCacheManager.containsBitmap(ThumbnailsCacheManager.PREFIX_THUMBNAIL
-                                                                   + document.getFile().getRemoteId());
+        // smallest cached variant covering the hint, so no bigger thumbnail than needed is fetched
+        int px = sizeHint == null ? 0 : Math.max(sizeHint.x, sizeHint.y);
+        Bitmap thumbnail = ThumbnailsCacheManager.getThumbnail(document.getFile(),
+                                                               ThumbnailsCacheManager.ThumbnailSize.forDimension(px),
+                                                               document.getAccount(),
+                                                               document.getStorageManager());
 
-        if (!exists) {
-            ThumbnailsCacheManager.generateThumbnailFromOCFile(document.getFile());
+        if (thumbnail != null) {
+            return toAssetFileDescriptor(context, thumbnail);
         }
 
         Uri uri = Uri.parse(UriUtils.URI_CONTENT_SCHEME + context.getResources().getString(
@@ -328,6 +336,24 @@ public class DocumentsStorageProvider extends DocumentsProvider {
         return context.getContentResolver().openAssetFileDescriptor(uri, "r");
     }
 
+    private AssetFileDescriptor toAssetFileDescriptor(Context context, Bitmap bitmap) throws FileNotFoundException {
+        try {
+            File file = File.createTempFile("thumbnail", ".png", context.getCacheDir());
+            try (FileOutputStream out = new FileOutputStream(file)) {
+                bitmap.compress(Bitmap.CompressFormat.PNG, 100, out);
+            }
+            ParcelFileDescriptor descriptor = ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY);
+
+            // the open descriptor stays readable
+            if (!file.delete()) {
+                Log_OC.d(TAG, "Could not delete temporary thumbnail " + file.getAbsolutePath());
+            }
+            return new AssetFileDescriptor(descriptor, 0, AssetFileDescriptor.UNKNOWN_LENGTH);
+        } catch (IOException e) {
+            throw new FileNotFoundException("Failed to write thumbnail: " + e.getMessage());
+        }
+    }
+
     @Override
     public String renameDocument(String documentId, String displayName) throws FileNotFoundException {
         Log.d(TAG, "renameDocument(), id=" + documentId);
@@ -27,6 +27,7 @@ import android.accounts.AccountManager;
 import android.content.ContentProvider;
 import android.content.ContentProviderOperation;
 import android.content.ContentProviderResult;
+import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
@@ -40,11 +41,14 @@ import android.database.sqlite.SQLiteOpenHelper;
 import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
 import android.os.Binder;
+import android.os.Handler;
+import android.os.Looper;
 import android.text.TextUtils;
 
 import com.nextcloud.client.core.Clock;
 import com.owncloud.android.MainApp;
 import com.owncloud.android.R;
+import com.owncloud.android.datamodel.FileMetadataCache;
 import com.owncloud.android.datamodel.OCFile;
 import com.owncloud.android.datamodel.SyncedFolder;
 import com.owncloud.android.db.ProviderMeta;
@@ -53,12 +57,15 @@ import com.owncloud.android.lib.common.accounts.AccountUtils;
 import com.owncloud.android.lib.common.utils.Log_OC;
 import com.owncloud.android.lib.resources.shares.ShareType;
 import com.owncloud.android.utils.FileStorageUtils;
-import com.owncloud.android.utils.MimeType;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Locale;
+import java.util.Set;
 
 import javax.inject.Inject;
 
@@ -91,8 +98,14 @@ public class FileContentProvider extends ContentProvider {
     private static final String ALTER_TABLE = "ALTER TABLE ";
     private static final String ADD_COLUMN = " ADD COLUMN ";
     private static final String REMOVE_COLUMN = " REMOVE COLUMN ";
+    private static final String CREATE_INDEX = "CREATE INDEX IF NOT EXISTS ";
     private static final String UPGRADE_VERSION_MSG = "OUT of the ADD in onUpgrade; oldVersion == %d, newVersion == %d";
+    private static final List<String> SYNCHRONOUS_MODES = Arrays.asList("OFF", "NORMAL", "FULL", "EXTRA");
     private static final int SINGLE_PATH_SEGMENT = 1;
+    /**
+     * Time change notifications are held to merge them with the following ones
+     */
+    private static final long NOTIFICATION_WINDOW_MILLIS = 100;
     public static final int ARBITRARY_DATA_TABLE_INTRODUCTION_VERSION = 20;
     public static final int MINIMUM_PATH_SEGMENTS_SIZE = 1;
 
@@ -100,6 +113,12 @@ public class FileContentProvider extends ContentProvider {
     private DataBaseHelper mDbHelper;
     private Context mContext;
     private UriMatcher mUriMatcher;
+    private ChangeNotifier mChangeNotifier;
+
+    /**
+     * Tables changed by the batch running on the current thread, whose cached metadata is dropped once it ends
+     */
+    private final ThreadLocal<Set<String>> mBatchChangedTables = new ThreadLocal<>();
 
     @Override
     public int delete(@NonNull Uri uri, String where, String[] whereArgs) {
@@ -116,7 +135,8 @@ public class FileContentProvider extends ContentProvider {
         } finally {
             db.endTransaction();
         }
-        mContext.getContentResolver().notifyChange(uri, null);
+        invalidateMetadataCache(uri);
+        mChangeNotifier.notifyChange(uri);
         return count;
     }
 
@@ -168,38 +188,59 @@ public class FileContentProvider extends ContentProvider {
     }
 
     private int deleteDirectory(SQLiteDatabase db, Uri uri, String where, String... whereArgs) {
-        int count = 0;
+        String folderWhere;
+        if (uri.getPathSegments().size() > MINIMUM_PATH_SEGMENTS_SIZE) {
+            folderWhere = ProviderTableMeta._ID + "=" + uri.getPathSegments().get(1)
+                + (!TextUtils.isEmpty(where) ? " AND (" + where + ")" : "");
+        } else {
+            folderWhere = where;
+        }
 
-        Cursor children = query(uri, null, null, null, null);
-        if (children != null) {
-            if (children.moveToFirst()) {
-                long childId;
-                boolean isDir;
-                while (!children.isAfterLast()) {
-                    childId = children.getLong(children.getColumnIndex(ProviderTableMeta._ID));
-                    isDir = MimeType.DIRECTORY.equals(children.getString(
-                        children.getColumnIndex(ProviderTableMeta.FILE_CONTENT_TYPE)
-                    ));
-                    if (isDir) {
-                        count += delete(db, ContentUris.withAppendedId(ProviderTableMeta.CONTENT_URI_DIR, childId),
-                                        null, (String[]) null);
-                    } else {
-                        count += delete(db, ContentUris.withAppendedId(ProviderTableMeta.CONTENT_URI_FILE, childId),
-                                        null, (String[]) null);
-                    }
-                    children.moveToNext();
-                }
+        int count = 0;
+        try (Cursor folders = db.query(ProviderTableMeta.FILE_TABLE_NAME,
+                                       new String[]{
+                                           ProviderTableMeta._ID,
+                                           ProviderTableMeta.FILE_PATH,
+                                           ProviderTableMeta.FILE_ACCOUNT_OWNER
+                                       },
+                                       folderWhere,
+                                       whereArgs,
+                                       null,
+                                       null,
+                                       null)) {
+            while (folders.moveToNext()) {
+                count += deleteSubtree(db, folders.getString(2), folders.getString(1));
+                count += db.delete(ProviderTableMeta.FILE_TABLE_NAME,
+                                   ProviderTableMeta._ID + "=" + folders.getLong(0),
+                                   null);
             }
-            children.close();
         }
 
-        if (uri.getPathSegments().size() > MINIMUM_PATH_SEGMENTS_SIZE) {
-            count += db.delete(ProviderTableMeta.FILE_TABLE_NAME,
-                               ProviderTableMeta._ID + "=" + uri.getPathSegments().get(1)
-                                   + (!TextUtils.isEmpty(where) ? " AND (" + where + ")" : ""), whereArgs);
+        return count;
+    }
+
+    /**
+     * Deletes every file below a folder with a single statement, selecting the subtree as the range of paths
+     * starting with the folder path; served by the (path, account) index.
+     *
+     * @param accountName Account owning the folder.
+     * @param folderPath  Remote path of the folder, ending with the path separator.
+     * @return Number of deleted rows, not including the folder itself.
+     */
+    private int deleteSubtree(SQLiteDatabase db, String accountName, String folderPath) {
+        if (folderPath == null || !folderPath.endsWith(OCFile.PATH_SEPARATOR)) {
+            return 0;
         }
 
-        return count;
+        // all paths with the prefix sort between the folder path and the prefix with its last character increased
+        String upperBound = folderPath.substring(0, folderPath.length() - 1)
+            + (char) (OCFile.PATH_SEPARATOR.charAt(0) + 1);
+
+        return db.delete(ProviderTableMeta.FILE_TABLE_NAME,
+                         ProviderTableMeta.FILE_PATH + " > ? AND " +
+                             ProviderTableMeta.FILE_PATH + " < ? AND " +
+                             ProviderTableMeta.FILE_ACCOUNT_OWNER + " = ?",
+                         new String[]{folderPath, upperBound, accountName});
     }
 
     private int deleteSingleFile(SQLiteDatabase db, Uri uri, String where, String... whereArgs) {
@@ -257,7 +298,8 @@ public class FileContentProvider extends ContentProvider {
         } finally {
             db.endTransaction();
         }
-        mContext.getContentResolver().notifyChange(newUri, null);
+        invalidateMetadataCache(newUri);
+        mChangeNotifier.notifyChange(newUri);
         return newUri;
     }
 
@@ -428,6 +470,11 @@ public class FileContentProvider extends ContentProvider {
             return false;
         }
 
+        ContentResolver contentResolver = mContext.getContentResolver();
+        mChangeNotifier = new ChangeNotifier(uri -> contentResolver.notifyChange(uri, null),
+                                             new Handler(Looper.getMainLooper()),
+                                             NOTIFICATION_WINDOW_MILLIS);
+
         String authority = mContext.getResources().getString(R.string.authority);
         mUriMatcher = new UriMatcher(UriMatcher.NO_MATCH);
         mUriMatcher.addURI(authority, null, ROOT_DIRECTORY);
@@ -586,9 +633,6 @@ public class FileContentProvider extends ContentProvider {
             order = sortOrder;
         }
 
-        // DB case_sensitive
-        db.execSQL("PRAGMA case_sensitive_like = true");
-
         // only file list is accessible via content provider, so only this has to be protected with projectionMap
         if ((mUriMatcher.match(uri) == ROOT_DIRECTORY || mUriMatcher.match(uri) == SINGLE_FILE ||
             mUriMatcher.match(uri) == DIRECTORY) && projectionArray != null) {
@@ -608,7 +652,8 @@ public class FileContentProvider extends ContentProvider {
         }
 
         sqlQuery.setStrict(true);
-        Cursor c = sqlQuery.query(db, projectionArray, selection, selectionArgs, null, null, order);
+        String limit = uri.getQueryParameter(ProviderTableMeta.QUERY_PARAMETER_LIMIT);
+        Cursor c = sqlQuery.query(db, projectionArray, selection, selectionArgs, null, null, order, limit);
         c.setNotificationUri(mContext.getContentResolver(), uri);
         return c;
     }
@@ -628,7 +673,8 @@ public class FileContentProvider extends ContentProvider {
         } finally {
             db.endTransaction();
         }
-        mContext.getContentResolver().notifyChange(uri, null);
+        invalidateMetadataCache(uri);
+        mChangeNotifier.notifyChange(uri);
         return count;
     }
 
@@ -663,6 +709,11 @@ public class FileContentProvider extends ContentProvider {
         int i = 0;
 
         SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        boolean outermostBatch = mBatchChangedTables.get() == null;
+        if (outermostBatch) {
+            mBatchChangedTables.set(new HashSet<>());
+        }
+        mChangeNotifier.beginBatch();
         db.beginTransaction();  // it's supposed that transactions can be nested
         try {
             for (ContentProviderOperation operation : operations) {
@@ -672,11 +723,47 @@ public class FileContentProvider extends ContentProvider {
             db.setTransactionSuccessful();
         } finally {
             db.endTransaction();
+            // changes inside the batch were only visible to other readers after the outer transaction ended
+            if (outermostBatch) {
+                Set<String> changedTables = mBatchChangedTables.get();
+                mBatchChangedTables.remove();
+                for (String table : changedTables) {
+                    invalidateMetadataCache(table);
+                }
+            }
+            mChangeNotifier.endBatch();
         }
         Log_OC.d("FileContentProvider", "applied batch in provider " + this);
         return results;
     }
 
+    /**
+     * Drops the in-memory metadata cached for the table the given URI refers to; to be called after committing
+     * changes. Inside a batch, the table is only recorded and its metadata dropped once the batch ends.
+     */
+    private void invalidateMetadataCache(Uri uri) {
+        switch (mUriMatcher.match(uri)) {
+            case ROOT_DIRECTORY:
+            case SINGLE_FILE:
+            case DIRECTORY:
+                Set<String> batchChangedTables = mBatchChangedTables.get();
+                if (batchChangedTables != null) {
+                    batchChangedTables.add(ProviderTableMeta.FILE_TABLE_NAME);
+                } else {
+                    invalidateMetadataCache(ProviderTableMeta.FILE_TABLE_NAME);
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void invalidateMetadataCache(String table) {
+        if (ProviderTableMeta.FILE_TABLE_NAME.equals(table)) {
+            FileMetadataCache.invalidateAll();
+        }
+    }
+
     private boolean checkIfColumnExists(SQLiteDatabase database, String table, String column) {
         Cursor cursor = database.rawQuery("SELECT * FROM " + table + " LIMIT 0", null);
         boolean exists = cursor.getColumnIndex(column) != -1;
@@ -811,7 +898,8 @@ public class FileContentProvider extends ContentProvider {
                        + ProviderTableMeta.UPLOADS_IS_WHILE_CHARGING_ONLY + INTEGER  // boolean
                        + ProviderTableMeta.UPLOADS_IS_WIFI_ONLY + INTEGER // boolean
                        + ProviderTableMeta.UPLOADS_CREATED_BY + INTEGER    // Upload createdBy
-                       + ProviderTableMeta.UPLOADS_FOLDER_UNLOCK_TOKEN + " TEXT );");
+                       + ProviderTableMeta.UPLOADS_FOLDER_UNLOCK_TOKEN + TEXT
+                       + ProviderTableMeta.UPLOADS_CHUNK_MANIFEST + " TEXT );");
 
         /* before:
         // PRIMARY KEY should always imply NOT NULL. Unfortunately, due to a
@@ -882,6 +970,33 @@ public class FileContentProvider extends ContentProvider {
         );
     }
 
+    /**
+     * Creates the secondary indexes backing the hot access paths: folder listing by parent, file lookup by
+     * (path, account), uploads by (status, account) and filesystem entries by (local path, synced folder).
+     *
+     * @param db Database where the indexed tables are included.
+     */
+    private void createIndexes(SQLiteDatabase db) {
+        db.execSQL(CREATE_INDEX + ProviderTableMeta.FILE_PARENT_INDEX + " ON "
+                       + ProviderTableMeta.FILE_TABLE_NAME + "("
+                       + ProviderTableMeta.FILE_PARENT + ");");
+
+        db.execSQL(CREATE_INDEX + ProviderTableMeta.FILE_PATH_ACCOUNT_INDEX + " ON "
+                       + ProviderTableMeta.FILE_TABLE_NAME + "("
+                       + ProviderTableMeta.FILE_PATH + ", "
+                       + ProviderTableMeta.FILE_ACCOUNT_OWNER + ");");
+
+        db.execSQL(CREATE_INDEX + ProviderTableMeta.UPLOADS_STATUS_ACCOUNT_INDEX + " ON "
+                       + ProviderTableMeta.UPLOADS_TABLE_NAME + "("
+                       + ProviderTableMeta.UPLOADS_STATUS + ", "
+                       + ProviderTableMeta.UPLOADS_ACCOUNT_NAME + ");");
+
+        db.execSQL(CREATE_INDEX + ProviderTableMeta.FILESYSTEM_PATH_SYNCED_FOLDER_INDEX + " ON "
+                       + ProviderTableMeta.FILESYSTEM_TABLE_NAME + "("
+                       + ProviderTableMeta.FILESYSTEM_FILE_LOCAL_PATH + ", "
+                       + ProviderTableMeta.FILESYSTEM_SYNCED_FOLDER_ID + ");");
+    }
+
     /**
      * Version 10 of database does not modify its scheme. It coincides with the upgrade of the
      * ownCloud account names structure to include in it the path to the server instance. Updating
@@ -1024,8 +1139,33 @@ public class FileContentProvider extends ContentProvider {
     }
 
     class DataBaseHelper extends SQLiteOpenHelper {
+        private final boolean writeAheadLogging;
+        private final String synchronousMode;
+
         DataBaseHelper(Context context) {
             super(context, ProviderMeta.DB_NAME, null, ProviderMeta.DB_VERSION);
+            writeAheadLogging = context.getResources().getBoolean(R.bool.db_write_ahead_logging);
+            synchronousMode = context.getResources().getString(R.string.db_synchronous_mode);
+        }
+
+        /**
+         * Sets up every connection once at open time; in write-ahead-logging mode readers get connections of their
+         * own and no longer wait for the writer.
+         */
+        @Override
+        public void onConfigure(SQLiteDatabase db) {
+            super.onConfigure(db);
+            if (writeAheadLogging) {
+                db.enableWriteAheadLogging();
+            }
+
+            // only affects the primary connection, which is the one used for writing
+            if (SYNCHRONOUS_MODES.contains(synchronousMode)) {
+                db.execSQL("PRAGMA synchronous = " + synchronousMode);
+            } else {
+                Log_OC.e(SQL, "Unknown synchronous mode " + synchronousMode + ", keeping default");
+            }
+            db.execSQL("PRAGMA case_sensitive_like = true");
         }
 
         @Override
@@ -1057,6 +1197,9 @@ public class FileContentProvider extends ContentProvider {
 
             // Create filesystem table
             createFileSystemTable(db);
+
+            // Create indexes
+            createIndexes(db);
         }
 
         @Override
@@ -2102,6 +2245,41 @@ public class FileContentProvider extends ContentProvider {
             if (!upgraded) {
                 Log_OC.i(SQL, String.format(Locale.ENGLISH, UPGRADE_VERSION_MSG, oldVersion, newVersion));
             }
+
+            if (oldVersion < 53 && newVersion >= 53) {
+                Log_OC.i(SQL, "Entering in the #53 add indexes to file, uploads and filesystem tables");
+                db.beginTransaction();
+                try {
+                    createIndexes(db);
+
+                    upgraded = true;
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+            }
+
+            if (!upgraded) {
+                Log_OC.i(SQL, String.format(Locale.ENGLISH, UPGRADE_VERSION_MSG, oldVersion, newVersion));
+            }
+
+            if (oldVersion < 54 && newVersion >= 54) {
+                Log_OC.i(SQL, "Entering in the #54 add chunk manifest to uploads table");
+                db.beginTransaction();
+                try {
+                    db.execSQL(ALTER_TABLE + ProviderTableMeta.UPLOADS_TABLE_NAME +
+                                   ADD_COLUMN + ProviderTableMeta.UPLOADS_CHUNK_MANIFEST + " TEXT ");
+
+                    upgraded = true;
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+            }
+
+            if (!upgraded) {
+                Log_OC.i(SQL, String.format(Locale.ENGLISH, UPGRADE_VERSION_MSG, oldVersion, newVersion));
+            }
         }
 
         @Override
@@ -2211,7 +2211,7 @@ public class FileDisplayActivity extends FileActivity
                                 mSyncInProgress = true;
 
                                 // perform folder synchronization
-                                RemoteOperation synchFolderOp = new RefreshFolderOperation(folder,
+                                RefreshFolderOperation synchFolderOp = new RefreshFolderOperation(folder,
                                         currentSyncTime,
                                         false,
                                         ignoreETag,
@@ -2219,6 +2219,7 @@ public class FileDisplayActivity extends FileActivity
                                         getAccount(),
                                         getApplicationContext()
                                 );
+                                synchFolderOp.setThumbnailPrefetch(connectivityService);
                                 synchFolderOp.execute(
                                         getAccount(),
                                         MainApp.getAppContext(),
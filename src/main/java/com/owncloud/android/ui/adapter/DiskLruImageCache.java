@@ -29,22 +29,38 @@ import com.jakewharton.disklrucache.DiskLruCache;
 import com.owncloud.android.BuildConfig;
 import com.owncloud.android.lib.common.utils.Log_OC;
 
+import org.apache.commons.codec.binary.Hex;
+
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 
+/**
+ * Bitmap cache on top of {@link DiskLruCache}, safe for concurrent use.
+ *
+ * Reads are not locked, as {@link DiskLruCache} hands out immutable snapshots. Writes are serialized per key stripe,
+ * so concurrent puts of the same key do not get dropped while puts of different keys proceed in parallel.
+ */
 public class DiskLruImageCache {
 
     private DiskLruCache mDiskCache;
     private CompressFormat mCompressFormat;
     private int mCompressQuality;
-    private static final int CACHE_VERSION = 1;
+    // version 1 used 32 bit hash codes as keys; opening with a new version discards those entries
+    private static final int CACHE_VERSION = 2;
+    private static final String KEY_DIGEST_ALGORITHM = "SHA-1";
     private static final int VALUE_COUNT = 1;
     private static final int IO_BUFFER_SIZE = 8 * 1024;
     private static final String CACHE_TEST_DISK = "cache_test_DISK_";
+    private static final int WRITE_LOCK_STRIPES = 16;
+
+    private final Object[] mWriteLocks = new Object[WRITE_LOCK_STRIPES];
 
     private static final String TAG = DiskLruImageCache.class.getSimpleName();
 
@@ -53,13 +69,25 @@ public class DiskLruImageCache {
         mDiskCache = DiskLruCache.open(diskCacheDir, CACHE_VERSION, VALUE_COUNT, diskCacheSize);
         mCompressFormat = compressFormat;
         mCompressQuality = quality;
+
+        for (int i = 0; i < WRITE_LOCK_STRIPES; i++) {
+            mWriteLocks[i] = new Object();
+        }
+    }
+
+    private Object getWriteLock(String validKey) {
+        return mWriteLocks[(validKey.hashCode() & Integer.MAX_VALUE) % WRITE_LOCK_STRIPES];
     }
 
-    private boolean writeBitmapToFile(Bitmap bitmap, DiskLruCache.Editor editor) throws IOException {
+    private interface ValueWriter {
+        boolean write(OutputStream out) throws IOException;
+    }
+
+    private boolean writeToFile(ValueWriter writer, DiskLruCache.Editor editor) throws IOException {
         OutputStream out = null;
         try {
             out = new BufferedOutputStream(editor.newOutputStream(0), IO_BUFFER_SIZE);
-            return bitmap.compress(mCompressFormat, mCompressQuality, out);
+            return writer.write(out);
         } finally {
             if (out != null) {
                 out.close();
@@ -68,17 +96,39 @@ public class DiskLruImageCache {
     }
 
     public void put(String key, Bitmap data) {
+        put(key, out -> data.compress(mCompressFormat, mCompressQuality, out));
+    }
 
-        DiskLruCache.Editor editor = null;
+    /**
+     * Stores already encoded image data as is.
+     *
+     * @param key  cache key
+     * @param data encoded image in any format {@link BitmapFactory} can decode
+     */
+    public void put(String key, byte[] data) {
+        put(key, out -> {
+            out.write(data);
+            return true;
+        });
+    }
+
+    private void put(String key, ValueWriter writer) {
         String validKey = convertToValidKey(key);
+
+        synchronized (getWriteLock(validKey)) {
+            write(validKey, writer);
+        }
+    }
+
+    private void write(String validKey, ValueWriter writer) {
+        DiskLruCache.Editor editor = null;
         try {
             editor = mDiskCache.edit(validKey);
             if (editor == null) {
                 return;
             }
 
-            if (writeBitmapToFile(data, editor)) {
-                mDiskCache.flush();
+            if (writeToFile(writer, editor)) {
                 editor.commit();
                 if (BuildConfig.DEBUG) {
                     Log_OC.d(CACHE_TEST_DISK, "image put on disk cache " + validKey);
@@ -171,8 +221,16 @@ public class DiskLruImageCache {
         return mDiskCache.getDirectory();
     }
 
+    /**
+     * Maps a cache key to a DiskLruCache key ([a-z0-9_-]{1,64}) via its hex encoded SHA-1 digest.
+     */
     private String convertToValidKey(String key) {
-        return Integer.toString(key.hashCode());
+        try {
+            MessageDigest digest = MessageDigest.getInstance(KEY_DIGEST_ALGORITHM);
+            return new String(Hex.encodeHex(digest.digest(key.getBytes(Charset.defaultCharset()))));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(KEY_DIGEST_ALGORITHM + " not available", e);
+        }
     }
 
     /**
@@ -182,11 +240,13 @@ public class DiskLruImageCache {
      */
     public void removeKey(String key) {
         String validKey = convertToValidKey(key);
-        try {
-            mDiskCache.remove(validKey);
-            Log_OC.d(TAG, "removeKey from cache: " + validKey);
-        } catch (IOException e) {
-            Log_OC.d(TAG, e.getMessage(), e);
+        synchronized (getWriteLock(validKey)) {
+            try {
+                mDiskCache.remove(validKey);
+                Log_OC.d(TAG, "removeKey from cache: " + validKey);
+            } catch (IOException e) {
+                Log_OC.d(TAG, e.getMessage(), e);
+            }
         }
     }
 }
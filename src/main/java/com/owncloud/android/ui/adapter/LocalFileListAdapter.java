@@ -87,6 +87,15 @@ public class LocalFileListAdapter extends RecyclerView.Adapter<RecyclerView.View
         return mFiles.size() + 1;
     }
 
+    @Override
+    public void onViewRecycled(@NonNull RecyclerView.ViewHolder holder) {
+        super.onViewRecycled(holder);
+
+        if (holder instanceof LocalFileListGridImageViewHolder) {
+            ThumbnailsCacheManager.cancelThumbnailWork(((LocalFileListGridImageViewHolder) holder).thumbnail);
+        }
+    }
+
     public boolean isCheckedFile(File file) {
         return checkedFiles.contains(file);
     }
@@ -241,7 +250,7 @@ public class LocalFileListAdapter extends RecyclerView.Adapter<RecyclerView.View
                                         task
                                 );
                         thumbnailView.setImageDrawable(asyncDrawable);
-                        task.execute(new ThumbnailsCacheManager.ThumbnailGenerationTaskObject(file, null));
+                        task.enqueue(new ThumbnailsCacheManager.ThumbnailGenerationTaskObject(file, null));
                         Log_OC.v(TAG, "Executing task to generate a new thumbnail");
 
                     } // else, already being generated, don't restart it
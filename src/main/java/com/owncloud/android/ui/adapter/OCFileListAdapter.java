@@ -163,9 +163,6 @@ public class OCFileListAdapter extends RecyclerView.Adapter<RecyclerView.ViewHol
         } else {
             userId = "";
         }
-
-        // initialise thumbnails cache on background thread
-        new ThumbnailsCacheManager.InitDiskCacheTask().execute();
     }
 
     public boolean isMultiSelect() {
@@ -579,18 +576,17 @@ public class OCFileListAdapter extends RecyclerView.Adapter<RecyclerView.ViewHol
                                                                   file.getMountType(), mContext));
         } else {
             if (file.getRemoteId() != null && file.isPreviewAvailable()) {
-                // Thumbnail in cache?
-                Bitmap thumbnail = ThumbnailsCacheManager.getBitmapFromDiskCache(
-                    ThumbnailsCacheManager.PREFIX_THUMBNAIL + file.getRemoteId()
-                );
+                ThumbnailsCacheManager.ThumbnailSize size = gridView ? ThumbnailsCacheManager.ThumbnailSize.GRID :
+                    ThumbnailsCacheManager.ThumbnailSize.LIST;
+
+                // Thumbnail in memory cache? Disk cache is checked by the generation task off the main thread
+                String imageKey = size.getKey(file.getRemoteId());
+                Bitmap thumbnail = MimeTypeUtil.isVideo(file) ?
+                    ThumbnailsCacheManager.getVideoThumbnailFromMemoryCache(imageKey) :
+                    ThumbnailsCacheManager.getBitmapFromMemoryCache(imageKey);
 
                 if (thumbnail != null && !file.isUpdateThumbnailNeeded()) {
-                    if (MimeTypeUtil.isVideo(file)) {
-                        Bitmap withOverlay = ThumbnailsCacheManager.addVideoOverlay(thumbnail);
-                        thumbnailView.setImageBitmap(withOverlay);
-                    } else {
-                        thumbnailView.setImageBitmap(thumbnail);
-                    }
+                    thumbnailView.setImageBitmap(thumbnail);
                 } else {
                     // generate new thumbnail
                     if (ThumbnailsCacheManager.cancelPotentialThumbnailWork(file, thumbnailView)) {
@@ -599,7 +595,8 @@ public class OCFileListAdapter extends RecyclerView.Adapter<RecyclerView.ViewHol
                                 new ThumbnailsCacheManager.ThumbnailGenerationTask(thumbnailView,
                                                                                    mStorageManager,
                                                                                    user.toPlatformAccount(),
-                                                                                   asyncTasks);
+                                                                                   asyncTasks,
+                                                                                   size);
 
                             if (thumbnail == null) {
                                 thumbnail = BitmapUtils.drawableToBitmap(
@@ -613,7 +610,7 @@ public class OCFileListAdapter extends RecyclerView.Adapter<RecyclerView.ViewHol
                                                                                   thumbnail, task);
                             thumbnailView.setImageDrawable(asyncDrawable);
                             asyncTasks.add(task);
-                            task.execute(new ThumbnailsCacheManager.ThumbnailGenerationTaskObject(file,
+                            task.enqueue(new ThumbnailsCacheManager.ThumbnailGenerationTaskObject(file,
                                                                                                   file.getRemoteId()));
                         } catch (IllegalArgumentException e) {
                             Log_OC.d(TAG, "ThumbnailGenerationTask : " + e.getMessage());
@@ -763,14 +760,11 @@ public class OCFileListAdapter extends RecyclerView.Adapter<RecyclerView.ViewHol
             this.user = account;
         }
         if (mStorageManager != null) {
-            mFiles = mStorageManager.getFolderContent(directory, onlyOnDevice);
+            mFiles = mStorageManager.getFolderContent(directory,
+                                                      onlyOnDevice,
+                                                      preferences.isShowHiddenFilesEnabled(),
+                                                      limitToMimeType);
 
-            if (!preferences.isShowHiddenFilesEnabled()) {
-                mFiles = filterHiddenFiles(mFiles);
-            }
-            if (!limitToMimeType.isEmpty()) {
-                mFiles = filterByMimeType(mFiles, limitToMimeType);
-            }
             FileSortOrder sortOrder = preferences.getSortOrderByFolder(directory);
             mFiles = sortOrder.sortCloudFiles(mFiles);
             mFilesAll.clear();
@@ -1078,30 +1072,24 @@ public class OCFileListAdapter extends RecyclerView.Adapter<RecyclerView.ViewHol
         return ret;
     }
 
-    private List<OCFile> filterByMimeType(List<OCFile> files, String mimeType) {
-        List<OCFile> ret = new ArrayList<>();
+    @Override
+    public void onViewRecycled(@NonNull RecyclerView.ViewHolder holder) {
+        super.onViewRecycled(holder);
 
-        for (OCFile file : files) {
-            if (file.isFolder() || file.getMimeType().startsWith(mimeType)) {
-                ret.add(file);
-            }
+        if (holder instanceof OCFileListGridImageViewHolder) {
+            ThumbnailsCacheManager.cancelThumbnailWork(((OCFileListGridImageViewHolder) holder).thumbnail);
         }
-
-        return ret;
     }
 
     public void cancelAllPendingTasks() {
         for (ThumbnailsCacheManager.ThumbnailGenerationTask task : asyncTasks) {
             if (task != null) {
-                task.cancel(true);
-                if (task.getGetMethod() != null) {
-                    Log_OC.d(TAG, "cancel: abort get method directly");
-                    task.getGetMethod().abort();
-                }
+                task.cancelAndAbort();
             }
         }
 
         asyncTasks.clear();
+        ThumbnailsCacheManager.purgeCancelledTasks();
     }
 
     public void setGridView(boolean bool) {
@@ -244,7 +244,7 @@ public class TrashbinListAdapter extends RecyclerView.Adapter<RecyclerView.ViewH
                                             thumbnail, task);
                             thumbnailView.setImageDrawable(asyncDrawable);
                             asyncTasks.add(task);
-                            task.execute(new ThumbnailsCacheManager.ThumbnailGenerationTaskObject(file,
+                            task.enqueue(new ThumbnailsCacheManager.ThumbnailGenerationTaskObject(file,
                                     file.getRemoteId()));
                         } catch (IllegalArgumentException e) {
                             Log_OC.d(TAG, "ThumbnailGenerationTask : " + e.getMessage());
@@ -276,18 +276,24 @@ public class TrashbinListAdapter extends RecyclerView.Adapter<RecyclerView.ViewH
         return files.size() + 1;
     }
 
+    @Override
+    public void onViewRecycled(@NonNull RecyclerView.ViewHolder holder) {
+        super.onViewRecycled(holder);
+
+        if (holder instanceof TrashbinFileViewHolder) {
+            ThumbnailsCacheManager.cancelThumbnailWork(((TrashbinFileViewHolder) holder).thumbnail);
+        }
+    }
+
     public void cancelAllPendingTasks() {
         for (ThumbnailsCacheManager.ThumbnailGenerationTask task : asyncTasks) {
             if (task != null) {
-                task.cancel(true);
-                if (task.getGetMethod() != null) {
-                    Log_OC.d(TAG, "cancel: abort get method directly");
-                    task.getGetMethod().abort();
-                }
+                task.cancelAndAbort();
             }
         }
 
         asyncTasks.clear();
+        ThumbnailsCacheManager.purgeCancelledTasks();
     }
 
     public void setSortOrder(FileSortOrder sortOrder) {
@@ -23,19 +23,29 @@ import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.BitmapFactory.Options;
 import android.graphics.Canvas;
+import android.graphics.Color;
 import android.graphics.Matrix;
+import android.graphics.Paint;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
+import android.media.MediaMetadataRetriever;
+import android.os.Build;
 
 import com.owncloud.android.lib.common.utils.Log_OC;
 
 import org.apache.commons.codec.binary.Hex;
 
+import java.io.IOException;
 import java.nio.charset.Charset;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
 import java.util.Locale;
+import java.util.concurrent.Semaphore;
 
+import androidx.annotation.ColorInt;
 import androidx.core.graphics.drawable.RoundedBitmapDrawable;
 import androidx.core.graphics.drawable.RoundedBitmapDrawableFactory;
 import androidx.exifinterface.media.ExifInterface;
@@ -52,6 +62,15 @@ public final class BitmapUtils {
     private static final int INDEX_HUE = 0;
     private static final int INDEX_SATURATION = 1;
     private static final int INDEX_LUMINATION = 2;
+    private static final int DECODE_POOL_SIZE = 4;
+    private static final String JPEG_MIME_TYPE = "image/jpeg";
+    private static final int VIDEO_DECODERS = 2;
+
+    /** Mutable bitmaps decoded before, reused via {@link Options#inBitmap} */
+    private static final Deque<Bitmap> decodePool = new ArrayDeque<>(DECODE_POOL_SIZE);
+
+    /** Limits the number of frames extracted from videos at the same time */
+    private static final Semaphore videoDecoders = new Semaphore(VIDEO_DECODERS);
 
     private BitmapUtils() {
         // utility class -> private constructor
@@ -89,6 +108,203 @@ public final class BitmapUtils {
     }
 
 
+    /**
+     * Decodes a square, center cropped and EXIF rotated thumbnail of an image file.
+     *
+     * Subsampled pixels are decoded into a pooled bitmap and drawn with a single scale and rotate matrix into the
+     * result, which is the only new bitmap. Images without alpha channel, or with alpha flattened onto a background
+     * color, use RGB_565.
+     *
+     * @param srcPath         Absolute path to the file containing the image.
+     * @param px              Edge length of the thumbnail, in pixels.
+     * @param backgroundColor Color to flatten transparent images on, {@link Color#TRANSPARENT} to keep alpha.
+     * @return thumbnail, or null if the file could not be decoded
+     */
+    public static Bitmap decodeThumbnailFromFile(String srcPath, int px, @ColorInt int backgroundColor) {
+        final Options options = new Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(srcPath, options);
+
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+
+        boolean opaque = JPEG_MIME_TYPE.equalsIgnoreCase(options.outMimeType) ||
+            backgroundColor != Color.TRANSPARENT;
+        Bitmap.Config config = opaque ? Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888;
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = calculateSampleFactor(options, px, px);
+        options.inPreferredConfig = config;
+        options.inMutable = true;
+        options.inBitmap = takeFromDecodePool(options.outWidth / options.inSampleSize + 1,
+                                              options.outHeight / options.inSampleSize + 1, config);
+
+        Bitmap decoded;
+        try {
+            decoded = BitmapFactory.decodeFile(srcPath, options);
+        } catch (IllegalArgumentException e) {
+            // pooled bitmap not usable for this image
+            options.inBitmap = null;
+            decoded = BitmapFactory.decodeFile(srcPath, options);
+        }
+
+        if (decoded == null) {
+            return null;
+        }
+
+        int width = decoded.getWidth();
+        int height = decoded.getHeight();
+        int orientation = getExifOrientation(srcPath);
+        boolean transposed = orientation == ExifInterface.ORIENTATION_TRANSPOSE ||
+            orientation == ExifInterface.ORIENTATION_ROTATE_90 ||
+            orientation == ExifInterface.ORIENTATION_TRANSVERSE ||
+            orientation == ExifInterface.ORIENTATION_ROTATE_270;
+        float scale = transposed ? Math.max((float) px / height, (float) px / width) :
+            Math.max((float) px / width, (float) px / height);
+
+        // center on origin, rotate, scale to cover the thumbnail, center on thumbnail
+        Matrix matrix = new Matrix();
+        matrix.setTranslate(-width / 2f, -height / 2f);
+        applyExifOrientation(matrix, orientation);
+        matrix.postScale(scale, scale);
+        matrix.postTranslate(px / 2f, px / 2f);
+
+        Bitmap thumbnail = Bitmap.createBitmap(px, px, config);
+        Canvas canvas = new Canvas(thumbnail);
+        if (backgroundColor != Color.TRANSPARENT) {
+            canvas.drawColor(backgroundColor);
+        }
+        canvas.drawBitmap(decoded, matrix, new Paint(Paint.FILTER_BITMAP_FLAG));
+
+        returnToDecodePool(decoded);
+        return thumbnail;
+    }
+
+    /**
+     * Extracts a square, center cropped thumbnail from a representative frame of a video file.
+     *
+     * Hardware decoders are a scarce resource, so only a few frames are extracted at the same time. Where supported,
+     * the frame is scaled down by the decoder, instead of retrieving it in full size first.
+     *
+     * @param srcPath Absolute path to the video file.
+     * @param px      Edge length of the thumbnail, in pixels.
+     * @return thumbnail, or null if no frame could be extracted
+     */
+    public static Bitmap decodeVideoFrame(String srcPath, int px) {
+        try {
+            videoDecoders.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+
+        Bitmap frame = null;
+        MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+        try {
+            retriever.setDataSource(srcPath);
+            frame = retrieveFrame(retriever, px);
+        } catch (RuntimeException e) {
+            Log_OC.w(TAG, "Failed to extract frame from video " + srcPath);
+        } finally {
+            try {
+                retriever.release();
+            } catch (RuntimeException e) {
+                Log_OC.w(TAG, "Failed release MediaMetadataRetriever for " + srcPath);
+            }
+            videoDecoders.release();
+        }
+
+        if (frame == null) {
+            return null;
+        }
+
+        int width = frame.getWidth();
+        int height = frame.getHeight();
+        float scale = Math.max((float) px / width, (float) px / height);
+
+        Matrix matrix = new Matrix();
+        matrix.setTranslate(-width / 2f, -height / 2f);
+        matrix.postScale(scale, scale);
+        matrix.postTranslate(px / 2f, px / 2f);
+
+        // video frames are opaque
+        Bitmap thumbnail = Bitmap.createBitmap(px, px, Bitmap.Config.RGB_565);
+        new Canvas(thumbnail).drawBitmap(frame, matrix, new Paint(Paint.FILTER_BITMAP_FLAG));
+        frame.recycle();
+
+        return thumbnail;
+    }
+
+    private static Bitmap retrieveFrame(MediaMetadataRetriever retriever, int px) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O_MR1) {
+            return retriever.getFrameAtTime(-1, MediaMetadataRetriever.OPTION_CLOSEST_SYNC);
+        }
+
+        int width = parseInt(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_WIDTH));
+        int height = parseInt(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_HEIGHT));
+        int rotation = parseInt(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_ROTATION));
+
+        if (width <= 0 || height <= 0) {
+            return retriever.getFrameAtTime(-1, MediaMetadataRetriever.OPTION_CLOSEST_SYNC);
+        }
+        if (rotation == 90 || rotation == 270) {
+            int swap = width;
+            width = height;
+            height = swap;
+        }
+
+        // bounds in which the shorter edge of the frame is px long, so that the thumbnail can be cropped from it
+        int min = Math.min(width, height);
+        if (min <= px) {
+            return retriever.getFrameAtTime(-1, MediaMetadataRetriever.OPTION_CLOSEST_SYNC);
+        }
+        return retriever.getScaledFrameAtTime(-1, MediaMetadataRetriever.OPTION_CLOSEST_SYNC,
+                                              width * px / min, height * px / min);
+    }
+
+    private static int parseInt(String value) {
+        try {
+            return value == null ? 0 : Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static synchronized Bitmap takeFromDecodePool(int width, int height, Bitmap.Config config) {
+        // reusing a bitmap of a different size needs API 19
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT) {
+            return null;
+        }
+
+        int bytesPerPixel = config == Bitmap.Config.RGB_565 ? 2 : 4;
+        Iterator<Bitmap> iterator = decodePool.iterator();
+        while (iterator.hasNext()) {
+            Bitmap bitmap = iterator.next();
+            if (bitmap.getAllocationByteCount() >= width * height * bytesPerPixel) {
+                iterator.remove();
+                return bitmap;
+            }
+        }
+        return null;
+    }
+
+    private static synchronized void returnToDecodePool(Bitmap bitmap) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT && bitmap.isMutable() &&
+            decodePool.size() < DECODE_POOL_SIZE) {
+            decodePool.push(bitmap);
+        }
+    }
+
+    private static int getExifOrientation(String storagePath) {
+        try {
+            return new ExifInterface(storagePath).getAttributeInt(ExifInterface.TAG_ORIENTATION,
+                                                                  ExifInterface.ORIENTATION_NORMAL);
+        } catch (IOException e) {
+            return ExifInterface.ORIENTATION_NORMAL;
+        }
+    }
+
     /**
      * Calculates a proper value for options.inSampleSize in order to decode a Bitmap minimizing
      * the memory overload and covering a target surface of reqWidth x reqHeight if the original
@@ -153,39 +369,7 @@ public final class BitmapUtils {
             int orientation = exifInterface.getAttributeInt(ExifInterface.TAG_ORIENTATION, 1);
 
             Matrix matrix = new Matrix();
-
-            // 1: nothing to do
-
-            // 2
-            if (orientation == ExifInterface.ORIENTATION_FLIP_HORIZONTAL) {
-                matrix.postScale(-1.0f, 1.0f);
-            }
-            // 3
-            else if (orientation == ExifInterface.ORIENTATION_ROTATE_180) {
-                matrix.postRotate(180);
-            }
-            // 4
-            else if (orientation == ExifInterface.ORIENTATION_FLIP_VERTICAL) {
-                matrix.postScale(1.0f, -1.0f);
-            }
-            // 5
-            else if (orientation == ExifInterface.ORIENTATION_TRANSPOSE) {
-                matrix.postRotate(-90);
-                matrix.postScale(1.0f, -1.0f);
-            }
-            // 6
-            else if (orientation == ExifInterface.ORIENTATION_ROTATE_90) {
-                matrix.postRotate(90);
-            }
-            // 7
-            else if (orientation == ExifInterface.ORIENTATION_TRANSVERSE) {
-                matrix.postRotate(90);
-                matrix.postScale(1.0f, -1.0f);
-            }
-            // 8
-            else if (orientation == ExifInterface.ORIENTATION_ROTATE_270) {
-                matrix.postRotate(270);
-            }
+            applyExifOrientation(matrix, orientation);
 
             // Rotate the bitmap
             resultBitmap = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, true);
@@ -198,6 +382,44 @@ public final class BitmapUtils {
         return resultBitmap;
     }
 
+    /**
+     * Appends the transformation of an EXIF orientation to a matrix.
+     */
+    private static void applyExifOrientation(Matrix matrix, int orientation) {
+        // 1: nothing to do
+
+        // 2
+        if (orientation == ExifInterface.ORIENTATION_FLIP_HORIZONTAL) {
+            matrix.postScale(-1.0f, 1.0f);
+        }
+        // 3
+        else if (orientation == ExifInterface.ORIENTATION_ROTATE_180) {
+            matrix.postRotate(180);
+        }
+        // 4
+        else if (orientation == ExifInterface.ORIENTATION_FLIP_VERTICAL) {
+            matrix.postScale(1.0f, -1.0f);
+        }
+        // 5
+        else if (orientation == ExifInterface.ORIENTATION_TRANSPOSE) {
+            matrix.postRotate(-90);
+            matrix.postScale(1.0f, -1.0f);
+        }
+        // 6
+        else if (orientation == ExifInterface.ORIENTATION_ROTATE_90) {
+            matrix.postRotate(90);
+        }
+        // 7
+        else if (orientation == ExifInterface.ORIENTATION_TRANSVERSE) {
+            matrix.postRotate(90);
+            matrix.postScale(1.0f, -1.0f);
+        }
+        // 8
+        else if (orientation == ExifInterface.ORIENTATION_ROTATE_270) {
+            matrix.postRotate(270);
+        }
+    }
+
     /**
      *  Convert HSL values to a RGB Color.
      *
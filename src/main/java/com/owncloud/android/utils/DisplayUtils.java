@@ -58,7 +58,7 @@ import com.nextcloud.client.account.CurrentAccountProvider;
 import com.nextcloud.client.network.ClientFactory;
 import com.owncloud.android.MainApp;
 import com.owncloud.android.R;
-import com.owncloud.android.datamodel.ArbitraryDataProvider;
+import com.owncloud.android.datamodel.AvatarCache;
 import com.owncloud.android.datamodel.OCFile;
 import com.owncloud.android.datamodel.ThumbnailsCacheManager;
 import com.owncloud.android.lib.common.OwnCloudAccount;
@@ -482,15 +482,14 @@ public final class DisplayUtils {
             ((View) callContext).setContentDescription(String.valueOf(account.hashCode()));
         }
 
-        ArbitraryDataProvider arbitraryDataProvider = new ArbitraryDataProvider(context.getContentResolver());
-
         String serverName = account.name.substring(account.name.lastIndexOf('@') + 1);
-        String eTag = arbitraryDataProvider.getValue(userId + "@" + serverName, ThumbnailsCacheManager.AVATAR);
-        String avatarKey = "a_" + userId + "_" + serverName + "_" + eTag;
+        int px = AvatarCache.getAvatarDimension();
 
         // first show old one
         Drawable avatar = BitmapUtils.bitmapToCircularBitmapDrawable(resources,
-                                                                     ThumbnailsCacheManager.getBitmapFromDiskCache(avatarKey));
+                                                                     AvatarCache.getAvatarFromMemoryCache(userId,
+                                                                                                          serverName,
+                                                                                                          px));
 
         // if no one exists, show colored icon with initial char
         if (avatar == null) {
@@ -502,6 +501,13 @@ public final class DisplayUtils {
             }
         }
 
+        // avatar within its max-age needs no request at all
+        if (AvatarCache.isFresh(userId, serverName, px)) {
+            ThumbnailsCacheManager.cancelPotentialAvatarWork(userId, callContext);
+            listener.avatarGenerated(avatar, callContext);
+            return;
+        }
+
         // check for new avatar, eTag is compared, so only new one is downloaded
         if (ThumbnailsCacheManager.cancelPotentialAvatarWork(userId, callContext)) {
             final ThumbnailsCacheManager.AvatarGenerationTask task =
@@ -28,6 +28,8 @@ import android.content.pm.PackageManager;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Environment;
+import android.system.ErrnoException;
+import android.system.Os;
 import android.text.TextUtils;
 import android.util.Log;
 import android.webkit.MimeTypeMap;
@@ -42,8 +44,7 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
+import java.nio.channels.FileChannel;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
@@ -53,7 +54,9 @@ import java.util.Date;
 import java.util.List;
 import java.util.Locale;
 import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import androidx.annotation.Nullable;
 import androidx.core.app.ActivityCompat;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 
@@ -68,6 +71,7 @@ public final class FileStorageUtils {
 
     private static final String PATTERN_YYYY_MM = "yyyy/MM/";
     private static final String DEFAULT_FALLBACK_STORAGE_PATH = "/storage/sdcard0";
+    private static final long TRANSFER_STEP = 8 * 1024 * 1024;
 
     private FileStorageUtils() {
         // utility class -> private constructor
@@ -339,17 +343,13 @@ public final class FileStorageUtils {
     public static boolean copyFile(File src, File target) {
         boolean ret = true;
 
-        InputStream in = null;
-        OutputStream out = null;
+        FileInputStream in = null;
+        FileOutputStream out = null;
 
         try {
             in = new FileInputStream(src);
             out = new FileOutputStream(target);
-            byte[] buf = new byte[1024];
-            int len;
-            while ((len = in.read(buf)) > 0) {
-                out.write(buf, 0, len);
-            }
+            transfer(in.getChannel(), out.getChannel(), null);
         } catch (IOException ex) {
             ret = false;
         } finally {
@@ -372,6 +372,97 @@ public final class FileStorageUtils {
         return ret;
     }
 
+    /**
+     * Makes the contents of a file available at a second path. A hard link is created if both paths are on the same
+     * file system, the contents are copied otherwise.
+     *
+     * @param source    file to link or copy, must be a regular file
+     * @param target    new path, an existing file there is replaced
+     * @param cancelled stops copying once set, may be null
+     * @return bytes copied, 0 if the file was linked
+     * @throws IOException if the file could not be copied
+     */
+    public static long linkOrCopy(File source, File target, @Nullable AtomicBoolean cancelled) throws IOException {
+        if (target.exists() && !target.delete()) {
+            throw new IOException("Cannot replace " + target.getAbsolutePath());
+        }
+
+        if (SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            try {
+                Os.link(source.getAbsolutePath(), target.getAbsolutePath());
+                return 0;
+            } catch (ErrnoException e) {
+                // e.g. EXDEV across file systems, or a file system without hard links like FAT
+                Log_OC.d(TAG, "Cannot link " + source.getAbsolutePath() + ", copying it: " + e.getMessage());
+            }
+        }
+
+        try (FileInputStream in = new FileInputStream(source); FileOutputStream out = new FileOutputStream(target)) {
+            return transfer(in.getChannel(), out.getChannel(), cancelled);
+        }
+    }
+
+    /**
+     * @return true if the contents of the file are reachable through another path as well, e.g. after
+     * {@link #linkOrCopy(File, File, AtomicBoolean)} linked it; false if unknown
+     */
+    public static boolean isHardLinked(File file) {
+        if (SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            try {
+                return Os.stat(file.getAbsolutePath()).st_nlink > 1;
+            } catch (ErrnoException e) {
+                Log_OC.d(TAG, "Cannot stat " + file.getAbsolutePath() + ": " + e.getMessage());
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Gives a hard linked file contents of its own, so that writing to it leaves the other paths unchanged. Files
+     * which are not linked are left as they are.
+     *
+     * @throws IOException if the file could not be copied
+     */
+    public static void breakHardLink(File file) throws IOException {
+        if (!isHardLinked(file)) {
+            return;
+        }
+
+        File copy = new File(file.getAbsolutePath() + ".unlinked");
+        try (FileInputStream in = new FileInputStream(file); FileOutputStream out = new FileOutputStream(copy)) {
+            transfer(in.getChannel(), out.getChannel(), null);
+        }
+        if (!copy.renameTo(file)) {
+            copy.delete();
+            throw new IOException("Cannot replace " + file.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Copies all remaining contents of a channel to another. The kernel moves the data where the platform supports
+     * it, otherwise large buffers are used.
+     *
+     * @param cancelled stops copying once set, may be null
+     * @return bytes copied
+     */
+    public static long transfer(FileChannel source, FileChannel target, @Nullable AtomicBoolean cancelled)
+        throws IOException {
+        long position = source.position();
+        long size = source.size();
+        long copied = 0;
+
+        while (position < size && (cancelled == null || !cancelled.get())) {
+            long transferred = source.transferTo(position, Math.min(TRANSFER_STEP, size - position), target);
+            if (transferred <= 0) {
+                break;
+            }
+            position += transferred;
+            copied += transferred;
+        }
+        source.position(position);
+        return copied;
+    }
+
     public static boolean moveFile(File sourceFile, File targetFile) {
         if (copyFile(sourceFile, targetFile)) {
             return sourceFile.delete();
@@ -68,4 +68,24 @@ public final class StringUtils {
             return "";
         }
     }
+
+    /**
+     * Builds a pattern for the SQLite GLOB operator matching every string that starts with the given prefix.
+     * Unlike LIKE, GLOB is always case sensitive, whatever the settings of the connection running the query.
+     *
+     * @param prefix literal prefix, wildcard characters in it are escaped
+     * @return GLOB pattern
+     */
+    public static @NonNull
+    String globPrefixPattern(@NonNull String prefix) {
+        StringBuilder pattern = new StringBuilder(prefix.length() + 1);
+        for (char c : prefix.toCharArray()) {
+            if (c == '*' || c == '?' || c == '[') {
+                pattern.append('[').append(c).append(']');
+            } else {
+                pattern.append(c);
+            }
+        }
+        return pattern.append('*').toString();
+    }
 }
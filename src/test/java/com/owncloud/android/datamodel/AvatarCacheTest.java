@@ -0,0 +1,41 @@
+/*
+ * Nextcloud Android client application
+ *
+ * Copyright (C) 2020 Nextcloud GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.owncloud.android.datamodel;
+
+import org.apache.commons.httpclient.Header;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class AvatarCacheTest {
+
+    @Test
+    public void maxAgeIsTakenFromCacheControl() {
+        Header header = new Header("Cache-Control", "public, max-age=86400");
+        assertEquals(TimeUnit.DAYS.toMillis(1), AvatarCache.getMaxAge(header));
+    }
+
+    @Test
+    public void defaultMaxAgeWithoutCacheControl() {
+        assertEquals(TimeUnit.HOURS.toMillis(1), AvatarCache.getMaxAge(null));
+        assertEquals(TimeUnit.HOURS.toMillis(1), AvatarCache.getMaxAge(new Header("Cache-Control", "no-store")));
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Nextcloud Android client application
+ *
+ * Copyright (C) 2020 Nextcloud GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.owncloud.android.datamodel;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+
+public class FileDataStorageManagerAncestorsTest {
+
+    @Test
+    public void testAncestorPathsOfFile() {
+        assertEquals(Arrays.asList("/a/b/", "/a/", "/"), FileDataStorageManager.getAncestorPaths("/a/b/c.txt"));
+    }
+
+    @Test
+    public void testAncestorPathsOfFolder() {
+        assertEquals(Arrays.asList("/a/b/", "/a/", "/"), FileDataStorageManager.getAncestorPaths("/a/b/c/"));
+    }
+
+    @Test
+    public void testAncestorPathsOfTopLevelFile() {
+        assertEquals(Collections.singletonList("/"), FileDataStorageManager.getAncestorPaths("/c.txt"));
+    }
+
+    @Test
+    public void testRootHasNoAncestors() {
+        assertEquals(Collections.emptyList(), FileDataStorageManager.getAncestorPaths("/"));
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * Nextcloud Android client application
+ *
+ * Copyright (C) 2020 Nextcloud GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.owncloud.android.files.services;
+
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs the pool against a local HTTP server standing in for WebDAV, which answers every PUT after a fixed latency.
+ *
+ * Uploads run on worker threads of the pool, so their failures are collected and asserted on the test thread.
+ */
+public class UploadWorkerPoolTest {
+
+    private static final int LATENCY_MILLIS = 50;
+    private static final int UPLOADS = 24;
+    private static final long TIMEOUT_MILLIS = 30000;
+
+    private final List<Throwable> failures = new CopyOnWriteArrayList<>();
+    private HttpServer server;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/remote.php/webdav/", exchange -> {
+            try (InputStream body = exchange.getRequestBody()) {
+                while (body.read() != -1) {
+                    // drain upload
+                }
+                Thread.sleep(LATENCY_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.sendResponseHeaders(201, -1);
+            exchange.close();
+        });
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+        assertNoFailures();
+    }
+
+    @Test
+    public void parallelUploadsAreFaster() throws Exception {
+        long serial = uploadAll(1);
+        long parallel = uploadAll(4);
+
+        assertTrue("serial: " + serial + " ms, parallel: " + parallel + " ms", parallel * 2 < serial);
+    }
+
+    @Test
+    public void limitsAreClamped() {
+        assertEquals(UploadWorkerPool.MIN_WORKERS, new UploadWorkerPool(0, 1, null).getMaxConcurrent());
+        assertEquals(UploadWorkerPool.MAX_WORKERS, new UploadWorkerPool(20, 1, null).getMaxConcurrent());
+    }
+
+    @Test
+    public void accountLimitIsKept() throws Exception {
+        UploadWorkerPool pool = new UploadWorkerPool(4, 2, null);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+
+        for (int i = 0; i < 10; i++) {
+            String path = "/file" + i;
+            pool.submit("user@server", path, () -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                put(path);
+                running.decrementAndGet();
+            });
+        }
+
+        awaitIdle(pool);
+        assertEquals(2, maxRunning.get());
+        pool.shutdown();
+    }
+
+    @Test
+    public void uploadsWithSameKeyKeepTheirOrder() throws Exception {
+        UploadWorkerPool pool = new UploadWorkerPool(4, 4, null);
+        List<Integer> finished = Collections.synchronizedList(new ArrayList<>());
+
+        for (int i = 0; i < 8; i++) {
+            int index = i;
+            pool.submit("user@server", "user@server/folder/", () -> {
+                put("/folder/file" + index);
+                finished.add(index);
+            });
+            // other uploads of the account may overtake them
+            pool.submit("user@server", "user@server/other" + i, () -> put("/other" + index));
+        }
+
+        awaitIdle(pool);
+        assertEquals(8, finished.size());
+        for (int i = 0; i < 8; i++) {
+            assertEquals(Integer.valueOf(i), finished.get(i));
+        }
+        pool.shutdown();
+    }
+
+    @Test
+    public void accountsTakeTurns() throws Exception {
+        UploadWorkerPool pool = new UploadWorkerPool(2, 1, null);
+        List<String> started = Collections.synchronizedList(new ArrayList<>());
+
+        for (int i = 0; i < 4; i++) {
+            String path = "/file" + i;
+            pool.submit("user@server", "user@server" + path, () -> {
+                started.add("user");
+                put(path);
+            });
+        }
+        // the second account is not held up behind the uploads the first account cannot start yet
+        pool.submit("admin@server", "admin@server/file", () -> {
+            started.add("admin");
+            put("/admin");
+        });
+
+        awaitIdle(pool);
+        assertEquals(5, started.size());
+        assertTrue(started.toString(), started.indexOf("admin") < 2);
+        pool.shutdown();
+    }
+
+    @Test
+    public void idleCallbackIsCalled() throws Exception {
+        AtomicInteger idleCalls = new AtomicInteger();
+        UploadWorkerPool pool = new UploadWorkerPool(2, 2, idleCalls::incrementAndGet);
+
+        pool.submit("user@server", "a", () -> put("/a"));
+        pool.submit("user@server", "b", () -> put("/b"));
+
+        awaitIdle(pool);
+        assertTrue(pool.isIdle());
+        assertTrue(idleCalls.get() >= 1);
+        pool.shutdown();
+    }
+
+    private long uploadAll(int workers) throws InterruptedException {
+        UploadWorkerPool pool = new UploadWorkerPool(workers, workers, null);
+        AtomicInteger uploaded = new AtomicInteger();
+
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < UPLOADS; i++) {
+            String path = "/file" + i;
+            pool.submit("user@server", path, () -> {
+                put(path);
+                uploaded.incrementAndGet();
+            });
+        }
+        awaitIdle(pool);
+        long duration = System.currentTimeMillis() - start;
+        pool.shutdown();
+
+        assertEquals(UPLOADS, uploaded.get());
+        return duration;
+    }
+
+    private void awaitIdle(UploadWorkerPool pool) throws InterruptedException {
+        assertTrue(pool.awaitIdle(TIMEOUT_MILLIS));
+        assertNoFailures();
+    }
+
+    private void assertNoFailures() {
+        if (!failures.isEmpty()) {
+            throw new AssertionError(failures.size() + " uploads failed", failures.get(0));
+        }
+    }
+
+    private void put(String path) {
+        HttpURLConnection connection = null;
+        try {
+            URL url = new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/remote.php/webdav" + path);
+            connection = (HttpURLConnection) url.openConnection();
+            connection.setRequestMethod("PUT");
+            connection.setDoOutput(true);
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(new byte[4096]);
+            }
+            assertEquals(path, 201, connection.getResponseCode());
+        } catch (IOException | AssertionError e) {
+            failures.add(e);
+        } finally {
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Nextcloud Android client application
+ *
+ * Copyright (C) 2020 Nextcloud GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.owncloud.android.operations;
+
+import com.evernote.android.job.JobRequest;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AdaptiveChunkSizeTest {
+
+    private static final long SIZE = 8 * 1024 * 1024;
+
+    @Test
+    public void fastStableChunksGrow() {
+        assertEquals(2 * SIZE, AdaptiveChunkSize.getNextChunkSize(SIZE, 10, 0, 10 * 1000));
+    }
+
+    @Test
+    public void failingChunksShrink() {
+        assertEquals(SIZE / 2, AdaptiveChunkSize.getNextChunkSize(SIZE, 10, 2, 10 * 1000));
+    }
+
+    @Test
+    public void slowChunksShrink() {
+        assertEquals(SIZE / 2, AdaptiveChunkSize.getNextChunkSize(SIZE, 4, 0, 4 * 60 * 1000));
+    }
+
+    @Test
+    public void occasionalFailureKeepsSize() {
+        assertEquals(SIZE, AdaptiveChunkSize.getNextChunkSize(SIZE, 40, 1, 40 * 1000));
+    }
+
+    @Test
+    public void sizeStaysWithinBounds() {
+        assertEquals(AdaptiveChunkSize.MAX_CHUNK_SIZE,
+                     AdaptiveChunkSize.getNextChunkSize(AdaptiveChunkSize.MAX_CHUNK_SIZE, 10, 0, 1000));
+        assertEquals(AdaptiveChunkSize.MIN_CHUNK_SIZE,
+                     AdaptiveChunkSize.getNextChunkSize(AdaptiveChunkSize.MIN_CHUNK_SIZE, 0, 5, 0));
+    }
+
+    @Test
+    public void unmeteredNetworksStartWithLargerChunks() {
+        assertTrue(AdaptiveChunkSize.getDefaultChunkSize(JobRequest.NetworkType.UNMETERED) >
+                       AdaptiveChunkSize.getDefaultChunkSize(JobRequest.NetworkType.NOT_ROAMING));
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Nextcloud Android client application
+ *
+ * Copyright (C) 2020 Nextcloud GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.owncloud.android.operations;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ChunkConcurrencyControllerTest {
+
+    private static final long CHUNK_SIZE = 1024 * 1024;
+    private static final long BYTES_PER_MILLI_PER_CHUNK = 100;
+
+    private long now;
+
+    /**
+     * Lets the controller send chunks over a link whose throughput depends on the chunks in flight.
+     */
+    private void simulate(ChunkConcurrencyController controller, int chunks, Link link) {
+        for (int i = 0; i < chunks; i++) {
+            int concurrency = controller.getConcurrency();
+            now += CHUNK_SIZE / link.bytesPerMilli(concurrency);
+            controller.onChunkUploaded(CHUNK_SIZE, now);
+        }
+    }
+
+    private interface Link {
+        long bytesPerMilli(int chunksInFlight);
+    }
+
+    @Test
+    public void concurrencyGrowsUntilLinkIsSaturated() {
+        ChunkConcurrencyController controller = new ChunkConcurrencyController(1, 6, 1, now);
+
+        simulate(controller, 200, c -> Math.min(c, 3) * BYTES_PER_MILLI_PER_CHUNK);
+
+        int concurrency = controller.getConcurrency();
+        assertTrue("concurrency " + concurrency, concurrency == 3 || concurrency == 4);
+    }
+
+    @Test
+    public void concurrencyBacksOffWhenThroughputDrops() {
+        ChunkConcurrencyController controller = new ChunkConcurrencyController(1, 6, 1, now);
+
+        // more than two chunks in flight congest the link
+        simulate(controller, 200, c -> (c <= 2 ? c : Math.max(1, 4 - c)) * BYTES_PER_MILLI_PER_CHUNK);
+
+        assertTrue("concurrency " + controller.getConcurrency(), controller.getConcurrency() <= 3);
+    }
+
+    @Test
+    public void concurrencyIsLimited() {
+        ChunkConcurrencyController controller = new ChunkConcurrencyController(1, 4, 2, now);
+
+        simulate(controller, 200, c -> c * BYTES_PER_MILLI_PER_CHUNK);
+
+        assertEquals(4, controller.getConcurrency());
+    }
+
+    @Test
+    public void failureHalvesConcurrency() {
+        ChunkConcurrencyController controller = new ChunkConcurrencyController(1, 6, 6, now);
+
+        controller.onChunkFailed(now);
+        assertEquals(3, controller.getConcurrency());
+
+        controller.onChunkFailed(now);
+        controller.onChunkFailed(now);
+        assertEquals(1, controller.getConcurrency());
+    }
+}
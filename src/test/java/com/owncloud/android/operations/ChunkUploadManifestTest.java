@@ -0,0 +1,90 @@
+/*
+ * Nextcloud Android client application
+ *
+ * Copyright (C) 2020 Nextcloud GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.owncloud.android.operations;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ChunkUploadManifestTest {
+
+    @Test
+    public void fileIsSplitIntoChunks() {
+        ChunkUploadManifest manifest = new ChunkUploadManifest(25, 1000, 10);
+
+        assertEquals(3, manifest.getChunkCount());
+        assertEquals(20, manifest.getChunkStart(2));
+        assertEquals(10, manifest.getChunkLength(1));
+        assertEquals(5, manifest.getChunkLength(2));
+        assertEquals("000000000000020-000000000000024", manifest.getChunkName(2));
+    }
+
+    @Test
+    public void manifestSurvivesSerialization() {
+        ChunkUploadManifest manifest = new ChunkUploadManifest(25, 1000, 10);
+        manifest.markUploaded(0);
+        manifest.markUploaded(2);
+
+        ChunkUploadManifest restored = ChunkUploadManifest.fromJson(manifest.toJson());
+
+        assertNotNull(restored);
+        assertEquals(manifest.getTransferId(), restored.getTransferId());
+        assertTrue(restored.matches(25, 1000));
+        assertTrue(restored.isUploaded(0));
+        assertFalse(restored.isUploaded(1));
+        assertEquals(15, restored.getUploadedBytes());
+    }
+
+    @Test
+    public void changedFileDoesNotMatch() {
+        ChunkUploadManifest manifest = new ChunkUploadManifest(25, 1000, 10);
+
+        assertFalse(manifest.matches(26, 1000));
+        assertFalse(manifest.matches(25, 2000));
+    }
+
+    @Test
+    public void invalidJsonIsIgnored() {
+        assertNull(ChunkUploadManifest.fromJson(null));
+        assertNull(ChunkUploadManifest.fromJson(""));
+        assertNull(ChunkUploadManifest.fromJson("{\"fileSize\": 3"));
+        assertNull(ChunkUploadManifest.fromJson("{\"fileSize\": 3}"));
+    }
+
+    @Test
+    public void chunksMissingOnServerAreForgotten() {
+        ChunkUploadManifest manifest = new ChunkUploadManifest(25, 1000, 10);
+        manifest.markUploaded(0);
+        manifest.markUploaded(1);
+
+        manifest.retainUploaded(Arrays.asList(manifest.getTransferId(), manifest.getChunkName(1)));
+        assertFalse(manifest.isUploaded(0));
+        assertTrue(manifest.isUploaded(1));
+
+        manifest.retainUploaded(Collections.emptyList());
+        assertEquals(0, manifest.getUploadedChunkCount());
+    }
+}
@@ -91,4 +91,14 @@ public class StringUtilsTest {
         assertEquals("returned parsed text value was incorrect",
                      expectedReturn, StringUtils.searchAndColor(text, searchText, dummyColorInt));
     }
+
+    @Test
+    public void globPrefixPatternAppendsWildcard() {
+        assertEquals("/folder/*", StringUtils.globPrefixPattern("/folder/"));
+    }
+
+    @Test
+    public void globPrefixPatternEscapesWildcards() {
+        assertEquals("/a[*]b[?]c[[]d]%_/*", StringUtils.globPrefixPattern("/a*b?c[d]%_/"));
+    }
 }